@@ -0,0 +1,25 @@
+package com.eg.mcp.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of this module with the GC profiler attached, so allocation rates
+ * show up next to throughput and latency. Any regular JMH command line option can still
+ * be given, e.g. {@code java -jar target/benchmarks.jar -p payloadSize=16384}.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		var options = new OptionsBuilder().parent(new CommandLineOptions(args))
+			.include(BenchmarkRunner.class.getPackageName() + ".*")
+			.addProfiler(GCProfiler.class)
+			.build();
+		new Runner(options).run();
+	}
+
+}
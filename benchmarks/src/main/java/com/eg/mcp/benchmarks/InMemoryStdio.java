@@ -0,0 +1,161 @@
+package com.eg.mcp.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+
+import com.eg.mcp.utils.McpTransportProperties.IoMode;
+
+/**
+ * The client end of a pair of in-memory pipes standing in for the stdin/stdout of the
+ * server process. Requests and responses are handled as raw newline-delimited bytes so
+ * the client side adds as little as possible to the measurements.
+ * <p>
+ * In {@link IoMode#STREAMS} the server gets piped streams, in {@link IoMode#CHANNELS} it
+ * gets the channels of two NIO pipes.
+ */
+class InMemoryStdio implements Closeable {
+
+	private static final int PIPE_SIZE = 1024 * 1024;
+
+	private PipedInputStream serverInput;
+
+	private PipedOutputStream serverOutput;
+
+	private Pipe.SourceChannel serverInputChannel;
+
+	private Pipe.SinkChannel serverOutputChannel;
+
+	private final OutputStream toServer;
+
+	private final InputStream fromServer;
+
+	private byte[] buffer = new byte[64 * 1024];
+
+	private int start;
+
+	private int end;
+
+	private int scanned;
+
+	private int lineStart;
+
+	InMemoryStdio(IoMode ioMode) throws IOException {
+		OutputStream clientOutput;
+		if (ioMode == IoMode.CHANNELS) {
+			Pipe requests = Pipe.open();
+			Pipe responses = Pipe.open();
+			this.serverInputChannel = requests.source();
+			this.serverOutputChannel = responses.sink();
+			clientOutput = Channels.newOutputStream(requests.sink());
+			this.fromServer = Channels.newInputStream(responses.source());
+		}
+		else {
+			PipedOutputStream pipedOutput = new PipedOutputStream();
+			this.serverInput = new PipedInputStream(pipedOutput, PIPE_SIZE);
+			this.serverOutput = new PipedOutputStream();
+			this.fromServer = new PipedInputStream(serverOutput, PIPE_SIZE);
+			clientOutput = pipedOutput;
+		}
+		this.toServer = new BufferedOutputStream(clientOutput, PIPE_SIZE);
+	}
+
+	/**
+	 * @return the stream the server reads requests from, null in channel mode
+	 */
+	InputStream serverInput() {
+		return serverInput;
+	}
+
+	/**
+	 * @return the stream the server writes responses to, null in channel mode
+	 */
+	OutputStream serverOutput() {
+		return serverOutput;
+	}
+
+	/**
+	 * @return the channel the server reads requests from, null in stream mode
+	 */
+	Pipe.SourceChannel serverInputChannel() {
+		return serverInputChannel;
+	}
+
+	/**
+	 * @return the channel the server writes responses to, null in stream mode
+	 */
+	Pipe.SinkChannel serverOutputChannel() {
+		return serverOutputChannel;
+	}
+
+	void send(String json) throws IOException {
+		toServer.write(json.getBytes(StandardCharsets.UTF_8));
+		toServer.write('\n');
+		toServer.flush();
+	}
+
+	/**
+	 * Sends a request made of a fixed prefix, the request id and a fixed suffix.
+	 */
+	void send(byte[] prefix, long id, byte[] suffix) throws IOException {
+		toServer.write(prefix);
+		toServer.write(Long.toString(id).getBytes(StandardCharsets.US_ASCII));
+		toServer.write(suffix);
+		toServer.write('\n');
+		toServer.flush();
+	}
+
+	/**
+	 * Reads the next line, the bytes go to a reused buffer.
+	 * @return the length of the line
+	 */
+	int receive() throws IOException {
+		while (true) {
+			for (int i = scanned; i < end; i++) {
+				if (buffer[i] == '\n') {
+					lineStart = start;
+					start = i + 1;
+					scanned = start;
+					return i - lineStart;
+				}
+			}
+			scanned = end;
+			if (start > 0) {
+				System.arraycopy(buffer, start, buffer, 0, end - start);
+				end -= start;
+				scanned -= start;
+				start = 0;
+			}
+			if (end == buffer.length) {
+				byte[] grown = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, grown, 0, end);
+				buffer = grown;
+			}
+			int read = fromServer.read(buffer, end, buffer.length - end);
+			if (read < 0) {
+				throw new EOFException("Server closed stdout");
+			}
+			end += read;
+		}
+	}
+
+	String receiveAsString() throws IOException {
+		int length = receive();
+		return new String(buffer, lineStart, length, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void close() throws IOException {
+		toServer.close();
+		fromServer.close();
+	}
+
+}
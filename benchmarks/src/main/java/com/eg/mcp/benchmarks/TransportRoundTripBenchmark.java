@@ -0,0 +1,192 @@
+package com.eg.mcp.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.eg.mcp.mytransport.MyStdioServerTransportProvider;
+import com.eg.mcp.utils.McpTransportProperties;
+import com.eg.mcp.utils.McpTransportProperties.IoMode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.modelcontextprotocol.server.McpServer;
+import io.modelcontextprotocol.server.McpServerFeatures.SyncCompletionSpecification;
+import io.modelcontextprotocol.server.McpServerFeatures.SyncPromptSpecification;
+import io.modelcontextprotocol.server.McpServerFeatures.SyncResourceSpecification;
+import io.modelcontextprotocol.server.McpServerFeatures.SyncToolSpecification;
+import io.modelcontextprotocol.server.McpSyncServer;
+import io.modelcontextprotocol.spec.McpSchema;
+
+/**
+ * Round trips through {@link MyStdioServerTransportProvider} over in-memory pipes.
+ * <p>
+ * A plain SDK server is put behind the transport with one tool, resource, prompt and
+ * completion that each return a payload of the configured size. The benchmark thread
+ * plays the client: it writes a request and blocks until the response line is read
+ * back, so every operation covers decoding, dispatch, the handler and encoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransportRoundTripBenchmark {
+
+	private static final String PROMPT_NAME = "bench-prompt";
+
+	private static final String RESOURCE_URI = "bench://payload";
+
+	@Param({ "128", "16384", "1048576" })
+	int payloadSize;
+
+	@Param({ "STREAMS", "CHANNELS" })
+	IoMode ioMode;
+
+	private InMemoryStdio stdio;
+
+	private McpSyncServer server;
+
+	private long nextId = 1;
+
+	private byte[][] toolsCall;
+
+	private byte[][] resourcesRead;
+
+	private byte[][] promptsGet;
+
+	private byte[][] completionComplete;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		String payload = "x".repeat(payloadSize);
+		stdio = new InMemoryStdio(ioMode);
+		var transportProvider = ioMode == IoMode.CHANNELS
+				? new MyStdioServerTransportProvider(new ObjectMapper(), stdio.serverInputChannel(),
+						stdio.serverOutputChannel(), McpTransportProperties.defaults(), new SimpleMeterRegistry())
+				: new MyStdioServerTransportProvider(new ObjectMapper(), stdio.serverInput(), stdio.serverOutput(),
+						McpTransportProperties.defaults(), new SimpleMeterRegistry());
+		server = McpServer.sync(transportProvider)
+			.serverInfo("benchmark-server", "0.0.1")
+			.capabilities(McpSchema.ServerCapabilities.builder()
+				.tools(false)
+				.resources(false, false)
+				.prompts(false)
+				.completions()
+				.build())
+			.tools(echoTool())
+			.resources(payloadResource(payload))
+			.prompts(echoPrompt())
+			.completions(payloadCompletion(payload))
+			.build();
+
+		stdio.send("{\"jsonrpc\":\"2.0\",\"id\":0,\"method\":\"initialize\",\"params\":{\"protocolVersion\":\""
+				+ McpSchema.LATEST_PROTOCOL_VERSION
+				+ "\",\"capabilities\":{},\"clientInfo\":{\"name\":\"benchmark-client\",\"version\":\"0.0.1\"}}}");
+		stdio.receive();
+		stdio.send("{\"jsonrpc\":\"2.0\",\"method\":\"notifications/initialized\"}");
+
+		toolsCall = request("\"method\":\"tools/call\",\"params\":{\"name\":\"echo\",\"arguments\":{\"payload\":\""
+				+ payload + "\"}}");
+		resourcesRead = request("\"method\":\"resources/read\",\"params\":{\"uri\":\"" + RESOURCE_URI + "\"}");
+		promptsGet = request("\"method\":\"prompts/get\",\"params\":{\"name\":\"" + PROMPT_NAME
+				+ "\",\"arguments\":{\"text\":\"" + payload + "\"}}");
+		completionComplete = request("\"method\":\"completion/complete\",\"params\":{\"ref\":{\"type\":\"ref/prompt\","
+				+ "\"name\":\"" + PROMPT_NAME + "\"},\"argument\":{\"name\":\"text\",\"value\":\"x\"}}");
+
+		// fail fast instead of measuring error responses
+		for (byte[][] request : List.of(toolsCall, resourcesRead, promptsGet, completionComplete)) {
+			stdio.send(request[0], nextId++, request[1]);
+			String response = stdio.receiveAsString();
+			if (response.contains("\"error\"")) {
+				throw new IllegalStateException("Benchmark request failed: " + response);
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		stdio.close();
+		server.close();
+	}
+
+	@Benchmark
+	public int toolsCall() throws IOException {
+		return roundTrip(toolsCall);
+	}
+
+	@Benchmark
+	public int resourcesRead() throws IOException {
+		return roundTrip(resourcesRead);
+	}
+
+	@Benchmark
+	public int promptsGet() throws IOException {
+		return roundTrip(promptsGet);
+	}
+
+	@Benchmark
+	public int completionComplete() throws IOException {
+		return roundTrip(completionComplete);
+	}
+
+	private int roundTrip(byte[][] request) throws IOException {
+		stdio.send(request[0], nextId++, request[1]);
+		return stdio.receive();
+	}
+
+	/**
+	 * Splits a request around its id, which changes with every call.
+	 */
+	private static byte[][] request(String methodAndParams) {
+		return new byte[][] {
+				("{\"jsonrpc\":\"2.0\"," + methodAndParams + ",\"id\":").getBytes(StandardCharsets.UTF_8),
+				"}".getBytes(StandardCharsets.UTF_8) };
+	}
+
+	private static SyncToolSpecification echoTool() {
+		var tool = new McpSchema.Tool("echo", "Returns the payload argument", """
+				{"type":"object","properties":{"payload":{"type":"string"}},"required":["payload"]}""");
+		return new SyncToolSpecification(tool,
+				(exchange, arguments) -> new McpSchema.CallToolResult((String) arguments.get("payload"), false));
+	}
+
+	private static SyncResourceSpecification payloadResource(String payload) {
+		var resource = new McpSchema.Resource(RESOURCE_URI, "payload", "A payload of the benchmarked size",
+				"text/plain", null);
+		return new SyncResourceSpecification(resource, (exchange, request) -> new McpSchema.ReadResourceResult(
+				List.of(new McpSchema.TextResourceContents(request.uri(), "text/plain", payload))));
+	}
+
+	private static SyncPromptSpecification echoPrompt() {
+		var prompt = new McpSchema.Prompt(PROMPT_NAME, "Echoes the text argument",
+				List.of(new McpSchema.PromptArgument("text", "Text to echo", true)));
+		return new SyncPromptSpecification(prompt,
+				(exchange, request) -> new McpSchema.GetPromptResult("echo",
+						List.of(new McpSchema.PromptMessage(McpSchema.Role.ASSISTANT,
+								new McpSchema.TextContent((String) request.arguments().get("text"))))));
+	}
+
+	private static SyncCompletionSpecification payloadCompletion(String payload) {
+		return new SyncCompletionSpecification(new McpSchema.PromptReference(PROMPT_NAME),
+				(exchange, request) -> new McpSchema.CompleteResult(
+						new McpSchema.CompleteResult.CompleteCompletion(List.of(payload), 1, false)));
+	}
+
+}
@@ -0,0 +1,317 @@
+package com.eg.mcp.benchmarks.replay;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+import com.eg.mcp.benchmarks.replay.CapturedTraffic.Call;
+import com.eg.mcp.benchmarks.replay.CapturedTraffic.Inbound;
+import com.eg.mcp.benchmarks.replay.CapturedTraffic.Session;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Replays the client traffic of a combined capture against a fresh server and reports
+ * latency percentiles per method, tool calls per tool, throughput and the responses that
+ * differ from the captured ones. Every captured session gets a server of its own, started
+ * from the executable jar or, with --in-process, in this JVM.
+ * <p>
+ * Requests go out at the pace they were captured at, --speed times faster, or as fast as
+ * possible with --speed=0. Initialize is always answered before anything else is sent,
+ * and asks for JSON only, so the responses can be compared as they come. Its latency
+ * includes the start of the server, pacing and throughput begin once it is answered.
+ * Parts of the responses matching --ignore, order numbers and timestamps by default, are
+ * left out of the comparison. Options not listed below are passed on to the server.
+ * <pre>
+ * java -cp target/benchmarks.jar com.eg.mcp.benchmarks.replay.CaptureReplay [--dir=/tmp/logs]
+ *      [--file=combined.txt] [--speed=1] [--server-jar=../mymcpserver/target/mymcpserver-0.0.1-SNAPSHOT.jar]
+ *      [--in-process] [--ignore=regex] [--timeout-seconds=30] [--show-differences=5] [server options]
+ * </pre>
+ */
+public final class CaptureReplay {
+
+	private static final String DEFAULT_IGNORE = "ORD-\\d+|\\d{4}-\\d{2}-\\d{2}[T ]\\d{2}:\\d{2}(:\\d{2}(\\.\\d+)?)?";
+
+	/** Asked for by clients able to switch to a binary encoding, see BinaryFraming */
+	private static final String BINARY_FRAMING_CAPABILITY = "com.eg.mcp/binaryFraming";
+
+	private static final String SERVER_LOGGING_PATH = "--mine.mcp.logging.path=";
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final PrintStream out = System.out;
+
+	private Path dir = Path.of("/tmp/logs");
+
+	private String fileName = "combined.txt";
+
+	private double speed = 1;
+
+	private String serverJar = "../mymcpserver/target/mymcpserver-0.0.1-SNAPSHOT.jar";
+
+	private boolean inProcess;
+
+	private Pattern ignore = Pattern.compile(DEFAULT_IGNORE);
+
+	private long timeoutNanos = TimeUnit.SECONDS.toNanos(30);
+
+	private int showDifferences = 5;
+
+	private final List<String> serverArgs = new ArrayList<>();
+
+	private CaptureReplay() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		CaptureReplay replay = new CaptureReplay();
+		for (String arg : args) {
+			replay.option(arg);
+		}
+		replay.run();
+	}
+
+	private void option(String arg) {
+		String value = arg.substring(arg.indexOf('=') + 1);
+		if (arg.startsWith("--dir=")) {
+			dir = Path.of(value);
+		}
+		else if (arg.startsWith("--file=")) {
+			fileName = value;
+		}
+		else if (arg.startsWith("--speed=")) {
+			speed = Double.parseDouble(value);
+		}
+		else if (arg.startsWith("--server-jar=")) {
+			serverJar = value;
+		}
+		else if (arg.equals("--in-process")) {
+			inProcess = true;
+		}
+		else if (arg.startsWith("--ignore=")) {
+			ignore = Pattern.compile(value);
+		}
+		else if (arg.startsWith("--timeout-seconds=")) {
+			timeoutNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+		}
+		else if (arg.startsWith("--show-differences=")) {
+			showDifferences = Integer.parseInt(value);
+		}
+		else {
+			serverArgs.add(arg);
+		}
+	}
+
+	private void run() throws IOException {
+		CapturedTraffic traffic = CapturedTraffic.read(dir, fileName, objectMapper);
+		if (traffic.sessions().isEmpty()) {
+			out.println("Nothing to replay in " + dir.resolve(fileName));
+			return;
+		}
+		if (serverArgs.stream().noneMatch(arg -> arg.startsWith(SERVER_LOGGING_PATH))) {
+			// the replayed server's own capture must not end up in the one being replayed
+			Path logs = Files.createTempDirectory("capture-replay");
+			serverArgs.add(SERVER_LOGGING_PATH + logs);
+			out.println("Server logs and capture go to " + logs);
+		}
+		out.printf("Replaying %d sessions at %s, %d inbound messages skipped%n", traffic.sessions().size(),
+				speed > 0 ? speed + "x" : "full speed", traffic.skipped());
+
+		ReplayReport report = new ReplayReport(showDifferences);
+		String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+		for (Session session : traffic.sessions()) {
+			try (ReplayTarget target = inProcess ? ReplayTarget.inProcess(serverArgs)
+					: ReplayTarget.process(java, serverJar, serverArgs)) {
+				replay(session, target, report);
+			}
+		}
+		report.print(out);
+	}
+
+	private record Pending(Call call, long sentNanos, CompletableFuture<Void> answered) {
+	}
+
+	private void replay(Session session, ReplayTarget target, ReplayReport report) throws IOException {
+		Map<String, Pending> pending = new ConcurrentHashMap<>();
+		List<CompletableFuture<Void>> answers = new ArrayList<>();
+		Thread.ofPlatform()
+			.name("capture-replay-responses")
+			.daemon()
+			.start(() -> readResponses(target, session, pending, report));
+
+		List<Inbound> inbound = new ArrayList<>(session.inbound());
+		if (!session.initialized()) {
+			inbound.addAll(0, initialization(inbound.getFirst().epochNanos()));
+		}
+		OutputStream toServer = target.toServer();
+		// moved on once initialize is answered, the start of the server is neither paced nor counted
+		long startEpochNanos = inbound.getFirst().epochNanos();
+		long startNanos = System.nanoTime();
+		for (Inbound message : inbound) {
+			if (speed > 0) {
+				long due = startNanos + (long) ((message.epochNanos() - startEpochNanos) / speed);
+				for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+					LockSupport.parkNanos(wait);
+				}
+			}
+			JsonNode json = message.initialize() ? withoutBinaryFraming(message.message()) : message.message();
+			byte[] line = objectMapper.writeValueAsBytes(json);
+			List<CompletableFuture<Void>> answered = new ArrayList<>();
+			long sentNanos = System.nanoTime();
+			for (Call call : message.calls()) {
+				if (call.id() != null) {
+					Pending request = new Pending(call, sentNanos, new CompletableFuture<>());
+					pending.put(call.id(), request);
+					answered.add(request.answered());
+				}
+			}
+			toServer.write(line);
+			toServer.write('\n');
+			toServer.flush();
+			answers.addAll(answered);
+			if (message.initialize()) {
+				await(answered, System.nanoTime() + timeoutNanos);
+				startEpochNanos = message.epochNanos();
+				startNanos = System.nanoTime();
+			}
+		}
+		await(answers, System.nanoTime() + timeoutNanos);
+		report.replayed(System.nanoTime() - startNanos);
+		for (Pending unanswered : pending.values()) {
+			report.unanswered(unanswered.call().label());
+		}
+		pending.clear();
+	}
+
+	private void readResponses(ReplayTarget target, Session session, Map<String, Pending> pending,
+			ReplayReport report) {
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(target.fromServer(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				long receivedNanos = System.nanoTime();
+				JsonNode message;
+				try {
+					message = objectMapper.readTree(line);
+				}
+				catch (IOException e) {
+					continue;
+				}
+				if (message.isArray()) {
+					message.forEach(response -> answered(response, receivedNanos, session, pending, report));
+				}
+				else {
+					answered(message, receivedNanos, session, pending, report);
+				}
+			}
+		}
+		catch (IOException e) {
+			// the server is gone, what is still pending is reported unanswered
+		}
+	}
+
+	private void answered(JsonNode response, long receivedNanos, Session session, Map<String, Pending> pending,
+			ReplayReport report) {
+		JsonNode id = response.get("id");
+		if (id == null || id.isNull() || response.has("method")) {
+			// notifications and requests of the server
+			return;
+		}
+		Pending request = pending.remove(id.toString());
+		if (request == null) {
+			return;
+		}
+		String label = request.call().label();
+		JsonNode captured = session.responses().get(id.toString());
+		Boolean differed = null;
+		if (captured != null && !"initialize".equals(request.call().method())) {
+			String expected = comparable(captured);
+			String actual = comparable(response);
+			differed = !expected.equals(actual);
+			if (differed) {
+				report.difference(label, id.toString(), captured.toString(), response.toString());
+			}
+		}
+		report.answered(label, receivedNanos - request.sentNanos(), differed);
+		request.answered().complete(null);
+	}
+
+	/**
+	 * @return the result or error of the response without the parts that differ from run
+	 * to run
+	 */
+	private String comparable(JsonNode response) {
+		String body = response.has("error") ? "error " + response.get("error") : "result " + response.get("result");
+		return ignore.matcher(body).replaceAll("");
+	}
+
+	/**
+	 * For a session captured without its beginning.
+	 */
+	private List<Inbound> initialization(long epochNanos) {
+		ObjectNode initialize = objectMapper.createObjectNode()
+			.put("jsonrpc", "2.0")
+			.put("id", "capture-replay-initialize")
+			.put("method", "initialize");
+		initialize.putObject("params")
+			.put("protocolVersion", "2024-11-05")
+			.<ObjectNode>set("capabilities", objectMapper.createObjectNode())
+			.putObject("clientInfo")
+			.put("name", "capture-replay")
+			.put("version", "1");
+		ObjectNode initialized = objectMapper.createObjectNode()
+			.put("jsonrpc", "2.0")
+			.put("method", "notifications/initialized");
+		return List.of(
+				new Inbound(epochNanos, initialize,
+						List.of(new Call("\"capture-replay-initialize\"", "initialize", "initialize"))),
+				new Inbound(epochNanos, initialized,
+						List.of(new Call(null, "notifications/initialized", "notifications/initialized"))));
+	}
+
+	private static JsonNode withoutBinaryFraming(JsonNode message) {
+		JsonNode copy = message.deepCopy();
+		List<JsonNode> requests = new ArrayList<>();
+		if (copy.isArray()) {
+			copy.forEach(requests::add);
+		}
+		else {
+			requests.add(copy);
+		}
+		for (JsonNode request : requests) {
+			if (request.path("params").path("capabilities").path("experimental") instanceof ObjectNode experimental) {
+				experimental.remove(BINARY_FRAMING_CAPABILITY);
+			}
+		}
+		return copy;
+	}
+
+	private static void await(List<CompletableFuture<Void>> answers, long deadlineNanos) {
+		try {
+			CompletableFuture.allOf(answers.toArray(CompletableFuture[]::new))
+				.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+		catch (TimeoutException | ExecutionException e) {
+			// reported as unanswered
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
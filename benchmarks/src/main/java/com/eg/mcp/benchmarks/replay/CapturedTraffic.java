@@ -0,0 +1,202 @@
+package com.eg.mcp.benchmarks.replay;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.eg.mcp.capture.CaptureSegments;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The client traffic of a combined capture, split into the sessions it was sent in. A
+ * session starts with an initialize request, or wherever the server was started again,
+ * which is where seq starts over at 1. Inbound messages are kept with the time they were
+ * read, outbound responses by their id as the answers to compare against.
+ * <p>
+ * Gaps and truncated messages can not be sent again and are only counted, so are
+ * responses of the client to requests of the server, whose ids only made sense to that
+ * server. Sessions of clients connected over the Unix socket at the same time are not
+ * told apart.
+ */
+final class CapturedTraffic {
+
+	private static final String INITIALIZE = "initialize";
+
+	/**
+	 * A request, notification or batch of them as the client sent it.
+	 * @param epochNanos when the server read it
+	 * @param message the message as JSON
+	 * @param calls the requests and notifications in it, one unless it is a batch
+	 */
+	record Inbound(long epochNanos, JsonNode message, List<Call> calls) {
+
+		boolean initialize() {
+			return calls.stream().anyMatch(call -> INITIALIZE.equals(call.method()));
+		}
+
+	}
+
+	/**
+	 * @param id the JSON-RPC id as JSON, null for a notification
+	 * @param method the JSON-RPC method
+	 * @param label what the call is reported under, the method or, for a tool call,
+	 * tools/call and the tool name
+	 */
+	record Call(String id, String method, String label) {
+	}
+
+	/**
+	 * @param inbound what the client sent, in order
+	 * @param responses the captured responses by the id of their request
+	 */
+	record Session(List<Inbound> inbound, Map<String, JsonNode> responses) {
+
+		boolean initialized() {
+			return !inbound.isEmpty() && inbound.getFirst().initialize();
+		}
+
+	}
+
+	private final List<Session> sessions = new ArrayList<>();
+
+	private List<Inbound> inbound = new ArrayList<>();
+
+	private Map<String, JsonNode> responses = new HashMap<>();
+
+	private int skipped;
+
+	private CapturedTraffic() {
+	}
+
+	/**
+	 * Reads all segments of the capture file in the directory, oldest first.
+	 */
+	static CapturedTraffic read(Path dir, String fileName, ObjectMapper objectMapper) throws IOException {
+		CapturedTraffic traffic = new CapturedTraffic();
+		CaptureSegments segments = new CaptureSegments(fileName);
+		for (Path segment : segments.list(dir)) {
+			try (BufferedReader reader = new BufferedReader(
+					new InputStreamReader(CaptureSegments.openText(segment), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					traffic.add(line, objectMapper);
+				}
+			}
+		}
+		traffic.endSession();
+		return traffic;
+	}
+
+	List<Session> sessions() {
+		return sessions;
+	}
+
+	/**
+	 * @return inbound messages left out, because they were dropped, truncated or not
+	 * requests and notifications
+	 */
+	int skipped() {
+		return skipped;
+	}
+
+	private void add(String line, ObjectMapper objectMapper) {
+		// seq, timestamp, direction, format, id, message
+		String[] fields = line.split("\t", 6);
+		if (fields.length < 6) {
+			return;
+		}
+		boolean in = "IN".equals(fields[2]);
+		if ("1".equals(fields[0])) {
+			endSession();
+		}
+		if ("gap".equals(fields[3]) || fields[3].endsWith("+truncated")) {
+			if (in) {
+				skipped++;
+			}
+			return;
+		}
+		JsonNode message;
+		try {
+			message = objectMapper.readTree(fields[5]);
+		}
+		catch (JsonProcessingException e) {
+			if (in) {
+				skipped++;
+			}
+			return;
+		}
+		if (in) {
+			addInbound(Instant.parse(fields[1]), message);
+		}
+		else {
+			addResponses(message);
+		}
+	}
+
+	private void addInbound(Instant timestamp, JsonNode message) {
+		List<Call> calls = new ArrayList<>();
+		if (message.isArray()) {
+			message.forEach(element -> addCall(element, calls));
+		}
+		else {
+			addCall(message, calls);
+		}
+		if (calls.isEmpty()) {
+			skipped++;
+			return;
+		}
+		Inbound received = new Inbound(timestamp.getEpochSecond() * 1_000_000_000L + timestamp.getNano(), message,
+				calls);
+		if (received.initialize()) {
+			endSession();
+		}
+		inbound.add(received);
+	}
+
+	private static void addCall(JsonNode message, List<Call> calls) {
+		JsonNode method = message.get("method");
+		if (method == null || !method.isTextual()) {
+			return;
+		}
+		String label = method.asText();
+		if ("tools/call".equals(label)) {
+			label += " " + message.path("params").path("name").asText();
+		}
+		JsonNode id = message.get("id");
+		calls.add(new Call(id != null && !id.isNull() ? id.toString() : null, method.asText(), label));
+	}
+
+	private void addResponses(JsonNode message) {
+		if (message.isArray()) {
+			message.forEach(this::addResponse);
+		}
+		else {
+			addResponse(message);
+		}
+	}
+
+	private void addResponse(JsonNode message) {
+		JsonNode id = message.get("id");
+		if (id != null && !id.isNull() && !message.has("method")) {
+			responses.put(id.toString(), message);
+		}
+	}
+
+	private void endSession() {
+		if (!inbound.isEmpty()) {
+			sessions.add(new Session(List.copyOf(inbound), Map.copyOf(responses)));
+		}
+		inbound = new ArrayList<>();
+		responses = new HashMap<>();
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.eg.mcp.benchmarks.replay;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencies and comparison outcomes of a replay, per method or tool. Thread safe.
+ */
+final class ReplayReport {
+
+	/** How much of a response a difference shows */
+	private static final int SHOWN_CHARS = 300;
+
+	private final Map<String, MethodStats> methods = new TreeMap<>();
+
+	private final List<String> differences = new ArrayList<>();
+
+	private final int maxDifferences;
+
+	private long replayNanos;
+
+	/**
+	 * @param maxDifferences differing responses shown in full, the others are only counted
+	 */
+	ReplayReport(int maxDifferences) {
+		this.maxDifferences = maxDifferences;
+	}
+
+	/**
+	 * @param differed whether the response differs from the captured one, null when there
+	 * was none to compare with
+	 */
+	synchronized void answered(String label, long latencyNanos, Boolean differed) {
+		MethodStats stats = methods.computeIfAbsent(label, unused -> new MethodStats());
+		stats.add(latencyNanos);
+		if (differed == null) {
+			stats.uncompared++;
+		}
+		else if (differed) {
+			stats.differed++;
+		}
+	}
+
+	synchronized void unanswered(String label) {
+		methods.computeIfAbsent(label, unused -> new MethodStats()).unanswered++;
+	}
+
+	synchronized void difference(String label, String id, String expected, String actual) {
+		if (differences.size() < maxDifferences) {
+			differences.add(label + " id " + id + "\n  captured: " + shorten(expected) + "\n  replayed: "
+					+ shorten(actual));
+		}
+	}
+
+	/**
+	 * Adds the time from the first request of a session being sent to its last response,
+	 * throughput leaves the server starts out.
+	 */
+	synchronized void replayed(long nanos) {
+		replayNanos += nanos;
+	}
+
+	synchronized void print(PrintStream out) {
+		out.printf("%-45s %7s %9s %9s %9s %9s %8s %10s %10s%n", "method", "count", "p50 ms", "p90 ms", "p99 ms",
+				"max ms", "differed", "uncompared", "unanswered");
+		long answered = 0;
+		for (Map.Entry<String, MethodStats> entry : methods.entrySet()) {
+			MethodStats stats = entry.getValue();
+			long[] sorted = Arrays.copyOf(stats.latencies, stats.count);
+			Arrays.sort(sorted);
+			out.printf("%-45s %7d %9.2f %9.2f %9.2f %9.2f %8d %10d %10d%n", entry.getKey(), stats.count,
+					millis(percentile(sorted, 50)), millis(percentile(sorted, 90)), millis(percentile(sorted, 99)),
+					millis(percentile(sorted, 100)), stats.differed, stats.uncompared, stats.unanswered);
+			answered += stats.count;
+		}
+		double seconds = replayNanos / (double) TimeUnit.SECONDS.toNanos(1);
+		out.printf("%d responses in %.3f s, %.1f per second%n", answered, seconds,
+				seconds > 0 ? answered / seconds : 0.0);
+		for (String difference : differences) {
+			out.println(difference);
+		}
+	}
+
+	/**
+	 * @return the nearest rank percentile of the sorted latencies, 0 when there are none
+	 */
+	private static long percentile(long[] sorted, int percent) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1_000_000.0;
+	}
+
+	private static String shorten(String text) {
+		return text.length() <= SHOWN_CHARS ? text : text.substring(0, SHOWN_CHARS) + "...";
+	}
+
+	private static final class MethodStats {
+
+		private long[] latencies = new long[16];
+
+		private int count;
+
+		private int differed;
+
+		private int uncompared;
+
+		private int unanswered;
+
+		void add(long latencyNanos) {
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = latencyNanos;
+		}
+
+	}
+
+}
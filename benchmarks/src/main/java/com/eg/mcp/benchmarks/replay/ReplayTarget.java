@@ -0,0 +1,162 @@
+package com.eg.mcp.benchmarks.replay;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.eg.mcp.MyMcpServerApplication;
+import com.eg.mcp.utils.McpTransportProperties;
+
+/**
+ * A freshly started server a session is replayed against, with the stdin and stdout the
+ * replay talks to it through. Closing it ends stdin, so the server finishes the session,
+ * and then stops it.
+ */
+abstract class ReplayTarget implements Closeable {
+
+	/**
+	 * @return where the requests are written to, the server's stdin
+	 */
+	abstract OutputStream toServer();
+
+	/**
+	 * @return where the responses are read from, the server's stdout
+	 */
+	abstract InputStream fromServer();
+
+	/**
+	 * Starts the executable jar of the server in a process of its own.
+	 */
+	static ReplayTarget process(String java, String serverJar, List<String> serverArgs) throws IOException {
+		return new ServerProcess(java, serverJar, serverArgs);
+	}
+
+	/**
+	 * Starts the server in this JVM, its stdin and stdout being in memory pipes. Only the
+	 * stdio endpoint with streams works this way, the properties asking for anything else
+	 * are overridden.
+	 */
+	static ReplayTarget inProcess(List<String> serverArgs) throws IOException {
+		return new InProcessServer(serverArgs);
+	}
+
+	private static final class ServerProcess extends ReplayTarget {
+
+		private static final long EXIT_GRACE_SECONDS = 10;
+
+		private final Process process;
+
+		ServerProcess(String java, String serverJar, List<String> serverArgs) throws IOException {
+			List<String> command = new ArrayList<>(List.of(java, "-jar", serverJar));
+			command.addAll(serverArgs);
+			this.process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		}
+
+		@Override
+		OutputStream toServer() {
+			return process.getOutputStream();
+		}
+
+		@Override
+		InputStream fromServer() {
+			return process.getInputStream();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				process.getOutputStream().close();
+			}
+			catch (IOException e) {
+				// the server is gone already
+			}
+			try {
+				if (!process.waitFor(EXIT_GRACE_SECONDS, TimeUnit.SECONDS)) {
+					process.destroy();
+					process.waitFor(EXIT_GRACE_SECONDS, TimeUnit.SECONDS);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				process.destroyForcibly();
+			}
+		}
+
+	}
+
+	private static final class InProcessServer extends ReplayTarget {
+
+		private final OutputStream toServer;
+
+		private final InputStream fromServer;
+
+		private final ConfigurableApplicationContext context;
+
+		/*
+		 * The transport picks up System.in and System.out while the context starts, they
+		 * are swapped for the pipes just for that long.
+		 */
+		InProcessServer(List<String> serverArgs) throws IOException {
+			Pipe requests = Pipe.open();
+			Pipe responses = Pipe.open();
+			this.toServer = Channels.newOutputStream(requests.sink());
+			this.fromServer = Channels.newInputStream(responses.source());
+
+			List<String> args = new ArrayList<>();
+			for (String arg : serverArgs) {
+				if (!arg.startsWith("--" + McpTransportProperties.PREFIX + ".endpoint=")
+						&& !arg.startsWith("--" + McpTransportProperties.PREFIX + ".io-mode=")) {
+					args.add(arg);
+				}
+			}
+			args.add("--" + McpTransportProperties.PREFIX + ".endpoint=" + McpTransportProperties.Endpoint.STDIO);
+			args.add("--" + McpTransportProperties.PREFIX + ".io-mode=" + McpTransportProperties.IoMode.STREAMS);
+
+			InputStream stdin = System.in;
+			PrintStream stdout = System.out;
+			System.setIn(Channels.newInputStream(requests.source()));
+			System.setOut(new PrintStream(Channels.newOutputStream(responses.sink()), false));
+			try {
+				this.context = MyMcpServerApplication.application().run(args.toArray(String[]::new));
+			}
+			finally {
+				System.setIn(stdin);
+				System.setOut(stdout);
+			}
+		}
+
+		@Override
+		OutputStream toServer() {
+			return toServer;
+		}
+
+		@Override
+		InputStream fromServer() {
+			return fromServer;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				toServer.close();
+			}
+			finally {
+				context.close();
+				fromServer.close();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.eg.mcp.framing;
+
+/**
+ * What our client and server have to agree on for the opt-in binary framing: the
+ * experimental capability both sides negotiate under, the names used in it and the
+ * layout of a binary frame, a {@link #MARKER} byte, the payload length as a 4 byte
+ * big-endian int and the payload.
+ */
+public final class BinaryFramingProtocol {
+
+	/** Experimental capability key, in the initialize request and its result */
+	public static final String CAPABILITY = "com.eg.mcp/binaryFraming";
+
+	/** Lists the formats the client reads, in the capability of the initialize request */
+	public static final String FORMATS = "formats";
+
+	/** Names the format the server picked, in the capability of the initialize result */
+	public static final String FORMAT = "format";
+
+	public static final String SMILE = "smile";
+
+	public static final String CBOR = "cbor";
+
+	/** First byte of a binary frame, never the start of a JSON text */
+	public static final byte MARKER = 0;
+
+	/** The marker and the payload length */
+	public static final int HEADER_SIZE = 5;
+
+	private BinaryFramingProtocol() {
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.eg.mcp.mytransport;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.eg.mcp.framing.BinaryFramingProtocol;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import io.modelcontextprotocol.spec.McpSchema;
+
+/**
+ * Client side of the opt-in binary framing understood by mymcpserver.
+ * <p>
+ * The formats the client reads are listed under the experimental capability
+ * {@value BinaryFramingProtocol#CAPABILITY} of the initialize request. When the server
+ * picks one it names it under the same key of its initialize result, and from then on
+ * both sides write {@link BinaryFramingProtocol#MARKER} byte, 4 byte big-endian payload
+ * length and payload frames. Any other server simply ignores the capability and the
+ * connection stays newline-delimited JSON. The names and the frame layout are shared
+ * with the server through {@link BinaryFramingProtocol}.
+ */
+final class BinaryFraming {
+
+	private BinaryFraming() {
+	}
+
+	/**
+	 * @return the mapper for the format, null for a format this client does not know
+	 */
+	static ObjectMapper newMapper(String format) {
+		return switch (format) {
+			case BinaryFramingProtocol.SMILE -> new ObjectMapper(new SmileFactory());
+			case BinaryFramingProtocol.CBOR -> new ObjectMapper(new CBORFactory());
+			default -> null;
+		};
+	}
+
+	/**
+	 * @return the initialize request with the formats added to the client capabilities
+	 */
+	static McpSchema.InitializeRequest offer(McpSchema.InitializeRequest request, List<String> formats) {
+		McpSchema.ClientCapabilities capabilities = request.capabilities();
+		Map<String, Object> experimental = new HashMap<>();
+		if (capabilities != null && capabilities.experimental() != null) {
+			experimental.putAll(capabilities.experimental());
+		}
+		experimental.put(BinaryFramingProtocol.CAPABILITY, Map.of(BinaryFramingProtocol.FORMATS, formats));
+		return new McpSchema.InitializeRequest(request.protocolVersion(),
+				new McpSchema.ClientCapabilities(experimental, capabilities == null ? null : capabilities.roots(),
+						capabilities == null ? null : capabilities.sampling()),
+				request.clientInfo());
+	}
+
+	/**
+	 * @return the format the server picked, null when it did not pick one
+	 */
+	static String accepted(McpSchema.JSONRPCResponse response) {
+		if (response.result() instanceof Map<?, ?> result
+				&& result.get("capabilities") instanceof Map<?, ?> capabilities
+				&& capabilities.get("experimental") instanceof Map<?, ?> experimental
+				&& experimental.get(BinaryFramingProtocol.CAPABILITY) instanceof Map<?, ?> binaryFraming
+				&& binaryFraming.get(BinaryFramingProtocol.FORMAT) instanceof String format) {
+			return format;
+		}
+		return null;
+	}
+
+}
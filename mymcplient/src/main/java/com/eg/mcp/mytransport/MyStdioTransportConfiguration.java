@@ -0,0 +1,37 @@
+package com.eg.mcp.mytransport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.modelcontextprotocol.client.transport.ServerParameters;
+
+import org.springframework.ai.mcp.client.autoconfigure.NamedClientMcpTransport;
+import org.springframework.ai.mcp.client.autoconfigure.StdioTransportAutoConfiguration;
+import org.springframework.ai.mcp.client.autoconfigure.properties.McpStdioClientProperties;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Stands in for {@link StdioTransportAutoConfiguration}, which has to be excluded, so the
+ * configured servers are started with {@link MyStdioClientTransport}.
+ */
+@Configuration(proxyBeanMethods = false)
+@EnableConfigurationProperties(McpStdioClientProperties.class)
+public class MyStdioTransportConfiguration {
+
+	@Bean
+	public List<NamedClientMcpTransport> stdioTransports(McpStdioClientProperties stdioProperties,
+			@Value("${mine.mcp.client.binary-formats:}") List<String> binaryFormats) {
+		List<NamedClientMcpTransport> stdioTransports = new ArrayList<>();
+		for (Map.Entry<String, ServerParameters> serverParameters : stdioProperties.toServerParameters().entrySet()) {
+			var transport = new MyStdioClientTransport(serverParameters.getValue(), new ObjectMapper(), binaryFormats);
+			stdioTransports.add(new NamedClientMcpTransport(serverParameters.getKey(), transport));
+		}
+		return stdioTransports;
+	}
+
+}
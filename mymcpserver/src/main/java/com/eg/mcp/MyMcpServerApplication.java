@@ -1,101 +1,121 @@
 package com.eg.mcp;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.io.PrintStream;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.input.TeeInputStream;
-import org.apache.commons.io.output.TeeOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.ai.tool.ToolCallbackProvider;
-import org.springframework.ai.tool.method.MethodToolCallbackProvider;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
 import org.springframework.http.MediaType;
 
+import com.eg.mcp.capture.WireCapture;
+import com.eg.mcp.orders.OrderHistory;
+import com.eg.mcp.orders.OrderJournal;
+import com.eg.mcp.orders.StoreSnapshots;
+import com.eg.mcp.providers.others.ServerMetricsResourceProvider;
 import com.eg.mcp.providers.others.StoreMcpCompleteProvider;
 import com.eg.mcp.providers.others.StoreMcpPromptProvider;
 import com.eg.mcp.providers.others.StoreMcpResourceProvider;
+import com.eg.mcp.providers.tools.CaptureToolsProvider;
+import com.eg.mcp.providers.tools.OrderHistoryToolsProvider;
 import com.eg.mcp.providers.tools.StoreResourceNowToolsProvider;
 import com.eg.mcp.providers.tools.StoreToolsProvider;
 import com.eg.mcp.utils.McpLoggingProperties;
+import com.eg.mcp.utils.McpStoreProperties;
+import com.eg.mcp.utils.McpToolSpecifications;
+import com.eg.mcp.utils.McpTransportProperties;
+import com.eg.mcp.utils.McpTransportProperties.DispatchMode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.logaritex.mcp.spring.SpringAiMcpAnnotationProvider;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import io.modelcontextprotocol.server.McpServerFeatures;
 import io.modelcontextprotocol.server.McpServerFeatures.SyncCompletionSpecification;
 import io.modelcontextprotocol.server.McpServerFeatures.SyncPromptSpecification;
 import io.modelcontextprotocol.server.McpServerFeatures.SyncResourceSpecification;
+import io.modelcontextprotocol.server.McpServerFeatures.SyncToolSpecification;
 import io.modelcontextprotocol.spec.McpSchema;
-import jakarta.annotation.PostConstruct;
-import jakarta.annotation.PreDestroy;
 
 @SpringBootApplication
-@EnableConfigurationProperties(McpLoggingProperties.class)
+@EnableConfigurationProperties({ McpLoggingProperties.class, McpTransportProperties.class, McpStoreProperties.class })
 public class MyMcpServerApplication {
 	
 	private static final Logger logger = LoggerFactory.getLogger(MyMcpServerApplication.class);
 
-	private FileOutputStream fos;
-
-	private FileOutputStream fis;
-
-	private FileOutputStream fcs;
-
-	private final McpLoggingProperties mcpLoggingProperties;
-
-	public MyMcpServerApplication(McpLoggingProperties mcpLoggingProperties) {
-		this.mcpLoggingProperties = mcpLoggingProperties;
-	}
-
-	@PostConstruct
-	private void open() throws FileNotFoundException {
+	/*
+	 * The transport hands it the messages it selects, the files are written by the
+	 * capture's own thread so the client never waits for them. Closed with the context.
+	 */
+	@Bean
+	public WireCapture wireCapture(McpLoggingProperties mcpLoggingProperties, MeterRegistry meterRegistry)
+			throws IOException {
 		//just ensure path is there and accessible
 		//follow best practices to avoid hardcoding
-		File dir = new File(mcpLoggingProperties.path());
-
-		PrintStream originalOutputStream = System.out;
-		InputStream originalInputStream = System.in;
-
-		fos = new FileOutputStream(new File(dir, mcpLoggingProperties.outFileName()));
-		fis = new FileOutputStream(new File(dir, mcpLoggingProperties.inFileName()));
-		fcs = new FileOutputStream(new File(dir, mcpLoggingProperties.combinedFileName()));
-		TeeOutputStream to = new TeeOutputStream(originalOutputStream, new TeeOutputStream(fos, fcs));
-		PrintStream ps = new PrintStream(to);
+		Path dir = Path.of(mcpLoggingProperties.path());
+		return new WireCapture(dir, mcpLoggingProperties, meterRegistry);
+	}
 
-		TeeInputStream ti = new TeeInputStream(originalInputStream, new TeeOutputStream(fis, fcs));
-		System.setOut(ps);
-		System.setIn(ti);
+	/*
+	 * Checkouts wait for their order to be written by the journal's own thread, which
+	 * writes the orders of concurrent checkouts together. Closed with the context, after
+	 * writing what was handed over.
+	 */
+	@Bean
+	public OrderJournal orderJournal(McpStoreProperties mcpStoreProperties) throws IOException {
+		Path dir = mcpStoreProperties.path();
+		if (dir == null || dir.toString().isEmpty()) {
+			return OrderJournal.none();
+		}
+		return OrderJournal.open(dir, mcpStoreProperties.journalFsync());
+	}
 
+	/*
+	 * Loads the latest snapshot and replays the journal after it, before any client is
+	 * served. Closed before the journal, after letting a snapshot being taken finish.
+	 */
+	@Bean
+	public StoreSnapshots storeSnapshots(OrderJournal orderJournal, McpStoreProperties mcpStoreProperties)
+			throws IOException {
+		if (orderJournal.isNone()) {
+			return StoreSnapshots.none(orderJournal);
+		}
+		return StoreSnapshots.open(mcpStoreProperties.path(), orderJournal, mcpStoreProperties.snapshotJournalBytes());
 	}
 
-	@PreDestroy
-	private void close() {
-		IOUtils.closeQuietly(fos);
-		IOUtils.closeQuietly(fis);
-		IOUtils.closeQuietly(fcs);
+	/*
+	 * Recovered by the snapshots on startup, checkouts add their orders as they go.
+	 */
+	@Bean
+	public OrderHistory orderHistory(StoreSnapshots storeSnapshots) {
+		return storeSnapshots.history();
 	}
 
+	/*
+	 * Rather than a ToolCallbackProvider, which would round trip every tool call's
+	 * arguments through JSON strings a few times.
+	 */
 	@Bean
-	public ToolCallbackProvider brandZTools(StoreToolsProvider storeToolsProvider, StoreResourceNowToolsProvider storeResourceNowToolsProvider) {
-		return MethodToolCallbackProvider.builder().toolObjects(storeToolsProvider, storeResourceNowToolsProvider).build();
+	public List<SyncToolSpecification> brandZTools(ObjectMapper objectMapper, StoreToolsProvider storeToolsProvider, StoreResourceNowToolsProvider storeResourceNowToolsProvider,
+			CaptureToolsProvider captureToolsProvider, OrderHistoryToolsProvider orderHistoryToolsProvider) {
+		return McpToolSpecifications.from(objectMapper, storeToolsProvider, storeResourceNowToolsProvider,
+				orderHistoryToolsProvider, captureToolsProvider);
 	}
 
 
 	@Bean
-	public List<SyncResourceSpecification> brandZPlaceHolderResources(StoreMcpResourceProvider storeMcpResourceProvider
-	) {
+	public List<SyncResourceSpecification> brandZPlaceHolderResources(StoreMcpResourceProvider storeMcpResourceProvider,
+			ServerMetricsResourceProvider serverMetricsResourceProvider) {
 		List<SyncResourceSpecification> specifications = new ArrayList<>();
 		createPlaceHolderFaqResource(specifications);
 
-		List<SyncResourceSpecification> otherResourceSpecifications = SpringAiMcpAnnotationProvider.createSyncResourceSpecifications(List.of(storeMcpResourceProvider));
+		List<SyncResourceSpecification> otherResourceSpecifications = SpringAiMcpAnnotationProvider.createSyncResourceSpecifications(List.of(storeMcpResourceProvider, serverMetricsResourceProvider));
 		for (SyncResourceSpecification otherResourceSpecification : otherResourceSpecifications) {
 			logger.debug("Adding MCP resource {}", otherResourceSpecification.resource().name());
 			specifications.add(otherResourceSpecification);
@@ -138,6 +158,29 @@ public class MyMcpServerApplication {
 	}
 
 	public static void main(String[] args) {
-		SpringApplication.run(MyMcpServerApplication.class, args);
+		application().run(args);
+	}
+
+	/*
+	 * Also used to start the server in the JVM of another tool, e.g. the capture replay.
+	 */
+	public static SpringApplication application() {
+		SpringApplication application = new SpringApplication(MyMcpServerApplication.class);
+		application.addListeners(
+				(ApplicationListener<ApplicationEnvironmentPreparedEvent>) MyMcpServerApplication::useVirtualThreadsForBlockingHandlers);
+		return application;
+	}
+
+	/*
+	 * The SDK runs sync tools, resources and prompts on Reactor's boundedElastic scheduler.
+	 * Reactor only reads this switch when it is first used, so it has to be set
+	 * before any bean is created.
+	 */
+	private static void useVirtualThreadsForBlockingHandlers(ApplicationEnvironmentPreparedEvent event) {
+		DispatchMode dispatchMode = event.getEnvironment().getProperty(McpTransportProperties.PREFIX + ".dispatch-mode",
+				DispatchMode.class, DispatchMode.REACTOR);
+		if (dispatchMode == DispatchMode.VIRTUAL_THREADS) {
+			System.setProperty("reactor.schedulers.defaultBoundedElasticOnVirtualThreads", "true");
+		}
 	}
 }
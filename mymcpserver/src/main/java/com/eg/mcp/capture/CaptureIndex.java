@@ -0,0 +1,275 @@
+package com.eg.mcp.capture;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Indexes the requests and notifications of the combined capture by time, method, tool
+ * name and id, so they are found without reading the capture. A request is indexed once
+ * its response is captured, with how long the response took, or, when none comes, once
+ * it is evicted from the pending requests or the capture closes.
+ * <p>
+ * Entries of the segment being written are kept in a {@link LiveIndex}. When the segment
+ * is finished they are handed to housekeeping, which writes them as the segment's
+ * sidecar {@link IndexFile} before compressing it, and deleted with the segment by
+ * retention. Queries look at the live index, the finished ones still waiting for
+ * housekeeping and the sidecars, latest first. Segments a previous run left without a
+ * sidecar are not indexed.
+ * <p>
+ * Responses are paired with their request by session and id, so clients connected over
+ * the Unix socket at once may number their requests alike. Indexing is done by the
+ * capture writer thread, queries come from any thread.
+ */
+final class CaptureIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger(CaptureIndex.class);
+
+	/** Requests waiting for their response beyond this are indexed without one */
+	private static final int MAX_PENDING = 65536;
+
+	private static final String PARTIAL_SUFFIX = ".part";
+
+	/**
+	 * What a message says about itself, one per message of a batch.
+	 * @param id the JSON-RPC id, without the quotes of a string id, null for a
+	 * notification
+	 * @param method null for a response
+	 * @param toolName null unless method is tools/call
+	 */
+	record Header(String id, String method, String toolName) {
+	}
+
+	/**
+	 * A request waiting for its response, ids are only unique within a session.
+	 */
+	private record PendingId(int session, String id) {
+	}
+
+	private record Pending(long requestNanos, long seq, int part, String id, String method, String toolName,
+			long segment, long offset) {
+	}
+
+	private final Path dir;
+
+	private final CaptureSegments segments;
+
+	private final Executor housekeeper;
+
+	/** Requests waiting for their response by session and id, oldest first, only used by the writer thread */
+	private final Map<PendingId, Pending> pending = new LinkedHashMap<>();
+
+	private volatile LiveIndex live = new LiveIndex();
+
+	/** Finished segments whose sidecar is still to be written, by segment number */
+	private final NavigableMap<Long, LiveIndex> sealed = new ConcurrentSkipListMap<>();
+
+	/**
+	 * @param fileName name of the combined file the segments are named after
+	 * @param housekeeper writes the sidecars, the one compressing the segments
+	 */
+	CaptureIndex(Path dir, String fileName, Executor housekeeper) throws IOException {
+		this.dir = dir;
+		this.segments = new CaptureSegments(fileName);
+		this.housekeeper = housekeeper;
+		Files.createDirectories(dir);
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				String name = file.getFileName().toString();
+				if (name.endsWith(PARTIAL_SUFFIX) && segments
+					.indexSequence(file.resolveSibling(name.substring(0, name.length() - PARTIAL_SUFFIX.length()))) > 0) {
+					// sidecar cut short by a previous run
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Indexes a line of the combined capture, called by the writer thread right after
+	 * writing it.
+	 * @param session the session that read or wrote the line
+	 * @param headers one per message in the line
+	 * @param segment the number of the segment the line went to
+	 * @param offset where the line begins in the segment
+	 */
+	void add(Direction direction, int session, long seq, long epochNanos, List<Header> headers, long segment, long offset) {
+		for (int part = 0; part < headers.size(); part++) {
+			Header header = headers.get(part);
+			if (direction == Direction.IN && header.method() != null) {
+				if (header.id() == null) {
+					live.add(new IndexEntry(epochNanos, seq, part, -1, null, header.method(), header.toolName(),
+							segment, offset, 0, 0));
+				}
+				else {
+					// a request reusing the id of one still pending replaces it
+					PendingId id = new PendingId(session, header.id());
+					unanswered(pending.remove(id));
+					pending.put(id, new Pending(epochNanos, seq, part, header.id(), header.method(),
+							header.toolName(), segment, offset));
+					if (pending.size() > MAX_PENDING) {
+						Iterator<Pending> oldest = pending.values().iterator();
+						unanswered(oldest.next());
+						oldest.remove();
+					}
+				}
+			}
+			else if (direction == Direction.OUT && header.method() == null && header.id() != null) {
+				Pending request = pending.remove(new PendingId(session, header.id()));
+				if (request != null) {
+					live.add(new IndexEntry(request.requestNanos(), request.seq(), request.part(),
+							epochNanos - request.requestNanos(), request.id(), request.method(), request.toolName(),
+							request.segment(), request.offset(), segment, offset));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Indexes the requests still waiting for their response without one, called when
+	 * the capture closes, before the combined file does.
+	 */
+	void flushPending() {
+		pending.values().forEach(this::unanswered);
+		pending.clear();
+	}
+
+	/**
+	 * Hands the entries of a finished segment to housekeeping, called by the writer
+	 * thread.
+	 */
+	void finished(long segment) {
+		LiveIndex finished = live;
+		live = new LiveIndex();
+		if (finished.isEmpty()) {
+			return;
+		}
+		sealed.put(segment, finished);
+		housekeeper.execute(() -> {
+			try {
+				IndexFile.write(dir.resolve(segments.indexName(segment)), finished.entries());
+			}
+			catch (IOException e) {
+				logger.warn("Writing the capture index of segment {} failed", segment, e);
+			}
+			finally {
+				sealed.remove(segment);
+			}
+		});
+	}
+
+	/**
+	 * @param messages whether to read the request and response of each entry from the
+	 * capture, which decompresses segments already compressed up to the line
+	 * @return the latest requests matching the query, latest first
+	 */
+	List<CapturedRequest> find(CaptureQuery query, boolean messages) throws IOException {
+		long fromNanos = query.from() != null ? epochNanos(query.from()) : Long.MIN_VALUE;
+		long toNanos = query.to() != null ? epochNanos(query.to()) : Long.MAX_VALUE;
+		List<IndexSource> sources = new ArrayList<>();
+		sources.add(live);
+		// taken before the sidecars are listed, a sidecar is written before it leaves here
+		Map<Long, LiveIndex> waiting = new LinkedHashMap<>(sealed.descendingMap());
+		sources.addAll(waiting.values());
+		List<Path> files = new ArrayList<>();
+		try (Stream<Path> list = Files.list(dir)) {
+			list.filter(file -> segments.indexSequence(file) > 0 && !waiting.containsKey(segments.indexSequence(file)))
+				.forEach(files::add);
+		}
+		files.sort(Comparator.comparingLong(segments::indexSequence).reversed());
+
+		List<IndexEntry> found = new ArrayList<>();
+		Comparator<IndexEntry> latestFirst = IndexEntry.BY_TIME.reversed();
+		for (int i = 0; i < sources.size() + files.size(); i++) {
+			IndexSource source;
+			try {
+				source = i < sources.size() ? sources.get(i) : IndexFile.open(files.get(i - sources.size()));
+			}
+			catch (NoSuchFileException e) {
+				// deleted by retention meanwhile
+				continue;
+			}
+			if (source.maxNanos() < fromNanos || source.minNanos() > toNanos || found.size() >= query.limit()
+					&& source.maxNanos() < found.get(query.limit() - 1).requestNanos()) {
+				continue;
+			}
+			source.find(query, fromNanos, toNanos, found);
+			// a segment finishing meanwhile may be seen twice, live and sealed or written
+			found = new ArrayList<>(found.stream().distinct().sorted(latestFirst).limit(query.limit()).toList());
+		}
+
+		List<CapturedRequest> requests = new ArrayList<>(found.size());
+		for (IndexEntry entry : found) {
+			requests.add(new CapturedRequest(entry.seq(), instant(entry.requestNanos()),
+					entry.durationNanos() >= 0 ? entry.durationNanos() / 1_000_000.0 : null, entry.id(), entry.method(),
+					entry.toolName(), segments.name(entry.requestSegment()), entry.requestOffset(),
+					messages ? message(entry.requestSegment(), entry.requestOffset()) : null,
+					messages && entry.responseSegment() > 0 ? message(entry.responseSegment(), entry.responseOffset())
+							: null));
+		}
+		return requests;
+	}
+
+	private void unanswered(Pending request) {
+		if (request != null) {
+			live.add(new IndexEntry(request.requestNanos(), request.seq(), request.part(), -1, request.id(),
+					request.method(), request.toolName(), request.segment(), request.offset(), 0, 0));
+		}
+	}
+
+	/**
+	 * @return the message of the line at the offset of the segment, null when the
+	 * segment is gone
+	 */
+	private String message(long segment, long offset) throws IOException {
+		Path plain = dir.resolve(segments.name(segment));
+		Path compressed = plain.resolveSibling(plain.getFileName() + CaptureSegments.COMPRESSED_SUFFIX);
+		// compressed meanwhile when the plain one is gone
+		for (Path file : List.of(plain, compressed)) {
+			try (InputStream in = CaptureSegments.openText(file)) {
+				in.skipNBytes(offset);
+				String line = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).readLine();
+				// seq, timestamp, direction, format, id, message
+				String[] fields = line != null ? line.split("\t", 6) : new String[0];
+				return fields.length == 6 ? fields[5] : null;
+			}
+			catch (NoSuchFileException e) {
+				// try the other one
+			}
+			catch (EOFException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private static long epochNanos(Instant instant) {
+		return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+	}
+
+	private static Instant instant(long epochNanos) {
+		return Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L),
+				Math.floorMod(epochNanos, 1_000_000_000L));
+	}
+
+}
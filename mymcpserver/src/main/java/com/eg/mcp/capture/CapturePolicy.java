@@ -0,0 +1,63 @@
+package com.eg.mcp.capture;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.eg.mcp.utils.McpLoggingProperties;
+
+/**
+ * Which messages are captured and how much of them. Names are JSON-RPC methods or tool
+ * names, a tool call matches both its tool name and tools/call and the tool name wins
+ * where both are configured.
+ * <ul>
+ * <li>an excluded name is never captured</li>
+ * <li>with includes configured, only included names are captured</li>
+ * <li>a sample rate between 0 and 1 captures that share of the messages at random</li>
+ * <li>frames beyond the max payload size are cut there, the capture notes the original
+ * size</li>
+ * </ul>
+ * Thread safe.
+ */
+final class CapturePolicy {
+
+	private final Set<String> include;
+
+	private final Set<String> exclude;
+
+	private final Map<String, Double> sampleRates;
+
+	private final int maxPayloadBytes;
+
+	CapturePolicy(McpLoggingProperties properties) {
+		this.include = Set.copyOf(properties.captureInclude());
+		this.exclude = Set.copyOf(properties.captureExclude());
+		this.sampleRates = Map.copyOf(properties.captureSampleRates());
+		this.maxPayloadBytes = Math.max(0, properties.captureMaxPayloadBytes());
+	}
+
+	boolean selects(String method, String toolName) {
+		if (exclude.contains(method) || toolName != null && exclude.contains(toolName)) {
+			return false;
+		}
+		if (!include.isEmpty() && !include.contains(method) && (toolName == null || !include.contains(toolName))) {
+			return false;
+		}
+		Double rate = toolName != null ? sampleRates.get(toolName) : null;
+		if (rate == null) {
+			rate = sampleRates.get(method);
+		}
+		if (rate == null || rate >= 1) {
+			return true;
+		}
+		return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+	}
+
+	/**
+	 * @return how many bytes of a frame of the given length are captured
+	 */
+	int capturedLength(int length) {
+		return Math.min(length, maxPayloadBytes);
+	}
+
+}
@@ -0,0 +1,19 @@
+package com.eg.mcp.capture;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * What to look up in the capture index. Criteria left null match every request.
+ * @param method the JSON-RPC method of the request or notification, e.g. tools/call
+ * @param toolName the tool called
+ * @param id the JSON-RPC id of the request, without the quotes of a string id
+ * @param from requests read at or after this time
+ * @param to requests read at or before this time
+ * @param minDuration requests answered after at least this long, which leaves out the
+ * ones without a captured response
+ * @param limit the most requests returned, the latest ones
+ */
+public record CaptureQuery(String method, String toolName, String id, Instant from, Instant to,
+		Duration minDuration, int limit) {
+}
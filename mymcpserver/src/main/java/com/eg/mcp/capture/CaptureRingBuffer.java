@@ -0,0 +1,241 @@
+package com.eg.mcp.capture;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Preallocated byte ring holding captured frames until the capture writer gets to them,
+ * a lock free multi-producer single-consumer queue.
+ * <p>
+ * A producer claims the space of its frame with a compare and set on the head, copies
+ * the frame in and publishes it by writing its length last. Every frame starts at a 16
+ * byte boundary with a header holding the length, the direction, whether it is binary or
+ * truncated and the time it was captured, so a header never wraps around the end of the
+ * ring. The number of the session the frame belongs to follows the header, a truncated
+ * frame carries its original length after that, ahead of its bytes. The consumer
+ * drains the published frames in the order their space was claimed, which is the
+ * capture order, and zeroes their space before handing it back. A frame that does not
+ * fit anymore is dropped and counted rather than waited for, the next frame of its
+ * direction is marked as following a gap.
+ */
+final class CaptureRingBuffer {
+
+	/** Length plus one, 0 while not published yet, then flags and nano time */
+	static final int HEADER_SIZE = 16;
+
+	private static final int GAP_FLAG = 0x100;
+
+	private static final int BINARY_FLAG = 0x200;
+
+	private static final int TRUNCATED_FLAG = 0x400;
+
+	/** Session of the frame, right after the header */
+	private static final int SESSION_SIZE = 4;
+
+	/** Original length of a truncated frame, ahead of its bytes */
+	private static final int ORIGINAL_LENGTH_SIZE = 4;
+
+	private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+	private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class,
+			ByteOrder.nativeOrder());
+
+	private final byte[] ring;
+
+	private final int mask;
+
+	/** End of the claimed space */
+	private final AtomicLong head = new AtomicLong();
+
+	/** Start of the frames not drained yet, only advanced by the consumer */
+	private volatile long tail;
+
+	private final LongAdder droppedBytes = new LongAdder();
+
+	/** Per direction, set once a frame was dropped until the next one gets in */
+	private final AtomicIntegerArray gaps = new AtomicIntegerArray(Direction.values().length);
+
+	/** Frames wrapping around the end of the ring are copied here, only used by the consumer */
+	private byte[] scratch = new byte[8192];
+
+	/**
+	 * @param capacity size of the ring in bytes, rounded up to a power of two
+	 */
+	CaptureRingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 1024) - 1) << 1;
+		this.ring = new byte[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Copies the first length bytes of the frame into the ring.
+	 * @param session the session the frame was read or written by
+	 * @param originalLength the length of the whole frame, more than length when it is
+	 * truncated
+	 * @return false when the frame did not fit and was dropped
+	 */
+	boolean offer(int session, Direction direction, boolean binary, int originalLength, byte[] bytes, int offset,
+			int length) {
+		int start = claim(direction, binary, originalLength, length);
+		if (start < 0) {
+			return false;
+		}
+		int payload = start + HEADER_SIZE + SESSION_SIZE + (originalLength > length ? ORIGINAL_LENGTH_SIZE : 0);
+		int first = Math.min(length, ring.length - (payload & mask));
+		System.arraycopy(bytes, offset, ring, payload & mask, first);
+		System.arraycopy(bytes, offset + first, ring, 0, length - first);
+		publish(start, session, length, originalLength);
+		return true;
+	}
+
+	/**
+	 * Copies the first length bytes of the frame into the ring, leaving the position of
+	 * the buffer alone.
+	 * @see #offer(int, Direction, boolean, int, byte[], int, int)
+	 */
+	boolean offer(int session, Direction direction, boolean binary, int originalLength, ByteBuffer bytes,
+			int offset, int length) {
+		int start = claim(direction, binary, originalLength, length);
+		if (start < 0) {
+			return false;
+		}
+		int payload = start + HEADER_SIZE + SESSION_SIZE + (originalLength > length ? ORIGINAL_LENGTH_SIZE : 0);
+		int first = Math.min(length, ring.length - (payload & mask));
+		bytes.get(offset, ring, payload & mask, first);
+		bytes.get(offset + first, ring, 0, length - first);
+		publish(start, session, length, originalLength);
+		return true;
+	}
+
+	/**
+	 * Claims the space of a frame and writes its header but the length.
+	 * @return where the frame starts in the ring, -1 when it did not fit
+	 */
+	private int claim(Direction direction, boolean binary, int originalLength, int length) {
+		long nanos = System.nanoTime();
+		boolean truncated = originalLength > length;
+		int size = align(HEADER_SIZE + SESSION_SIZE + (truncated ? ORIGINAL_LENGTH_SIZE : 0) + length);
+		long position;
+		do {
+			position = head.get();
+			if (size > ring.length - (position - tail)) {
+				droppedBytes.add(originalLength);
+				gaps.set(direction.ordinal(), 1);
+				return -1;
+			}
+		}
+		while (!head.compareAndSet(position, position + size));
+
+		int flags = direction.ordinal() | (binary ? BINARY_FLAG : 0) | (truncated ? TRUNCATED_FLAG : 0);
+		if (gaps.get(direction.ordinal()) != 0 && gaps.getAndSet(direction.ordinal(), 0) != 0) {
+			flags |= GAP_FLAG;
+		}
+		int start = (int) position & mask;
+		INT.set(ring, start + 4, flags);
+		LONG.set(ring, start + 8, nanos);
+		return start;
+	}
+
+	/**
+	 * Writes the session and the original length of a truncated frame, and publishes the
+	 * frame.
+	 */
+	private void publish(int start, int session, int length, int originalLength) {
+		// right after the header, in the next 16 bytes, which never wrap either
+		INT.set(ring, (start + HEADER_SIZE) & mask, session);
+		if (originalLength > length) {
+			INT.set(ring, (start + HEADER_SIZE + SESSION_SIZE) & mask, originalLength);
+		}
+		INT.setRelease(ring, start, length + 1);
+	}
+
+	/**
+	 * Hands the published frames to the consumer in capture order, up to the first one
+	 * still being copied in, and frees their space.
+	 * @return the number of frames drained
+	 */
+	int drain(FrameConsumer consumer) throws IOException {
+		long position = tail;
+		int frames = 0;
+		while (true) {
+			int start = (int) position & mask;
+			int published = (int) INT.getAcquire(ring, start);
+			if (published == 0) {
+				break;
+			}
+			int length = published - 1;
+			int flags = (int) INT.get(ring, start + 4);
+			long nanos = (long) LONG.get(ring, start + 8);
+			Direction direction = Direction.of((byte) flags);
+			boolean gap = (flags & GAP_FLAG) != 0;
+			boolean binary = (flags & BINARY_FLAG) != 0;
+			boolean truncated = (flags & TRUNCATED_FLAG) != 0;
+			int session = (int) INT.get(ring, (start + HEADER_SIZE) & mask);
+			int originalLength = truncated ? (int) INT.get(ring, (start + HEADER_SIZE + SESSION_SIZE) & mask)
+					: length;
+			int payload = (start + HEADER_SIZE + SESSION_SIZE + (truncated ? ORIGINAL_LENGTH_SIZE : 0)) & mask;
+			if (payload + length <= ring.length) {
+				consumer.accept(session, direction, gap, binary, originalLength, nanos, ring, payload, length);
+			}
+			else {
+				if (scratch.length < length) {
+					scratch = new byte[Math.max(length, scratch.length * 2)];
+				}
+				int first = ring.length - payload;
+				System.arraycopy(ring, payload, scratch, 0, first);
+				System.arraycopy(ring, 0, scratch, first, length - first);
+				consumer.accept(session, direction, gap, binary, originalLength, nanos, scratch, 0, length);
+			}
+			int size = align(HEADER_SIZE + SESSION_SIZE + (truncated ? ORIGINAL_LENGTH_SIZE : 0) + length);
+			// producers take a non zero length for a published frame
+			zero(start, size);
+			position += size;
+			tail = position;
+			frames++;
+		}
+		return frames;
+	}
+
+	long droppedBytes() {
+		return droppedBytes.sum();
+	}
+
+	private static int align(int size) {
+		return (size + HEADER_SIZE - 1) & -HEADER_SIZE;
+	}
+
+	private void zero(int start, int size) {
+		int first = Math.min(size, ring.length - start);
+		Arrays.fill(ring, start, start + first, (byte) 0);
+		if (first < size) {
+			Arrays.fill(ring, 0, size - first, (byte) 0);
+		}
+	}
+
+	/**
+	 * Receives drained frames. The array is only valid during the call.
+	 */
+	@FunctionalInterface
+	interface FrameConsumer {
+
+		/**
+		 * @param session the session the frame was read or written by
+		 * @param gap whether frames of the direction were dropped right before this one
+		 * @param binary whether the frame went over the wire with binary framing
+		 * @param originalLength length of the whole frame, more than length when only
+		 * the first length bytes were captured
+		 * @param nanos {@link System#nanoTime()} when the frame was captured
+		 */
+		void accept(int session, Direction direction, boolean gap, boolean binary, int originalLength, long nanos,
+				byte[] bytes, int offset, int length) throws IOException;
+
+	}
+
+}
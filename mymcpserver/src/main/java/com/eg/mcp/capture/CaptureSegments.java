@@ -0,0 +1,179 @@
+package com.eg.mcp.capture;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Finds and opens the segments a capture file was written as, for tools reading a
+ * capture back. The segment being written is mapped at its full size, so it ends in the
+ * zeros it was padded with, {@link #openText} leaves them out.
+ */
+public final class CaptureSegments {
+
+	static final String COMPRESSED_SUFFIX = ".gz";
+
+	/** Extension of the sidecar index of a combined segment, combined-000001.idx */
+	static final String INDEX_EXTENSION = ".idx";
+
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	private final String baseName;
+
+	private final String extension;
+
+	private final Pattern pattern;
+
+	private final Pattern indexPattern;
+
+	/**
+	 * @param fileName name of the capture file the segments are named after, combined.txt
+	 * for combined-000001.txt and combined-000002.txt.gz
+	 */
+	public CaptureSegments(String fileName) {
+		int dot = fileName.lastIndexOf('.');
+		this.baseName = dot > 0 ? fileName.substring(0, dot) : fileName;
+		this.extension = dot > 0 ? fileName.substring(dot) : "";
+		this.pattern = Pattern.compile(Pattern.quote(baseName) + "-(\\d{6,})" + Pattern.quote(extension) + "("
+				+ Pattern.quote(COMPRESSED_SUFFIX) + ")?");
+		this.indexPattern = Pattern.compile(Pattern.quote(baseName) + "-(\\d{6,})" + Pattern.quote(INDEX_EXTENSION));
+	}
+
+	/**
+	 * @return the segments of the file in the directory, oldest first, an empty list
+	 * when the directory does not exist
+	 */
+	public List<Path> list(Path dir) throws IOException {
+		if (!Files.isDirectory(dir)) {
+			return List.of();
+		}
+		List<Path> segments = new ArrayList<>();
+		try (Stream<Path> files = Files.list(dir)) {
+			files.filter(file -> sequence(file) > 0).forEach(segments::add);
+		}
+		segments.sort(Comparator.comparingLong(this::sequence));
+		return segments;
+	}
+
+	/**
+	 * @return the segment's content, uncompressed
+	 */
+	public static InputStream open(Path segment) throws IOException {
+		InputStream in = Files.newInputStream(segment);
+		try {
+			return segment.getFileName().toString().endsWith(COMPRESSED_SUFFIX) ? new GZIPInputStream(in, BLOCK_SIZE)
+					: new BufferedInputStream(in, BLOCK_SIZE);
+		}
+		catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a segment of the combined file, or of any other text file, ending at the first
+	 * zero byte so the padding of the segment being written is left out.
+	 * @return the segment's content, uncompressed
+	 */
+	public static InputStream openText(Path segment) throws IOException {
+		return new UpToZero(open(segment));
+	}
+
+	/**
+	 * @return the segment's number, 0 when the path is not a segment of the file
+	 */
+	public long sequence(Path file) {
+		Matcher matcher = pattern.matcher(file.getFileName().toString());
+		return matcher.matches() ? Long.parseLong(matcher.group(1)) : 0;
+	}
+
+	/**
+	 * @return whether the path is a compressed segment of the file
+	 */
+	boolean compressed(Path file) {
+		Matcher matcher = pattern.matcher(file.getFileName().toString());
+		return matcher.matches() && matcher.group(2) != null;
+	}
+
+	/**
+	 * @return the name of the segment with the number
+	 */
+	String name(long sequence) {
+		return "%s-%06d%s".formatted(baseName, sequence, extension);
+	}
+
+	/**
+	 * @return the name of the sidecar index of the segment with the number
+	 */
+	String indexName(long sequence) {
+		return "%s-%06d%s".formatted(baseName, sequence, INDEX_EXTENSION);
+	}
+
+	/**
+	 * @return the number of the segment the path is the sidecar index of, 0 when it is
+	 * none
+	 */
+	long indexSequence(Path file) {
+		Matcher matcher = indexPattern.matcher(file.getFileName().toString());
+		return matcher.matches() ? Long.parseLong(matcher.group(1)) : 0;
+	}
+
+	private static final class UpToZero extends FilterInputStream {
+
+		private boolean ended;
+
+		UpToZero(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (ended) {
+				return -1;
+			}
+			int b = super.read();
+			if (b == 0) {
+				ended = true;
+				return -1;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (ended) {
+				return -1;
+			}
+			int read = super.read(b, off, len);
+			for (int i = off; i < off + read; i++) {
+				if (b[i] == 0) {
+					ended = true;
+					return i > off ? i - off : -1;
+				}
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			return ended ? 0 : super.skip(n);
+		}
+
+		@Override
+		public int available() throws IOException {
+			return ended ? 0 : super.available();
+		}
+
+	}
+
+}
@@ -0,0 +1,21 @@
+package com.eg.mcp.capture;
+
+import java.time.Instant;
+
+/**
+ * A request or notification found in the capture index.
+ * @param seq the seq of its line in the combined capture, which starts over with every
+ * server run
+ * @param timestamp when the server read it
+ * @param durationMillis how long the response took, null when none was captured
+ * @param id the JSON-RPC id, without the quotes of a string id, null for a notification
+ * @param method the JSON-RPC method
+ * @param toolName the tool called, null unless the method is tools/call
+ * @param segment the combined segment holding its line, since maybe compressed to .gz
+ * @param offset where its line begins in the uncompressed segment
+ * @param request the message as captured, when asked for
+ * @param response the response as captured, when asked for and captured
+ */
+public record CapturedRequest(long seq, Instant timestamp, Double durationMillis, String id, String method,
+		String toolName, String segment, long offset, String request, String response) {
+}
@@ -0,0 +1,325 @@
+package com.eg.mcp.capture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Writes the combined capture, one line per captured frame in capture order. The fields are
+ * separated by tabs, which JSON only carries escaped:
+ * <pre>
+ * seq	timestamp	direction	format	id	message
+ * </pre>
+ * <ul>
+ * <li>seq counts the messages of both directions from 1</li>
+ * <li>timestamp is the UTC time the message was read or written, with nanoseconds,
+ * derived from {@link System#nanoTime()} so it never goes backwards</li>
+ * <li>direction is IN or OUT</li>
+ * <li>format is json, smile or cbor as the message went over the wire, followed by
+ * +truncated when only its beginning was captured, or gap where messages of the
+ * direction were dropped</li>
+ * <li>id is the JSON-RPC id as JSON, null for notifications and an array of the ids
+ * of a batch</li>
+ * <li>message is the message as JSON, binary frames transcoded, empty for a gap. A
+ * truncated message is the object {"truncatedFrom":originalBytes,"prefix":"..."}, the
+ * prefix being the captured text or, for binary frames, its base64</li>
+ * </ul>
+ * Each line is put together first and written with a single call, so it never straddles
+ * two capture segments, and then handed to the {@link CaptureIndex} with the session,
+ * method, tool name and id of its messages. Only used by the capture writer thread.
+ */
+final class CombinedLog {
+
+	private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter
+		.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSSSSSSSS'Z'")
+		.withZone(ZoneOffset.UTC);
+
+	private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+	private static final String TOOLS_CALL = "tools/call";
+
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+	/** Lines that grew the buffer beyond this leave it to the garbage collector */
+	private static final int MAX_RETAINED_LINE_SIZE = 1024 * 1024;
+
+	private final SegmentedCaptureFile target;
+
+	private final CaptureIndex index;
+
+	private ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	private final JsonFactory smileFactory = new SmileFactory();
+
+	private final JsonFactory cborFactory = new CBORFactory();
+
+	private final ByteArrayOutputStream id = new ByteArrayOutputStream();
+
+	private final ByteArrayOutputStream transcoded = new ByteArrayOutputStream();
+
+	/** The messages of the line being written */
+	private final List<CaptureIndex.Header> headers = new ArrayList<>();
+
+	/** What was read so far of the header of the message being read */
+	private String headerId;
+
+	private String headerMethod;
+
+	private String headerToolName;
+
+	/** Wall clock and nano time taken together, timestamps are computed from there */
+	private final long startEpochNanos;
+
+	private final long startNanoTime;
+
+	private long seq;
+
+	private long lineEpochNanos;
+
+	private int lineSession;
+
+	CombinedLog(SegmentedCaptureFile target, CaptureIndex index) {
+		this.target = target;
+		this.index = index;
+		Instant now = Instant.now();
+		this.startNanoTime = System.nanoTime();
+		this.startEpochNanos = now.getEpochSecond() * NANOS_PER_SECOND + now.getNano();
+	}
+
+	/**
+	 * @param session the session that read or wrote the message
+	 * @param originalLength the length of the whole message, more than length when it
+	 * was truncated
+	 */
+	void message(int session, Direction direction, long nanos, boolean binary, byte[] bytes, int offset,
+			int length, int originalLength) throws IOException {
+		lineSession = session;
+		if (originalLength > length) {
+			truncated(direction, nanos, binary, bytes, offset, length, originalLength);
+			return;
+		}
+		if (!binary) {
+			writeFields(direction, nanos, "json");
+			writeId(bytes, offset, length);
+			out.write('\t');
+			out.write(bytes, offset, length);
+			endLine(direction);
+			return;
+		}
+		String format = binaryFormat(bytes, offset, length);
+		writeFields(direction, nanos, format);
+		transcoded.reset();
+		try (JsonParser parser = ("smile".equals(format) ? smileFactory : cborFactory).createParser(bytes, offset,
+				length);
+				JsonGenerator generator = jsonFactory.createGenerator(transcoded)) {
+			parser.nextToken();
+			generator.copyCurrentStructure(parser);
+		}
+		catch (IOException e) {
+			// kept as a JSON string, so the line still parses
+			transcoded.reset();
+			transcoded.write('"');
+			transcoded.write(Base64.getEncoder().encode(Arrays.copyOfRange(bytes, offset, offset + length)));
+			transcoded.write('"');
+		}
+		byte[] json = transcoded.toByteArray();
+		writeId(json, 0, json.length);
+		out.write('\t');
+		out.write(json);
+		endLine(direction);
+	}
+
+	/**
+	 * Messages of the direction were dropped.
+	 */
+	void gap(Direction direction, long nanos) throws IOException {
+		writeFields(direction, nanos, "gap");
+		headers.clear();
+		out.write(NULL);
+		out.write('\t');
+		endLine(direction);
+	}
+
+	/**
+	 * The id, method and tool name are read off the prefix where they made it in, the
+	 * prefix goes out as a JSON string so the line still parses.
+	 */
+	private void truncated(Direction direction, long nanos, boolean binary, byte[] bytes, int offset, int length,
+			int originalLength) throws IOException {
+		String format = binary ? binaryFormat(bytes, offset, length) : "json";
+		writeFields(direction, nanos, format + "+truncated");
+		JsonFactory factory = !binary ? jsonFactory : "smile".equals(format) ? smileFactory : cborFactory;
+		id.reset();
+		headers.clear();
+		headerId = null;
+		headerMethod = null;
+		headerToolName = null;
+		try (JsonParser parser = factory.createParser(bytes, offset, length);
+				JsonGenerator generator = jsonFactory.createGenerator(id)) {
+			if (parser.nextToken() == JsonToken.START_OBJECT) {
+				copyHeader(parser, generator);
+			}
+		}
+		catch (IOException e) {
+			// the prefix ends before the object does, the header keeps what came before
+			if (headerId != null || headerMethod != null) {
+				headers.add(new CaptureIndex.Header(headerId, headerMethod, headerToolName));
+			}
+		}
+		if (id.size() == 0) {
+			id.write(NULL);
+		}
+		id.writeTo(out);
+		out.write('\t');
+		transcoded.reset();
+		try (JsonGenerator generator = jsonFactory.createGenerator(transcoded)) {
+			generator.writeStartObject();
+			generator.writeNumberField("truncatedFrom", originalLength);
+			if (binary) {
+				generator.writeStringField("prefix",
+						Base64.getEncoder().encodeToString(Arrays.copyOfRange(bytes, offset, offset + length)));
+			}
+			else {
+				generator.writeStringField("prefix", new String(bytes, offset, length, StandardCharsets.UTF_8));
+			}
+			generator.writeEndObject();
+		}
+		transcoded.writeTo(out);
+		endLine(direction);
+	}
+
+	private static String binaryFormat(byte[] bytes, int offset, int length) {
+		boolean smile = length >= 3 && bytes[offset] == ':' && bytes[offset + 1] == ')' && bytes[offset + 2] == '\n';
+		return smile ? "smile" : "cbor";
+	}
+
+	private void endLine(Direction direction) throws IOException {
+		out.write('\n');
+		out.writeTo(target);
+		if (out.size() > MAX_RETAINED_LINE_SIZE) {
+			out = new ByteArrayOutputStream(8192);
+		}
+		else {
+			out.reset();
+		}
+		index.add(direction, lineSession, seq, lineEpochNanos, headers, target.lastWriteSequence(), target.lastWriteOffset());
+	}
+
+	private void writeFields(Direction direction, long nanos, String format) throws IOException {
+		long epochNanos = startEpochNanos + (nanos - startNanoTime);
+		lineEpochNanos = epochNanos;
+		Instant timestamp = Instant.ofEpochSecond(Math.floorDiv(epochNanos, NANOS_PER_SECOND),
+				Math.floorMod(epochNanos, NANOS_PER_SECOND));
+		String fields = ++seq + "\t" + TIMESTAMP.format(timestamp) + "\t" + direction + "\t" + format + "\t";
+		out.write(fields.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Writes the id field and collects the headers of the message or batch.
+	 */
+	private void writeId(byte[] json, int offset, int length) throws IOException {
+		id.reset();
+		headers.clear();
+		try (JsonParser parser = jsonFactory.createParser(json, offset, length);
+				JsonGenerator generator = jsonFactory.createGenerator(id)) {
+			JsonToken token = parser.nextToken();
+			if (token == JsonToken.START_OBJECT) {
+				copyHeader(parser, generator);
+			}
+			else if (token == JsonToken.START_ARRAY) {
+				generator.writeStartArray();
+				while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+					if (token == JsonToken.START_OBJECT) {
+						copyHeader(parser, generator);
+					}
+					else {
+						parser.skipChildren();
+					}
+				}
+				generator.writeEndArray();
+			}
+			else {
+				generator.writeNull();
+			}
+		}
+		catch (IOException e) {
+			// not JSON-RPC, the line keeps the message as it was
+			id.reset();
+			id.write(NULL);
+			headers.clear();
+		}
+		id.writeTo(out);
+	}
+
+	/**
+	 * Reads the object the parser is positioned at up to its end, writes the value of
+	 * its id field, null when it has none, and adds its header. The id, method and the
+	 * name in params, which is the tool name of a tool call, are kept in the header fields
+	 * as they are read.
+	 */
+	private void copyHeader(JsonParser parser, JsonGenerator generator) throws IOException {
+		headerId = null;
+		headerMethod = null;
+		headerToolName = null;
+		String paramsName = null;
+		boolean found = false;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.currentName();
+			JsonToken value = parser.nextToken();
+			if (!found && "id".equals(name) && value.isScalarValue()) {
+				generator.copyCurrentEvent(parser);
+				found = true;
+				headerId = value == JsonToken.VALUE_NULL ? null : parser.getText();
+			}
+			else if ("method".equals(name) && value == JsonToken.VALUE_STRING) {
+				headerMethod = parser.getText();
+			}
+			else if ("params".equals(name) && value == JsonToken.START_OBJECT) {
+				paramsName = paramsName(parser);
+			}
+			else {
+				parser.skipChildren();
+			}
+			headerToolName = TOOLS_CALL.equals(headerMethod) ? paramsName : null;
+		}
+		if (!found) {
+			generator.writeNull();
+		}
+		headers.add(new CaptureIndex.Header(headerId, headerMethod, headerToolName));
+	}
+
+	/**
+	 * Reads the params object the parser is positioned at up to its end.
+	 * @return its name field, null when it has none
+	 */
+	private static String paramsName(JsonParser parser) throws IOException {
+		String name = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.currentName();
+			if (parser.nextToken() == JsonToken.VALUE_STRING && "name".equals(field)) {
+				name = parser.getText();
+			}
+			else {
+				parser.skipChildren();
+			}
+		}
+		return name;
+	}
+
+}
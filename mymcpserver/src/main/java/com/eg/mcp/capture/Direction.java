@@ -0,0 +1,19 @@
+package com.eg.mcp.capture;
+
+/**
+ * Which way captured bytes went, seen from the server.
+ */
+public enum Direction {
+
+	/** Read from the client */
+	IN,
+	/** Written to the client */
+	OUT;
+
+	private static final Direction[] VALUES = values();
+
+	static Direction of(byte ordinal) {
+		return VALUES[ordinal];
+	}
+
+}
@@ -0,0 +1,45 @@
+package com.eg.mcp.capture;
+
+import java.util.Comparator;
+
+/**
+ * A request or notification in the capture index, with where its request and response
+ * lines are in the combined capture.
+ * @param requestNanos when the server read it, nanoseconds since the epoch
+ * @param seq the seq of the request line
+ * @param part its position in the batch the line holds, 0 otherwise
+ * @param durationNanos how long the response took, -1 when none was captured
+ * @param requestSegment number of the combined segment holding the request line
+ * @param requestOffset where the request line begins in that segment
+ * @param responseSegment number of the segment holding the response line, 0 when none
+ * was captured
+ * @param responseOffset where the response line begins in that segment
+ */
+record IndexEntry(long requestNanos, long seq, int part, long durationNanos, String id, String method,
+		String toolName, long requestSegment, long requestOffset, long responseSegment, long responseOffset) {
+
+	/** The order of the index, the one of the requests being read */
+	static final Comparator<IndexEntry> BY_TIME = Comparator.comparingLong(IndexEntry::requestNanos)
+		.thenComparingLong(IndexEntry::seq)
+		.thenComparingInt(IndexEntry::part);
+
+	/**
+	 * @return an entry sorting before or, with last, after all entries of the time
+	 */
+	static IndexEntry bound(long requestNanos, boolean last) {
+		return new IndexEntry(requestNanos, last ? Long.MAX_VALUE : Long.MIN_VALUE,
+				last ? Integer.MAX_VALUE : Integer.MIN_VALUE, -1, null, null, null, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Time bounds are left to the caller, they are what the indexes are navigated by.
+	 * @param minDurationNanos 0 when the query asks for no minimum
+	 */
+	boolean matches(CaptureQuery query, long minDurationNanos) {
+		return (query.method() == null || query.method().equals(method))
+				&& (query.toolName() == null || query.toolName().equals(toolName))
+				&& (query.id() == null || query.id().equals(id))
+				&& (minDurationNanos <= 0 || durationNanos >= minDurationNanos);
+	}
+
+}
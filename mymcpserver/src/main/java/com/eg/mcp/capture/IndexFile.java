@@ -0,0 +1,304 @@
+package com.eg.mcp.capture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * The sidecar index of a finished combined segment, combined-000001.idx next to
+ * combined-000001.txt. Written once by housekeeping and then only read, memory mapped.
+ * <pre>
+ * header   magic, version, entry count, method count, tool call count, id count (ints)
+ *          earliest and latest request time (longs)
+ * entries  fixed size, in time order
+ * methods  entry numbers of the entries with a method ordered by method and time (ints)
+ * tools    entry numbers of the tool calls ordered by tool name and time (ints)
+ * ids      entry numbers of the requests with an id ordered by id and time (ints)
+ * strings  methods, tool names and ids, each an int length and its UTF-8 bytes
+ * </pre>
+ * An entry holds the request time, seq, duration, request segment and offset and
+ * response segment and offset as longs, then the part and the string offsets of id,
+ * method and tool name as ints, -1 for none. Strings are ordered by their UTF-8 bytes,
+ * so lookups compare bytes in place and a query costs two binary searches plus the
+ * entries it returns.
+ */
+final class IndexFile implements IndexSource {
+
+	private static final int MAGIC = 0x4D435849;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 6 * Integer.BYTES + 2 * Long.BYTES;
+
+	private static final int ENTRY_SIZE = 7 * Long.BYTES + 4 * Integer.BYTES;
+
+	/** Positions of the ints of an entry, after its longs */
+	private static final int PART = 0;
+
+	private static final int ID = 1;
+
+	private static final int METHOD = 2;
+
+	private static final int TOOL = 3;
+
+	private static final String PARTIAL_SUFFIX = ".part";
+
+	private static final Comparator<byte[]> BYTES = Arrays::compareUnsigned;
+
+	private final ByteBuffer buffer;
+
+	private final int count;
+
+	private final int methodCount;
+
+	private final int toolCount;
+
+	private final int idCount;
+
+	private final long minNanos;
+
+	private final long maxNanos;
+
+	private IndexFile(ByteBuffer buffer) throws IOException {
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a capture index");
+		}
+		this.buffer = buffer;
+		this.count = buffer.getInt(8);
+		this.methodCount = buffer.getInt(12);
+		this.toolCount = buffer.getInt(16);
+		this.idCount = buffer.getInt(20);
+		this.minNanos = buffer.getLong(24);
+		this.maxNanos = buffer.getLong(32);
+	}
+
+	static IndexFile open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			// stays valid once the channel is closed
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new IndexFile(mapped);
+		}
+	}
+
+	/**
+	 * Writes the entries, in time order, to a partial file first and moves it in place,
+	 * so readers never see half an index.
+	 */
+	static void write(Path file, List<IndexEntry> entries) throws IOException {
+		int count = entries.size();
+		Map<String, Integer> offsets = new HashMap<>();
+		Map<String, byte[]> encoded = new HashMap<>();
+		int stringsSize = 0;
+		for (IndexEntry entry : entries) {
+			for (String string : new String[] { entry.id(), entry.method(), entry.toolName() }) {
+				if (string != null && !offsets.containsKey(string)) {
+					byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+					offsets.put(string, stringsSize);
+					encoded.put(string, bytes);
+					stringsSize += Integer.BYTES + bytes.length;
+				}
+			}
+		}
+		int[] byMethod = ordered(entries, IndexEntry::method, encoded);
+		int[] byTool = ordered(entries, IndexEntry::toolName, encoded);
+		int[] byId = ordered(entries, IndexEntry::id, encoded);
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * ENTRY_SIZE
+				+ (byMethod.length + byTool.length + byId.length) * Integer.BYTES + stringsSize);
+		buffer.putInt(MAGIC)
+			.putInt(VERSION)
+			.putInt(count)
+			.putInt(byMethod.length)
+			.putInt(byTool.length)
+			.putInt(byId.length);
+		buffer.putLong(count > 0 ? entries.getFirst().requestNanos() : Long.MAX_VALUE);
+		buffer.putLong(count > 0 ? entries.getLast().requestNanos() : Long.MIN_VALUE);
+		for (IndexEntry entry : entries) {
+			buffer.putLong(entry.requestNanos())
+				.putLong(entry.seq())
+				.putLong(entry.durationNanos())
+				.putLong(entry.requestSegment())
+				.putLong(entry.requestOffset())
+				.putLong(entry.responseSegment())
+				.putLong(entry.responseOffset())
+				.putInt(entry.part())
+				.putInt(entry.id() != null ? offsets.get(entry.id()) : -1)
+				.putInt(entry.method() != null ? offsets.get(entry.method()) : -1)
+				.putInt(entry.toolName() != null ? offsets.get(entry.toolName()) : -1);
+		}
+		for (int[] order : new int[][] { byMethod, byTool, byId }) {
+			for (int number : order) {
+				buffer.putInt(number);
+			}
+		}
+		// offsets were handed out in encounter order, the strings go out in the same
+		encoded.entrySet()
+			.stream()
+			.sorted(Comparator.comparingInt(string -> offsets.get(string.getKey())))
+			.forEach(string -> buffer.putInt(string.getValue().length).put(string.getValue()));
+
+		Path partial = file.resolveSibling(file.getFileName() + PARTIAL_SUFFIX);
+		try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * @return the numbers of the entries having the key, ordered by key, entries of the
+	 * same key staying in time order
+	 */
+	private static int[] ordered(List<IndexEntry> entries, Function<IndexEntry, String> key,
+			Map<String, byte[]> encoded) {
+		return IntStream.range(0, entries.size())
+			.filter(number -> key.apply(entries.get(number)) != null)
+			.boxed()
+			.sorted(Comparator.comparing(number -> encoded.get(key.apply(entries.get(number))), BYTES))
+			.mapToInt(Integer::intValue)
+			.toArray();
+	}
+
+	@Override
+	public long minNanos() {
+		return minNanos;
+	}
+
+	@Override
+	public long maxNanos() {
+		return maxNanos;
+	}
+
+	@Override
+	public void find(CaptureQuery query, long fromNanos, long toNanos, List<IndexEntry> found) {
+		int methods = HEADER_SIZE + count * ENTRY_SIZE;
+		int tools = methods + methodCount * Integer.BYTES;
+		int ids = tools + toolCount * Integer.BYTES;
+		// where the ordered entry numbers begin, how many there are and which string orders them
+		int order;
+		int length;
+		int keyField;
+		byte[] key;
+		if (query.id() != null) {
+			order = ids;
+			length = idCount;
+			keyField = ID;
+			key = query.id().getBytes(StandardCharsets.UTF_8);
+		}
+		else if (query.toolName() != null) {
+			order = tools;
+			length = toolCount;
+			keyField = TOOL;
+			key = query.toolName().getBytes(StandardCharsets.UTF_8);
+		}
+		else if (query.method() != null) {
+			order = methods;
+			length = methodCount;
+			keyField = METHOD;
+			key = query.method().getBytes(StandardCharsets.UTF_8);
+		}
+		else {
+			order = -1;
+			length = count;
+			keyField = -1;
+			key = null;
+		}
+		int from = search(order, length, keyField, key, fromNanos, false);
+		int to = search(order, length, keyField, key, toNanos, true);
+		long minDurationNanos = query.minDuration() != null ? query.minDuration().toNanos() : 0;
+		int added = 0;
+		for (int position = to - 1; position >= from && added < query.limit(); position--) {
+			IndexEntry entry = entry(order < 0 ? position : buffer.getInt(order + position * Integer.BYTES));
+			if (entry.matches(query, minDurationNanos)) {
+				found.add(entry);
+				added++;
+			}
+		}
+	}
+
+	/**
+	 * @param after false for the first position at or after the key and time, true for
+	 * the first one after them
+	 */
+	private int search(int order, int length, int keyField, byte[] key, long nanos, boolean after) {
+		int low = 0;
+		int high = length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int number = order < 0 ? middle : buffer.getInt(order + middle * Integer.BYTES);
+			int entry = HEADER_SIZE + number * ENTRY_SIZE;
+			int comparison = key == null ? 0 : compare(buffer.getInt(ints(entry) + keyField * Integer.BYTES), key);
+			if (comparison == 0) {
+				comparison = Long.compare(buffer.getLong(entry), nanos);
+			}
+			if (comparison < 0 || after && comparison == 0) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Compares the string at the offset with the key as unsigned bytes, in place.
+	 */
+	private int compare(int stringOffset, byte[] key) {
+		int string = strings() + stringOffset;
+		int length = buffer.getInt(string);
+		int common = Math.min(length, key.length);
+		for (int i = 0; i < common; i++) {
+			int comparison = Byte.compareUnsigned(buffer.get(string + Integer.BYTES + i), key[i]);
+			if (comparison != 0) {
+				return comparison;
+			}
+		}
+		return Integer.compare(length, key.length);
+	}
+
+	private IndexEntry entry(int number) {
+		int entry = HEADER_SIZE + number * ENTRY_SIZE;
+		int ints = ints(entry);
+		return new IndexEntry(buffer.getLong(entry), buffer.getLong(entry + 8),
+				buffer.getInt(ints + PART * Integer.BYTES), buffer.getLong(entry + 16),
+				string(buffer.getInt(ints + ID * Integer.BYTES)), string(buffer.getInt(ints + METHOD * Integer.BYTES)),
+				string(buffer.getInt(ints + TOOL * Integer.BYTES)), buffer.getLong(entry + 24),
+				buffer.getLong(entry + 32), buffer.getLong(entry + 40), buffer.getLong(entry + 48));
+	}
+
+	private static int ints(int entry) {
+		return entry + 7 * Long.BYTES;
+	}
+
+	private String string(int stringOffset) {
+		if (stringOffset < 0) {
+			return null;
+		}
+		int string = strings() + stringOffset;
+		byte[] bytes = new byte[buffer.getInt(string)];
+		buffer.get(string + Integer.BYTES, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int strings() {
+		return HEADER_SIZE + count * ENTRY_SIZE + (methodCount + toolCount + idCount) * Integer.BYTES;
+	}
+
+}
@@ -0,0 +1,28 @@
+package com.eg.mcp.capture;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The entries indexed for one combined segment, in memory or in its sidecar file.
+ */
+interface IndexSource {
+
+	/**
+	 * @return the earliest request time of the entries, Long.MAX_VALUE when there are none
+	 */
+	long minNanos();
+
+	/**
+	 * @return the latest request time of the entries, Long.MIN_VALUE when there are none
+	 */
+	long maxNanos();
+
+	/**
+	 * Adds the latest entries matching the query and read between the two times,
+	 * inclusive, at most the query's limit of them, latest first. Found by id, tool name
+	 * or method, in that order of preference, in logarithmic time.
+	 */
+	void find(CaptureQuery query, long fromNanos, long toNanos, List<IndexEntry> found) throws IOException;
+
+}
@@ -0,0 +1,95 @@
+package com.eg.mcp.capture;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * The entries of the combined segment being written, kept in skip lists by time and, for
+ * each method, tool name and id, by time again. Added to by the capture writer thread
+ * and read by queries at the same time.
+ */
+final class LiveIndex implements IndexSource {
+
+	private final NavigableSet<IndexEntry> byTime = new ConcurrentSkipListSet<>(IndexEntry.BY_TIME);
+
+	private final Map<String, NavigableSet<IndexEntry>> byMethod = new ConcurrentHashMap<>();
+
+	private final Map<String, NavigableSet<IndexEntry>> byTool = new ConcurrentHashMap<>();
+
+	private final Map<String, NavigableSet<IndexEntry>> byId = new ConcurrentHashMap<>();
+
+	private volatile long minNanos = Long.MAX_VALUE;
+
+	private volatile long maxNanos = Long.MIN_VALUE;
+
+	/**
+	 * Only called by the capture writer thread.
+	 */
+	void add(IndexEntry entry) {
+		byTime.add(entry);
+		add(byMethod, entry.method(), entry);
+		add(byTool, entry.toolName(), entry);
+		add(byId, entry.id(), entry);
+		if (entry.requestNanos() < minNanos) {
+			minNanos = entry.requestNanos();
+		}
+		if (entry.requestNanos() > maxNanos) {
+			maxNanos = entry.requestNanos();
+		}
+	}
+
+	boolean isEmpty() {
+		return byTime.isEmpty();
+	}
+
+	/**
+	 * @return the entries in time order
+	 */
+	List<IndexEntry> entries() {
+		return new ArrayList<>(byTime);
+	}
+
+	@Override
+	public long minNanos() {
+		return minNanos;
+	}
+
+	@Override
+	public long maxNanos() {
+		return maxNanos;
+	}
+
+	@Override
+	public void find(CaptureQuery query, long fromNanos, long toNanos, List<IndexEntry> found) {
+		NavigableSet<IndexEntry> candidates = query.id() != null ? byId.get(query.id())
+				: query.toolName() != null ? byTool.get(query.toolName())
+						: query.method() != null ? byMethod.get(query.method()) : byTime;
+		if (candidates == null) {
+			return;
+		}
+		long minDurationNanos = query.minDuration() != null ? query.minDuration().toNanos() : 0;
+		Iterator<IndexEntry> latestFirst = candidates
+			.subSet(IndexEntry.bound(fromNanos, false), true, IndexEntry.bound(toNanos, true), true)
+			.descendingIterator();
+		int added = 0;
+		while (added < query.limit() && latestFirst.hasNext()) {
+			IndexEntry entry = latestFirst.next();
+			if (entry.matches(query, minDurationNanos)) {
+				found.add(entry);
+				added++;
+			}
+		}
+	}
+
+	private static void add(Map<String, NavigableSet<IndexEntry>> index, String key, IndexEntry entry) {
+		if (key != null) {
+			index.computeIfAbsent(key, unused -> new ConcurrentSkipListSet<>(IndexEntry.BY_TIME)).add(entry);
+		}
+	}
+
+}
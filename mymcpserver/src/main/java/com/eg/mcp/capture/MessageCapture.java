@@ -0,0 +1,59 @@
+package com.eg.mcp.capture;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Where the transport hands the frames it read and wrote, once it decided to capture
+ * them. A frame is passed without its newline or binary framing header, binary tells
+ * which of the two it went over the wire with.
+ * <p>
+ * Thread safe, frames of all sessions may be captured concurrently. A transport captures
+ * through its own {@link #session()}, so the frames of concurrent sessions are told apart.
+ */
+public interface MessageCapture {
+
+	/** Captures nothing */
+	MessageCapture NONE = new MessageCapture() {
+
+		@Override
+		public boolean selects(String method, String toolName) {
+			return false;
+		}
+
+		@Override
+		public void capture(Direction direction, boolean binary, byte[] frame, int offset, int length) {
+		}
+
+		@Override
+		public void capture(Direction direction, boolean binary, ByteBuffer frame, int offset, int length) {
+		}
+
+	};
+
+	/**
+	 * @return a capture tagging the frames it is handed with a session of their own
+	 */
+	default MessageCapture session() {
+		return this;
+	}
+
+	/**
+	 * Decides whether a message is captured, sampled messages get a fresh decision on
+	 * every call. A response is captured along with its request.
+	 * @param method the JSON-RPC method of the request or notification
+	 * @param toolName the tool called, null unless the method is tools/call
+	 * @return true when the message should be captured
+	 */
+	boolean selects(String method, String toolName);
+
+	/**
+	 * Copies the frame, the array is not used anymore once the call returns.
+	 */
+	void capture(Direction direction, boolean binary, byte[] frame, int offset, int length);
+
+	/**
+	 * Copies the frame, the buffer's position and limit are left alone.
+	 */
+	void capture(Direction direction, boolean binary, ByteBuffer frame, int offset, int length);
+
+}
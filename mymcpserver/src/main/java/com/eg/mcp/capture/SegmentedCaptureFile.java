@@ -0,0 +1,294 @@
+package com.eg.mcp.capture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One capture file written as a series of memory mapped segments named after it,
+ * combined.txt becoming combined-000001.txt, combined-000002.txt and so on. Appending
+ * is a copy into the mapping, the kernel writes the pages back on its own.
+ * <p>
+ * A segment is mapped at its full size when the first bytes arrive and cut down to what
+ * was written once it is finished, because it is full or older than the max age. Every
+ * write lands whole in one segment, so a combined line is never split, and a write
+ * larger than a segment gets a segment of its own. Finished segments are handed to the
+ * housekeeping executor, which gzips them to combined-000001.txt.gz when asked to and
+ * then deletes the oldest finished segments beyond the retention size. Numbering goes
+ * on from the segments already on disk, and segments a previous run left uncompressed
+ * are housekept at start.
+ * <p>
+ * Only used by the capture writer thread, housekeeping runs on the executor.
+ */
+final class SegmentedCaptureFile extends OutputStream {
+
+	private static final Logger logger = LoggerFactory.getLogger(SegmentedCaptureFile.class);
+
+	private static final String PARTIAL_SUFFIX = ".part";
+
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	/**
+	 * How segments are sized, rotated, compressed and kept.
+	 * @param segmentSize bytes mapped per segment
+	 * @param maxAge a segment is finished once it is this old, even when not full
+	 * @param retentionBytes finished segments of the file kept on disk, the oldest beyond
+	 * this are deleted
+	 * @param compress whether finished segments are gzipped
+	 */
+	record Policy(int segmentSize, Duration maxAge, long retentionBytes, boolean compress) {
+	}
+
+	private final Path dir;
+
+	private final CaptureSegments segments;
+
+	private final Policy policy;
+
+	private final Executor housekeeper;
+
+	private final LongConsumer finishedListener;
+
+	private long nextSequence;
+
+	private Path segment;
+
+	private long sequence;
+
+	private long lastWriteOffset;
+
+	private FileChannel channel;
+
+	private MappedByteBuffer mapped;
+
+	private long openedNanos;
+
+	/**
+	 * @param dir the directory the segments go to
+	 * @param fileName name of the capture file the segments are named after
+	 * @param housekeeper runs compression and retention, one task at a time
+	 * @param finishedListener called with the number of a segment once it is finished,
+	 * before its housekeeping is queued
+	 */
+	SegmentedCaptureFile(Path dir, String fileName, Policy policy, Executor housekeeper,
+			LongConsumer finishedListener) throws IOException {
+		this.dir = dir;
+		this.segments = new CaptureSegments(fileName);
+		this.policy = policy;
+		this.housekeeper = housekeeper;
+		this.finishedListener = finishedListener;
+
+		Files.createDirectories(dir);
+		List<Path> leftovers = new ArrayList<>();
+		long last = 0;
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				String name = file.getFileName().toString();
+				if (name.endsWith(PARTIAL_SUFFIX) && segments
+					.sequence(file.resolveSibling(name.substring(0, name.length() - PARTIAL_SUFFIX.length()))) > 0) {
+					// compression cut short by a previous run
+					Files.deleteIfExists(file);
+					continue;
+				}
+				long sequence = segments.sequence(file);
+				if (sequence > 0) {
+					last = Math.max(last, sequence);
+					if (!segments.compressed(file)) {
+						leftovers.add(file);
+					}
+				}
+			}
+		}
+		this.nextSequence = last + 1;
+		leftovers.sort(Comparator.comparingLong(segments::sequence));
+		for (Path leftover : leftovers) {
+			housekeeper.execute(() -> housekeep(leftover, true));
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		reserve(1);
+		lastWriteOffset = mapped.position();
+		mapped.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (len <= 0) {
+			return;
+		}
+		reserve(len);
+		lastWriteOffset = mapped.position();
+		mapped.put(b, off, len);
+	}
+
+	/**
+	 * @return the number of the segment the last write went to
+	 */
+	long lastWriteSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return where in its segment the last write began
+	 */
+	long lastWriteOffset() {
+		return lastWriteOffset;
+	}
+
+	/**
+	 * Finishes the current segment when it is older than the max age, the capture
+	 * writer calls this on every round so quiet files rotate as well.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (mapped != null && System.nanoTime() - openedNanos >= policy.maxAge().toNanos()) {
+			finish();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (mapped != null) {
+			finish();
+		}
+	}
+
+	private void reserve(int length) throws IOException {
+		if (mapped != null && mapped.remaining() < length) {
+			finish();
+		}
+		if (mapped == null) {
+			open(Math.max(policy.segmentSize(), length));
+		}
+	}
+
+	private void open(int size) throws IOException {
+		sequence = nextSequence++;
+		segment = dir.resolve(segments.name(sequence));
+		channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		openedNanos = System.nanoTime();
+	}
+
+	/**
+	 * Cuts the segment down to what was written and hands it to housekeeping. The
+	 * mapping goes away with the garbage collector, nothing touches it past the new end.
+	 */
+	private void finish() throws IOException {
+		Path finished = segment;
+		long length = mapped.position();
+		mapped = null;
+		segment = null;
+		try (FileChannel closing = channel) {
+			channel = null;
+			closing.truncate(length);
+		}
+		finishedListener.accept(sequence);
+		housekeeper.execute(() -> housekeep(finished, false));
+	}
+
+	/**
+	 * @param leftover whether the segment was left by a previous run, which may have
+	 * ended before cutting it down
+	 */
+	private void housekeep(Path finished, boolean leftover) {
+		try {
+			if (leftover) {
+				trimPadding(finished);
+			}
+			if (policy.compress()) {
+				compress(finished);
+			}
+			enforceRetention(segments.sequence(finished));
+		}
+		catch (IOException | UncheckedIOException e) {
+			logger.warn("Housekeeping of capture segment {} failed", finished, e);
+		}
+	}
+
+	private static void compress(Path finished) throws IOException {
+		Path compressed = finished.resolveSibling(finished.getFileName() + CaptureSegments.COMPRESSED_SUFFIX);
+		Path partial = compressed.resolveSibling(compressed.getFileName() + PARTIAL_SUFFIX);
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(partial), BLOCK_SIZE);
+				InputStream in = Files.newInputStream(finished)) {
+			in.transferTo(out);
+		}
+		Files.move(partial, compressed, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		Files.delete(finished);
+	}
+
+	/**
+	 * Deletes the oldest finished segments, with their sidecar index, once all of them
+	 * together take more than the retention size. Segments numbered after the one just
+	 * housekept, the one being written among them, are left alone and not counted.
+	 */
+	private void enforceRetention(long upTo) throws IOException {
+		List<Path> candidates = new ArrayList<>(segments.list(dir));
+		candidates.removeIf(file -> segments.sequence(file) > upTo);
+		long kept = 0;
+		for (Path candidate : candidates.reversed()) {
+			long size = Files.size(candidate);
+			if (kept + size > policy.retentionBytes()) {
+				Files.deleteIfExists(candidate);
+				Files.deleteIfExists(dir.resolve(segments.indexName(segments.sequence(candidate))));
+			}
+			else {
+				kept += size;
+			}
+		}
+	}
+
+	/**
+	 * Cuts the zeros a mapped segment was padded with from its end.
+	 */
+	private static void trimPadding(Path file) throws IOException {
+		try (FileChannel trimmed = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+			long end = trimmed.size();
+			while (end > 0) {
+				long start = Math.max(0, end - BLOCK_SIZE);
+				block.clear().limit((int) (end - start));
+				while (block.hasRemaining()) {
+					if (trimmed.read(block, start + block.position()) < 0) {
+						break;
+					}
+				}
+				int i = block.position() - 1;
+				while (i >= 0 && block.get(i) == 0) {
+					i--;
+				}
+				if (i >= 0) {
+					end = start + i + 1;
+					break;
+				}
+				end = start;
+			}
+			if (end < trimmed.size()) {
+				trimmed.truncate(end);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,329 @@
+package com.eg.mcp.capture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eg.mcp.utils.McpLoggingProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Records the messages the transport read and wrote in the in and out files, framed as
+ * they went over the wire, and in the combined file, without making the client wait for
+ * the disk.
+ * <p>
+ * The transport asks the {@link CapturePolicy} which messages to capture and hands over
+ * the frames of those only, inbound ones right after they were read and outbound ones
+ * right after they were serialized, before they can reach the client. Each frame is
+ * copied, cut to the max payload size and stamped with the time, into a preallocated
+ * lock free {@link CaptureRingBuffer}. A single background thread drains the ring in
+ * capture order, appends the frames to the in and out files and hands them to the
+ * {@link CombinedLog}. Each file is a series of rolling memory mapped
+ * {@link SegmentedCaptureFile segments}, compressed and pruned by a second background
+ * thread. When the disk falls behind and the ring is full, frames are dropped from the
+ * capture, never from the wire, and counted as mcp.capture.dropped.bytes.
+ * <p>
+ * The requests in the combined file are indexed as they are written, in sidecar files
+ * next to its segments, and can be looked up with {@link #find}. Each transport captures
+ * through a {@link #session()} of its own, so responses are paired with the requests of
+ * their session, whatever ids concurrent clients use.
+ */
+public final class WireCapture implements MessageCapture, Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(WireCapture.class);
+
+	public static final String METER_PREFIX = "mcp.capture.";
+
+	/** How long the writer sleeps once the ring is empty */
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+	/** Drops are logged at most this often, they are counted all the time */
+	private static final long DROP_REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/** How long close waits for the last segments to be compressed */
+	private static final long HOUSEKEEPING_GRACE_SECONDS = 10;
+
+	/** Same framing as the transport's, a zero marker and a 4 byte big-endian length */
+	private static final byte BINARY_MARKER = 0;
+
+	/** A frame buffer grown beyond this by one huge frame is not kept around */
+	private static final int RETAINED_FRAME_SIZE = 1024 * 1024;
+
+	/** For the in and out files, only the combined one is indexed */
+	private static final LongConsumer NOT_INDEXED = segment -> {
+	};
+
+	private final CapturePolicy policy;
+
+	private final CaptureRingBuffer ring;
+
+	private final ExecutorService housekeeper = Executors
+		.newSingleThreadExecutor(Thread.ofPlatform().name("wire-capture-housekeeping").daemon().factory());
+
+	private final SegmentedCaptureFile inFile;
+
+	private final SegmentedCaptureFile outFile;
+
+	private final SegmentedCaptureFile combinedFile;
+
+	private final CaptureIndex index;
+
+	private final CombinedLog combinedLog;
+
+	private final LongAdder bytesIn = new LongAdder();
+
+	private final LongAdder bytesOut = new LongAdder();
+
+	/** The last session handed out, frames captured without one are session 0 */
+	private final AtomicInteger sessions = new AtomicInteger();
+
+	private final Thread writer;
+
+	private volatile boolean closed;
+
+	/** A frame with its framing, appended to the in or out file at once, only used by the writer thread */
+	private ByteArrayOutputStream frame = new ByteArrayOutputStream(8192);
+
+	/** Drops already reported and when, only used by the writer thread */
+	private long reportedDroppedBytes;
+
+	private long lastReportNanos;
+
+	/**
+	 * Picks up the segments already in the directory and starts the writer thread. The
+	 * in file gets the frames read from the client, the out file the frames written to
+	 * it and the combined file the messages of both directions, one per line in the order
+	 * they were captured.
+	 * @param dir the directory the segments of the three files go to
+	 * @param properties file names, ring size, segment and capture policies
+	 * @param meterRegistry the registry the capture meters are published to
+	 */
+	public WireCapture(Path dir, McpLoggingProperties properties, MeterRegistry meterRegistry) throws IOException {
+		this.policy = new CapturePolicy(properties);
+		this.ring = new CaptureRingBuffer(properties.captureBufferSize());
+		SegmentedCaptureFile.Policy segmentPolicy = new SegmentedCaptureFile.Policy(properties.captureSegmentSize(),
+				properties.captureSegmentMaxAge(), properties.captureRetentionBytes(), properties.captureCompress());
+		this.inFile = new SegmentedCaptureFile(dir, properties.inFileName(), segmentPolicy, housekeeper,
+				NOT_INDEXED);
+		this.outFile = new SegmentedCaptureFile(dir, properties.outFileName(), segmentPolicy, housekeeper,
+				NOT_INDEXED);
+		this.index = new CaptureIndex(dir, properties.combinedFileName(), housekeeper);
+		this.combinedFile = new SegmentedCaptureFile(dir, properties.combinedFileName(), segmentPolicy, housekeeper,
+				index::finished);
+		this.combinedLog = new CombinedLog(this.combinedFile, this.index);
+
+		FunctionCounter.builder(METER_PREFIX + "bytes", bytesIn, LongAdder::sum)
+			.tag("direction", "in")
+			.baseUnit("bytes")
+			.register(meterRegistry);
+		FunctionCounter.builder(METER_PREFIX + "bytes", bytesOut, LongAdder::sum)
+			.tag("direction", "out")
+			.baseUnit("bytes")
+			.register(meterRegistry);
+		FunctionCounter.builder(METER_PREFIX + "dropped.bytes", ring, CaptureRingBuffer::droppedBytes)
+			.baseUnit("bytes")
+			.register(meterRegistry);
+
+		this.writer = Thread.ofPlatform().name("wire-capture").daemon().start(this::writeLoop);
+	}
+
+	@Override
+	public MessageCapture session() {
+		return new Session(sessions.incrementAndGet());
+	}
+
+	@Override
+	public boolean selects(String method, String toolName) {
+		return !closed && policy.selects(method, toolName);
+	}
+
+	@Override
+	public void capture(Direction direction, boolean binary, byte[] frame, int offset, int length) {
+		capture(0, direction, binary, frame, offset, length);
+	}
+
+	@Override
+	public void capture(Direction direction, boolean binary, ByteBuffer frame, int offset, int length) {
+		capture(0, direction, binary, frame, offset, length);
+	}
+
+	private void capture(int session, Direction direction, boolean binary, byte[] frame, int offset, int length) {
+		if (!closed) {
+			ring.offer(session, direction, binary, length, frame, offset, policy.capturedLength(length));
+		}
+	}
+
+	private void capture(int session, Direction direction, boolean binary, ByteBuffer frame, int offset,
+			int length) {
+		if (!closed) {
+			ring.offer(session, direction, binary, length, frame, offset, policy.capturedLength(length));
+		}
+	}
+
+	/**
+	 * Looks requests up in the index of the combined file, without reading the capture
+	 * unless the messages are asked for. Requests still waiting for their response are
+	 * not indexed yet.
+	 * @param messages whether to read the request and response messages from the capture
+	 * @return the latest requests matching the query, latest first
+	 */
+	public List<CapturedRequest> find(CaptureQuery query, boolean messages) throws IOException {
+		return index.find(query, messages);
+	}
+
+	/**
+	 * @return bytes left out of the capture so far because the ring was full
+	 */
+	public long droppedBytes() {
+		return ring.droppedBytes();
+	}
+
+	/**
+	 * Writes what is still in the ring, closes the files and waits a little for their last
+	 * segments to be compressed. Frames handed over afterwards are not captured anymore,
+	 * segments left uncompressed are compressed on the next start.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		closeQuietly(inFile);
+		closeQuietly(outFile);
+		index.flushPending();
+		closeQuietly(combinedFile);
+		housekeeper.shutdown();
+		try {
+			housekeeper.awaitTermination(HOUSEKEEPING_GRACE_SECONDS, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeLoop() {
+		try {
+			while (true) {
+				// read before draining, so nothing offered before close is left behind
+				boolean closing = closed;
+				int drained = ring.drain(this::write);
+				// rotates segments that got too old, a no-op otherwise
+				inFile.flush();
+				outFile.flush();
+				combinedFile.flush();
+				if (drained == 0) {
+					if (closing) {
+						reportDrops(true);
+						break;
+					}
+					LockSupport.parkNanos(IDLE_PARK_NANOS);
+				}
+				reportDrops(false);
+			}
+		}
+		catch (IOException e) {
+			logger.error("Wire capture stopped, the capture files can not be written", e);
+			closed = true;
+		}
+	}
+
+	private void write(int session, Direction direction, boolean gap, boolean binary, int originalLength, long nanos,
+			byte[] bytes, int offset, int length) throws IOException {
+		if (gap) {
+			combinedLog.gap(direction, nanos);
+		}
+		frame.reset();
+		if (binary) {
+			frame.write(BINARY_MARKER);
+			frame.write(length >>> 24);
+			frame.write(length >>> 16);
+			frame.write(length >>> 8);
+			frame.write(length);
+			frame.write(bytes, offset, length);
+		}
+		else {
+			frame.write(bytes, offset, length);
+			frame.write('\n');
+		}
+		if (direction == Direction.IN) {
+			frame.writeTo(inFile);
+			bytesIn.add(length);
+		}
+		else {
+			frame.writeTo(outFile);
+			bytesOut.add(length);
+		}
+		if (frame.size() > RETAINED_FRAME_SIZE) {
+			frame = new ByteArrayOutputStream(8192);
+		}
+		combinedLog.message(session, direction, nanos, binary, bytes, offset, length, originalLength);
+	}
+
+	private void reportDrops(boolean now) {
+		long dropped = ring.droppedBytes();
+		long nanos = System.nanoTime();
+		if (dropped != reportedDroppedBytes && (now || nanos - lastReportNanos >= DROP_REPORT_INTERVAL_NANOS)) {
+			lastReportNanos = nanos;
+			logger.warn("Wire capture dropped {} bytes, {} in total, the disk is not keeping up",
+					dropped - reportedDroppedBytes, dropped);
+			reportedDroppedBytes = dropped;
+		}
+	}
+
+	/**
+	 * The frames of one transport, tagged with its session number.
+	 */
+	private final class Session implements MessageCapture {
+
+		private final int session;
+
+		Session(int session) {
+			this.session = session;
+		}
+
+		@Override
+		public boolean selects(String method, String toolName) {
+			return WireCapture.this.selects(method, toolName);
+		}
+
+		@Override
+		public void capture(Direction direction, boolean binary, byte[] frame, int offset, int length) {
+			WireCapture.this.capture(session, direction, binary, frame, offset, length);
+		}
+
+		@Override
+		public void capture(Direction direction, boolean binary, ByteBuffer frame, int offset, int length) {
+			WireCapture.this.capture(session, direction, binary, frame, offset, length);
+		}
+
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		}
+		catch (IOException e) {
+			logger.debug("Failed to close capture file", e);
+		}
+	}
+
+}
@@ -2,16 +2,14 @@ package com.eg.mcp.models;
 
 import java.util.List;
 
+/**
+ * Built once per version of a cart and shared by all its reads, hence the
+ * unmodifiable items. The total comes with the cart version, kept up to date as items
+ * change instead of being summed again here.
+ */
 public record Cart(List<OrderItem> orderItems, float total, String currency) {
     public Cart {
-        // Recalculate total
-        float computedTotal = 0f;
-        if (orderItems != null) {
-            for (OrderItem item : orderItems) {
-                computedTotal += item.cost();
-            }
-        }
-        total = computedTotal;
+        orderItems = orderItems != null ? List.copyOf(orderItems) : List.of();
     }
-    
+
 }
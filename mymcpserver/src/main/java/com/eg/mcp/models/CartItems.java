@@ -0,0 +1,95 @@
+package com.eg.mcp.models;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * One version of a shopper's cart, never changed: every change to the cart makes the
+ * next version. The total is carried over from version to version, adjusted by the
+ * cost of the item changed, and the Cart is built once per version, by the first read,
+ * and handed to every later read as is.
+ */
+final class CartItems {
+
+	static final CartItems EMPTY = new CartItems(0, Collections.unmodifiableMap(new EnumMap<>(SportsItem.class)), 0);
+
+	private final long version;
+
+	/** Quantities in item order */
+	private final Map<SportsItem, Integer> quantities;
+
+	/** Sum of the item costs, a double so adding and taking off float costs loses nothing */
+	private final double total;
+
+	private volatile Cart cart;
+
+	private CartItems(long version, Map<SportsItem, Integer> quantities, double total) {
+		this.version = version;
+		this.quantities = quantities;
+		this.total = total;
+	}
+
+	long version() {
+		return version;
+	}
+
+	Map<SportsItem, Integer> quantities() {
+		return quantities;
+	}
+
+	int quantity(SportsItem item) {
+		return quantities.getOrDefault(item, 0);
+	}
+
+	/**
+	 * @param quantity null to take the item out of the cart
+	 * @return the next version, with the quantity of the item changed
+	 */
+	CartItems with(SportsItem item, Integer quantity) {
+		EnumMap<SportsItem, Integer> changed = quantities.isEmpty() ? new EnumMap<>(SportsItem.class)
+				: new EnumMap<>(quantities);
+		Integer previous = quantity != null ? changed.put(item, quantity) : changed.remove(item);
+		// an empty cart starts over from 0, whatever rounding came before
+		double changedTotal = changed.isEmpty() ? 0 : total - cost(item, previous) + cost(item, quantity);
+		return new CartItems(version + 1, Collections.unmodifiableMap(changed), changedTotal);
+	}
+
+	/**
+	 * @return the next version, with the quantities of the other added
+	 */
+	CartItems plus(CartItems other) {
+		CartItems sum = this;
+		for (Map.Entry<SportsItem, Integer> entry : other.quantities.entrySet()) {
+			sum = sum.with(entry.getKey(), sum.quantity(entry.getKey()) + entry.getValue());
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the next version, without any items
+	 */
+	CartItems cleared() {
+		return new CartItems(version + 1, EMPTY.quantities, 0);
+	}
+
+	/**
+	 * @param orderItems makes the order items of this version, only called by the first
+	 * read of the version, or by the first few reading at the same time
+	 */
+	Cart toCart(Function<CartItems, List<OrderItem>> orderItems, String currency) {
+		Cart built = cart;
+		if (built == null) {
+			built = new Cart(orderItems.apply(this), (float) total, currency);
+			cart = built;
+		}
+		return built;
+	}
+
+	private static float cost(SportsItem item, Integer quantity) {
+		return quantity != null ? item.price() * quantity : 0f;
+	}
+
+}
@@ -0,0 +1,22 @@
+package com.eg.mcp.models;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The cart and last order of one shopper. Only changed by State while it holds the
+ * shopper's entry, read by anyone at any time: the items are replaced by their next
+ * version on every change, never changed in place, so a reader always sees a whole
+ * cart.
+ */
+final class ShopperCart {
+
+	volatile CartItems items = CartItems.EMPTY;
+
+	volatile Order lastOrder;
+
+	volatile long lastAccessNanos = System.nanoTime();
+
+	/** The last append of a customer's changed cart, null until it changes */
+	volatile CompletableFuture<Long> journaled;
+
+}
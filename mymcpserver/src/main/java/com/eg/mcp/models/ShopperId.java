@@ -0,0 +1,60 @@
+package com.eg.mcp.models;
+
+import java.util.Objects;
+
+/**
+ * Whose cart it is: a customer named by the client, or the client's session when it
+ * names none. Sessions are told apart by identity, two clients introducing themselves
+ * alike still get a cart each.
+ */
+public final class ShopperId {
+
+	/** Shopper of the calls made outside of any session */
+	public static final ShopperId ANONYMOUS = new ShopperId(null, new Object());
+
+	private final String customerId;
+
+	private final Object session;
+
+	private ShopperId(String customerId, Object session) {
+		this.customerId = customerId;
+		this.session = session;
+	}
+
+	public static ShopperId customer(String customerId) {
+		return new ShopperId(Objects.requireNonNull(customerId), null);
+	}
+
+	/**
+	 * @param session an object held by the session for as long as it lasts, e.g. the
+	 * client info it was initialized with
+	 */
+	public static ShopperId session(Object session) {
+		return new ShopperId(null, Objects.requireNonNull(session));
+	}
+
+	/**
+	 * @return null for a session
+	 */
+	public String customerId() {
+		return customerId;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof ShopperId shopper && Objects.equals(customerId, shopper.customerId)
+				&& session == shopper.session;
+	}
+
+	@Override
+	public int hashCode() {
+		return customerId != null ? customerId.hashCode() : System.identityHashCode(session);
+	}
+
+	@Override
+	public String toString() {
+		return customerId != null ? "customer " + customerId
+				: "session " + Integer.toHexString(System.identityHashCode(session));
+	}
+
+}
@@ -1,31 +1,100 @@
 package com.eg.mcp.models;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import com.eg.mcp.orders.CustomerCarts;
+import com.eg.mcp.orders.JournaledCart;
+import com.eg.mcp.orders.JournaledOrder;
+import com.eg.mcp.orders.OrderHistory;
+import com.eg.mcp.orders.OrderIds;
+import com.eg.mcp.orders.OrderJournal;
+import com.eg.mcp.orders.OrderPage;
+import com.eg.mcp.orders.OrderQuery;
+import com.eg.mcp.orders.StoreSnapshots;
 import com.eg.mcp.utils.McpLoggingProperties;
+import com.eg.mcp.utils.McpStoreProperties;
 
+/*
+ * The carts of all shoppers served by this process, one per ShopperId. Tool calls of
+ * different shoppers run concurrently without waiting for each other: a change locks
+ * only the shopper's entry of the concurrent map, and reads take no lock at all.
+ * Carts left alone for the idle timeout are evicted, along with their last order,
+ * and beyond the configured number of carts the least recently used ones go first.
+ * Orders are journaled before checkout answers and indexed in the order history, the
+ * last order of a customer whose cart is gone is looked up there. Every change to a
+ * customer's cart is journaled too, without waiting for it, and a customer without a
+ * cart in memory, after a restart or an eviction, gets the cart journaled last back on
+ * the next call; sessions do not outlive the process, nor do their carts.
+ */
 @Component
 public class State {
 
-	private final Map<String, Integer> cart = new HashMap<>();
+	private static final Logger logger = LoggerFactory.getLogger(State.class);
+
 	private static final String currency = "USD";
 
+	/** Idle carts are looked for this many times per idle timeout */
+	private static final int SWEEPS_PER_IDLE_TIMEOUT = 4;
+
+	/** Share of the carts evicted at once when there are too many, so not every new cart scans them all */
+	private static final int EVICTED_PER_MILLE = 10;
+
+	private final Map<ShopperId, ShopperCart> carts = new ConcurrentHashMap<>();
+
+	private final AtomicLong lastSweepNanos = new AtomicLong(System.nanoTime());
+
 	private final McpLoggingProperties mcpLoggingProperties;
 
-	public State(McpLoggingProperties mcpLoggingProperties) {
+	private final McpStoreProperties storeProperties;
+
+	private final OrderJournal orderJournal;
+
+	private final OrderHistory orderHistory;
+
+	private final OrderIds orderIds;
+
+	private final CustomerCarts customerCarts;
+
+	private record CheckedOut(CartItems items, Order order, CompletableFuture<Long> journaled) {
+	}
+
+	public State(McpLoggingProperties mcpLoggingProperties, McpStoreProperties storeProperties,
+			OrderJournal orderJournal, OrderHistory orderHistory, StoreSnapshots storeSnapshots) {
 		this.mcpLoggingProperties = mcpLoggingProperties;
+		this.storeProperties = storeProperties;
+		this.orderJournal = orderJournal;
+		this.orderHistory = orderHistory;
+		this.orderIds = new OrderIds(storeSnapshots.lastOrderId());
+		this.customerCarts = storeSnapshots.carts();
+	}
+
+	/**
+	 * @return the cart as of its latest change, built by the first read after the change
+	 * and the same for all reads until the next one
+	 */
+	public Cart toCart(ShopperId shopper) {
+		ShopperCart cart = touch(shopper);
+		return (cart != null ? cart.items : CartItems.EMPTY).toCart(this::toOrderItems, currency);
 	}
 
-	public Order toOrder() {
-		List<OrderItem> items = toOrderItems(currency);
+	private Order toOrder(long id, CartItems cart) {
+		List<OrderItem> items = cart.toCart(this::toOrderItems, currency).orderItems();
 		return new Order(
-				"ORD-" + System.currentTimeMillis(),  // simple order number
+				OrderIds.orderNumber(id),
 				LocalDateTime.now(),
 				items,
 				0f, // total will be recomputed in Order constructor
@@ -33,86 +102,274 @@ public class State {
 		);
 	}
 
-	public Cart toCart() {
-		List<OrderItem> items = toOrderItems(currency);
-		return new Cart(
-				items,
-				0f, // total will be recomputed in Order constructor
-				currency
-		);
+	private List<OrderItem> toOrderItems(CartItems cart) {
+		List<OrderItem> items = new ArrayList<>(cart.quantities().size());
+		for (Map.Entry<SportsItem, Integer> entry : cart.quantities().entrySet()) {
+			SportsItem item = entry.getKey();
+			int quantity = entry.getValue();
+			float rate = item.price();
+			float cost = rate * quantity;
+			items.add(new OrderItem(item.label(), quantity, rate, cost, mcpLoggingProperties.imagesServerUrl() + item.touri(), currency));
+		}
+		return items;
 	}
 
-	private List<OrderItem> toOrderItems(String currency) {
-		List<OrderItem> items = new ArrayList<>();
-		for (Map.Entry<String, Integer> entry : cart.entrySet()) {
-			String normalizedLabel = entry.getKey();
-			int quantity = entry.getValue();
-			SportsItem item = SportsItem.internalLookupByNormalizedLabel(normalizedLabel);
+	public void addToCart(ShopperId shopper, String itemName, int quantity) {
+		SportsItem sportsItem = stocked(itemName);
+		change(shopper, cart -> {
+			cart.items = cart.items.with(sportsItem, cart.items.quantity(sportsItem) + quantity);
+			return null;
+		});
+	}
 
-			if (item != null) {
-				float rate = item.price();
-				float cost = rate * quantity;
-				items.add(new OrderItem(item.label(), quantity, rate, cost, mcpLoggingProperties.imagesServerUrl() + item.touri(), currency));
+	public Order getLastOrder(ShopperId shopper) {
+		ShopperCart cart = touch(shopper);
+		Order lastOrder = cart != null ? cart.lastOrder : null;
+		if (lastOrder == null) {
+			try {
+				lastOrder = orderHistory.latest(shopper);
+			}
+			catch (IOException e) {
+				throw new RuntimeException("Reading the order history failed: " + e.getMessage(), e);
 			}
 		}
-		return items;
+		if (lastOrder == null) {
+			throw new RuntimeException("There is no order history yet");
+		}
+		return lastOrder;
 	}
 
+	public void changeQuantityOfCartItem(ShopperId shopper, String itemName, int quantity) {
+		SportsItem sportsItem = stocked(itemName);
+		change(shopper, cart -> {
+			cart.items = cart.items.with(sportsItem, quantity);
+			return null;
+		});
+	}
 
-	public void addToCart(String itemName, int quantity) {
-		SportsItem sportsItem = SportsItem.labelOf(itemName);
-		if (sportsItem != null) {
-			cart.merge(sportsItem.normalizedLabel(), quantity, Integer::sum);
+	public void removeFromCart(ShopperId shopper, String itemName) {
+		SportsItem sportsItem = stocked(itemName);
+		change(shopper, cart -> {
+			cart.items = cart.items.with(sportsItem, null);
+			return null;
+		});
+	}
+
+	/**
+	 * Empties the cart right away, so the items are not ordered twice, and answers once
+	 * the order is journaled. The order is handed to the journal along with the emptied
+	 * cart, ahead of any later change to the cart. When journaling fails the items go
+	 * back into the cart.
+	 */
+	public Order checkout(ShopperId shopper) {
+		long id = orderIds.next();
+		CheckedOut checkedOut = change(shopper, cart -> {
+			Order taken = toOrder(id, cart.items);
+			CompletableFuture<Long> journaled = orderJournal.append(new JournaledOrder(shopper.customerId(), taken));
+			CheckedOut checked = new CheckedOut(cart.items, taken, journaled);
+			cart.items = cart.items.cleared();
+			return checked;
+		});
+		Order order = checkedOut.order();
+		long position;
+		try {
+			position = checkedOut.journaled().join();
 		}
-		else {
-			throw new RuntimeException("Brand Z Sports store does not stock " + itemName);
+		catch (CompletionException e) {
+			change(shopper, cart -> {
+				cart.items = cart.items.plus(checkedOut.items());
+				return null;
+			});
+			throw new RuntimeException("Checkout failed, the items are still in the cart: " + e.getCause().getMessage(),
+					e.getCause());
 		}
+		change(shopper, cart -> {
+			orderHistory.add(shopper, order, position);
+			// a later checkout of the same shopper may have been journaled first
+			if (cart.lastOrder == null || OrderIds.id(cart.lastOrder.orderNumber()) < id) {
+				cart.lastOrder = order;
+			}
+			return null;
+		});
+		return order;
+	}
 
+	public String getCurrency() {
+		return currency;
 	}
 
-	public Order getLastOrder() {
-		Order lastOrder;
-		if (!orderHistory.isEmpty()) {
-			lastOrder = orderHistory.getLast();
+	/**
+	 * @return the page of the shopper's orders the query asks for
+	 */
+	public OrderPage findOrders(ShopperId shopper, OrderQuery query) {
+		touch(shopper);
+		try {
+			return orderHistory.find(shopper, query);
 		}
-		else {
-			throw new RuntimeException("There is no order history yet");
+		catch (IOException e) {
+			throw new RuntimeException("Reading the order history failed: " + e.getMessage(), e);
 		}
-		return lastOrder;
 	}
 
-	public void changeQuantityOfCartItem(String itemName, int quantity) {
+	private static SportsItem stocked(String itemName) {
 		SportsItem sportsItem = SportsItem.labelOf(itemName);
-		if (sportsItem != null) {
-			cart.put(sportsItem.normalizedLabel(), quantity);
-		}
-		else {
+		if (sportsItem == null) {
 			throw new RuntimeException("Brand Z Sports store does not stock " + itemName);
 		}
+		return sportsItem;
+	}
 
+	/**
+	 * Changes the shopper's cart, loading or creating it when the shopper has none, while
+	 * holding its entry. Eviction takes the entry too, so a change never lands in an
+	 * evicted cart, a customer's cart evicted before the change got hold of it is loaded
+	 * again.
+	 * A customer's changed cart is handed to the journal while holding the entry, so the
+	 * journal has the changes of a cart in the order they were made.
+	 */
+	private <T> T change(ShopperId shopper, Function<ShopperCart, T> change) {
+		List<T> result = new ArrayList<>(1);
+		boolean[] created = new boolean[1];
+		while (result.isEmpty()) {
+			if (shopper.customerId() != null && !carts.containsKey(shopper)) {
+				loadCart(shopper, true);
+			}
+			carts.compute(shopper, (key, cart) -> {
+				if (cart == null) {
+					if (key.customerId() != null) {
+						// evicted again right after it was loaded
+						return null;
+					}
+					cart = new ShopperCart();
+					created[0] = true;
+				}
+				CartItems before = cart.items;
+				result.add(change.apply(cart));
+				if (cart.items != before && key.customerId() != null) {
+					cart.journaled = orderJournal.append(new JournaledCart(key.customerId(), cart.items.quantities()));
+				}
+				cart.lastAccessNanos = System.nanoTime();
+				return cart;
+			});
+		}
+		evictIdle();
+		if (created[0]) {
+			evictBeyondCapacity();
+		}
+		return result.getFirst();
 	}
 
-	public void removeFromCart(String itemName) {
-		SportsItem sportsItem = SportsItem.labelOf(itemName);
-		if (sportsItem != null) {
-			cart.remove(sportsItem.normalizedLabel());
+	/**
+	 * @return the shopper's cart, loaded when a customer has a durable one that is not
+	 * in memory, null when there is none
+	 */
+	private ShopperCart touch(ShopperId shopper) {
+		ShopperCart cart = carts.get(shopper);
+		if (cart == null && shopper.customerId() != null) {
+			cart = loadCart(shopper, false);
 		}
-		else {
-			throw new RuntimeException("Brand Z Sports store does not stock " + itemName);
+		if (cart != null) {
+			cart.lastAccessNanos = System.nanoTime();
 		}
+		return cart;
+	}
 
+	/**
+	 * Loads the customer's cart as journaled last without holding its entry, as that may
+	 * wait for the journal and read from it. The entry is only taken to put the cart in,
+	 * unless another call put one in meanwhile. A cart evicted with changes meanwhile is
+	 * loaded again.
+	 * @param empty whether to put in an empty cart too
+	 * @return the customer's cart, null when it is empty and not put in
+	 */
+	private ShopperCart loadCart(ShopperId shopper, boolean empty) {
+		while (true) {
+			CustomerCarts.Loaded durable;
+			try {
+				durable = customerCarts.load(shopper.customerId());
+			}
+			catch (IOException e) {
+				throw new RuntimeException("Reading the cart failed: " + e.getMessage(), e);
+			}
+			if (!empty && durable.quantities().isEmpty()) {
+				return carts.get(shopper);
+			}
+			boolean[] loaded = new boolean[1];
+			ShopperCart cart = carts.compute(shopper, (key, current) -> {
+				if (current != null || !customerCarts.isCurrent(key.customerId(), durable)) {
+					return current;
+				}
+				ShopperCart created = new ShopperCart();
+				durable.quantities().forEach((item, quantity) -> created.items = created.items.with(item, quantity));
+				loaded[0] = true;
+				return created;
+			});
+			if (loaded[0]) {
+				evictBeyondCapacity();
+			}
+			if (cart != null) {
+				return cart;
+			}
+		}
 	}
 
-	public Order checkout() {
-		Order order = toOrder();
-		this.orderHistory.add(order);
-		cart.clear();
-		return order;
+	/**
+	 * Looks for idle carts at most a few times per idle timeout, whoever comes first
+	 * does it.
+	 */
+	private void evictIdle() {
+		long now = System.nanoTime();
+		long lastSweep = lastSweepNanos.get();
+		long idleTimeoutNanos = storeProperties.cartIdleTimeout().toNanos();
+		if (now - lastSweep < idleTimeoutNanos / SWEEPS_PER_IDLE_TIMEOUT
+				|| !lastSweepNanos.compareAndSet(lastSweep, now)) {
+			return;
+		}
+		int before = carts.size();
+		for (ShopperId shopper : carts.keySet()) {
+			carts.computeIfPresent(shopper,
+					(key, cart) -> now - cart.lastAccessNanos > idleTimeoutNanos ? evicted(key, cart) : cart);
+		}
+		logger.debug("Evicted {} idle carts, {} left", before - carts.size(), carts.size());
 	}
 
-	public String getCurrency() {
-		return currency;
+	/**
+	 * Evicts the least recently used carts when there are too many, a few more than
+	 * needed, unless they were used meanwhile.
+	 */
+	private void evictBeyondCapacity() {
+		int maxCarts = storeProperties.maxCarts();
+		if (carts.size() <= maxCarts) {
+			return;
+		}
+		int evicted = carts.size() - maxCarts + maxCarts * EVICTED_PER_MILLE / 1000;
+		List<Map.Entry<ShopperId, Long>> leastRecentlyUsed = carts.entrySet()
+			.stream()
+			.map(entry -> Map.entry(entry.getKey(), entry.getValue().lastAccessNanos))
+			.sorted(Comparator.comparingLong(Map.Entry::getValue))
+			.limit(evicted)
+			.toList();
+		for (Map.Entry<ShopperId, Long> used : leastRecentlyUsed) {
+			carts.computeIfPresent(used.getKey(),
+					(key, cart) -> cart.lastAccessNanos == used.getValue() ? evicted(key, cart) : cart);
+		}
+		logger.warn("More than {} carts, evicted the {} least recently used", maxCarts, leastRecentlyUsed.size());
+	}
+
+	/**
+	 * Forgets the orders of a session along with its cart, no later call can be made in
+	 * the session once it is gone long enough for that. A customer's orders stay, and so
+	 * does the customer's journaled cart, which is loaded again on the next call.
+	 * @return null, for the cart's entry to go
+	 */
+	private ShopperCart evicted(ShopperId shopper, ShopperCart cart) {
+		if (shopper.customerId() == null) {
+			orderHistory.forget(shopper);
+		}
+		else {
+			customerCarts.evicted(shopper.customerId(), cart.journaled);
+		}
+		return null;
 	}
 
-	private List<Order> orderHistory = new ArrayList<>();
 }
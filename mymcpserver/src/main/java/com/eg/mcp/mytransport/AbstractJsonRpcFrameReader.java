@@ -0,0 +1,288 @@
+package com.eg.mcp.mytransport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntFunction;
+
+import com.eg.mcp.capture.Direction;
+import com.eg.mcp.capture.MessageCapture;
+import com.eg.mcp.framing.BinaryFramingProtocol;
+
+/**
+ * Reads newline-delimited frames off a single reusable buffer, the framing shared by the
+ * stream and the channel readers, which only differ in how the buffer is filled and how
+ * a frame is handed to the decoder.
+ * <p>
+ * The delimiter is scanned for in place, so a frame is never decoded into a String. The
+ * bytes of the current frame stay valid until the next call to {@link #readFrame()}.
+ * Frames larger than the configured maximum are skipped up to their terminating newline
+ * and reported as {@link #FRAME_TOO_LARGE}. Once binary frames are accepted,
+ * length-prefixed {@link BinaryFraming} frames are read as well.
+ * <p>
+ * Not thread safe, meant to be driven by the single inbound thread.
+ */
+abstract class AbstractJsonRpcFrameReader implements JsonRpcFrameSource {
+
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+
+	/** No complete frame in the buffer yet */
+	private static final int INCOMPLETE = -3;
+
+	/** Something was consumed without yielding a frame, look again before reading more */
+	private static final int CONSUMED = -4;
+
+	private final int maxFrameBytes;
+
+	private final IntFunction<ByteBuffer> allocator;
+
+	private ByteBuffer buffer;
+
+	/** Start of the bytes not handed out yet */
+	private int start;
+
+	/** End of the valid bytes in the buffer */
+	private int end;
+
+	/** Position up to which the pending bytes were already searched for a newline */
+	private int scanned;
+
+	private int frameOffset;
+
+	private int frameLength;
+
+	/** What the frame took on the wire, its length plus its header or line ending */
+	private int frameBytes;
+
+	private boolean frameBinary;
+
+	/** Set while the remainder of an oversized text frame is being skipped */
+	private boolean discarding;
+
+	/** Bytes of an oversized binary frame still to be skipped */
+	private long binarySkipRemaining;
+
+	/** Reads binary frames once set */
+	private JsonRpcDecoder binaryDecoder;
+
+	private boolean eof;
+
+	/**
+	 * @param allocator allocates the buffer, and a larger one when a frame outgrows it
+	 */
+	AbstractJsonRpcFrameReader(int maxFrameBytes, IntFunction<ByteBuffer> allocator) {
+		this.maxFrameBytes = maxFrameBytes;
+		this.allocator = allocator;
+		this.buffer = allocator.apply((int) Math.min(INITIAL_BUFFER_SIZE, maxBufferSize()));
+	}
+
+	/**
+	 * Reads more bytes into the buffer, from its position up to its limit.
+	 * @return the number of bytes read, -1 at the end of the stream
+	 */
+	protected abstract int read(ByteBuffer buffer) throws IOException;
+
+	/**
+	 * Deserializes a frame, the buffer's position and limit are left as they are.
+	 */
+	protected abstract JsonRpcDecoder.DecodedFrame decode(JsonRpcDecoder decoder, ByteBuffer buffer, int offset,
+			int length) throws IOException;
+
+	@Override
+	public int readFrame() throws IOException {
+		while (true) {
+			int length;
+			if (binarySkipRemaining > 0) {
+				length = skipBinary();
+			}
+			else if (isBinaryFrameStart()) {
+				length = readBinaryFrame();
+			}
+			else {
+				length = readTextFrame();
+			}
+			if (length == CONSUMED) {
+				continue;
+			}
+			if (length != INCOMPLETE) {
+				return length;
+			}
+			if (eof) {
+				return lastFrame();
+			}
+			fill();
+		}
+	}
+
+	@Override
+	public void acceptBinaryFrames(JsonRpcDecoder binaryDecoder) {
+		this.binaryDecoder = binaryDecoder;
+	}
+
+	@Override
+	public int frameBytes() {
+		return frameBytes;
+	}
+
+	@Override
+	public JsonRpcDecoder.DecodedFrame decodeFrame(JsonRpcDecoder decoder) throws IOException {
+		return decode(frameBinary ? binaryDecoder : decoder, buffer, frameOffset, frameLength);
+	}
+
+	@Override
+	public void captureFrame(MessageCapture capture) {
+		capture.capture(Direction.IN, frameBinary, buffer, frameOffset, frameLength);
+	}
+
+	@Override
+	public String frameAsString() {
+		byte[] frame = new byte[frameLength];
+		buffer.get(frameOffset, frame);
+		if (frameBinary) {
+			try {
+				return binaryDecoder.objectMapper().readTree(frame).toString();
+			}
+			catch (IOException e) {
+				return "<" + frameLength + " bytes binary frame>";
+			}
+		}
+		return new String(frame, StandardCharsets.UTF_8);
+	}
+
+	private int readTextFrame() {
+		for (int i = scanned; i < end; i++) {
+			if (buffer.get(i) == '\n') {
+				int frameStart = start;
+				start = i + 1;
+				scanned = start;
+				if (discarding) {
+					discarding = false;
+					return FRAME_TOO_LARGE;
+				}
+				int length = trimCarriageReturn(frameStart, i);
+				if (length == 0) {
+					// a blank line, the next frame may be a binary one
+					return CONSUMED;
+				}
+				setFrame(frameStart, length, start - frameStart, false);
+				return length;
+			}
+		}
+		scanned = end;
+
+		if (discarding || end - start > maxFrameBytes) {
+			// drop what we have of the oversized frame and keep skipping to its end
+			discarding = true;
+			start = 0;
+			end = 0;
+			scanned = 0;
+		}
+		return INCOMPLETE;
+	}
+
+	private boolean isBinaryFrameStart() {
+		return binaryDecoder != null && !discarding && scanned == start && start < end
+				&& buffer.get(start) == BinaryFramingProtocol.MARKER;
+	}
+
+	private int readBinaryFrame() throws IOException {
+		if (end - start < BinaryFramingProtocol.HEADER_SIZE) {
+			return INCOMPLETE;
+		}
+		int length = buffer.getInt(start + 1);
+		if (length < 0) {
+			throw new IOException("Invalid binary frame length " + length);
+		}
+		start += BinaryFramingProtocol.HEADER_SIZE;
+		scanned = start;
+		if (length > maxFrameBytes) {
+			binarySkipRemaining = length;
+			return CONSUMED;
+		}
+		if (end - start < length) {
+			// the header is read again once the payload is complete
+			start -= BinaryFramingProtocol.HEADER_SIZE;
+			scanned = start;
+			return INCOMPLETE;
+		}
+		setFrame(start, length, BinaryFramingProtocol.HEADER_SIZE + length, true);
+		start += length;
+		scanned = start;
+		return length;
+	}
+
+	private int skipBinary() {
+		int skipped = (int) Math.min(binarySkipRemaining, end - start);
+		start += skipped;
+		scanned = start;
+		binarySkipRemaining -= skipped;
+		return binarySkipRemaining == 0 ? FRAME_TOO_LARGE : INCOMPLETE;
+	}
+
+	private void setFrame(int offset, int length, int bytes, boolean binary) {
+		frameOffset = offset;
+		frameLength = length;
+		frameBytes = bytes;
+		frameBinary = binary;
+	}
+
+	private int lastFrame() {
+		if (discarding) {
+			discarding = false;
+			return FRAME_TOO_LARGE;
+		}
+		if (binarySkipRemaining > 0 || isBinaryFrameStart()) {
+			// a binary frame cut short by the end of the stream
+			binarySkipRemaining = 0;
+			start = end;
+			scanned = end;
+			return END_OF_STREAM;
+		}
+		int length = trimCarriageReturn(start, end);
+		setFrame(start, length, end - start, false);
+		start = end;
+		scanned = end;
+		return length > 0 ? length : END_OF_STREAM;
+	}
+
+	/**
+	 * Room for the largest text frame and its newline, or the largest binary frame and
+	 * its header.
+	 */
+	private long maxBufferSize() {
+		return (long) maxFrameBytes + BinaryFramingProtocol.HEADER_SIZE;
+	}
+
+	private void fill() throws IOException {
+		if (start > 0) {
+			int pending = end - start;
+			buffer.limit(end).position(start);
+			buffer.compact();
+			end = pending;
+			scanned -= start;
+			start = 0;
+		}
+		if (end == buffer.capacity()) {
+			ByteBuffer grown = allocator.apply((int) Math.min((long) buffer.capacity() * 2, maxBufferSize()));
+			grown.put(0, buffer, 0, end);
+			buffer = grown;
+		}
+		buffer.limit(buffer.capacity()).position(end);
+		int read = read(buffer);
+		if (read < 0) {
+			eof = true;
+		}
+		else {
+			end += read;
+		}
+	}
+
+	private int trimCarriageReturn(int from, int to) {
+		int length = to - from;
+		if (length > 0 && buffer.get(to - 1) == '\r') {
+			length--;
+		}
+		return length;
+	}
+
+}
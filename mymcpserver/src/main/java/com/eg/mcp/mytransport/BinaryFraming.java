@@ -0,0 +1,77 @@
+package com.eg.mcp.mytransport;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.eg.mcp.framing.BinaryFramingProtocol;
+import com.eg.mcp.utils.McpTransportProperties.BinaryFormat;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import io.modelcontextprotocol.spec.McpSchema;
+
+/**
+ * Opt-in binary framing negotiated between our own client and server.
+ * <p>
+ * The client lists the formats it reads under the experimental capability
+ * {@value BinaryFramingProtocol#CAPABILITY} of its initialize request, e.g.
+ * {@code {"formats":["smile"]}}. A server configured for one of them answers with
+ * {@code {"format":"smile"}} under the same key in its initialize result. From then on
+ * both sides write binary frames, a {@link BinaryFramingProtocol#MARKER} byte, the
+ * payload length as a 4 byte big-endian int and the payload in the chosen format.
+ * Readers tell the frames apart by their first byte, which never starts a JSON text, so
+ * a text frame still in flight is read as well. Clients that do not ask keep getting
+ * newline-delimited JSON. The names and the frame layout are shared with the client
+ * through {@link BinaryFramingProtocol}.
+ */
+final class BinaryFraming {
+
+	private BinaryFraming() {
+	}
+
+	static ObjectMapper newMapper(BinaryFormat format) {
+		return switch (format) {
+			case SMILE -> new ObjectMapper(new SmileFactory());
+			case CBOR -> new ObjectMapper(new CBORFactory());
+		};
+	}
+
+	/**
+	 * @return the first of the supported formats the client asks for, null when there
+	 * is none or the request does not ask
+	 */
+	static BinaryFormat negotiate(McpSchema.JSONRPCRequest initializeRequest, List<BinaryFormat> supported) {
+		if (supported.isEmpty()
+				|| !(initializeRequest.params() instanceof McpSchema.InitializeRequest params)
+				|| params.capabilities() == null || params.capabilities().experimental() == null
+				|| !(params.capabilities().experimental().get(BinaryFramingProtocol.CAPABILITY) instanceof Map<?, ?> binaryFraming)
+				|| !(binaryFraming.get(BinaryFramingProtocol.FORMATS) instanceof List<?> formats)) {
+			return null;
+		}
+		for (BinaryFormat format : supported) {
+			if (formats.contains(format.id())) {
+				return format;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the initialize result telling the client which format was chosen
+	 */
+	static McpSchema.InitializeResult accept(McpSchema.InitializeResult result, BinaryFormat format) {
+		McpSchema.ServerCapabilities capabilities = result.capabilities();
+		Map<String, Object> experimental = new HashMap<>();
+		if (capabilities.experimental() != null) {
+			experimental.putAll(capabilities.experimental());
+		}
+		experimental.put(BinaryFramingProtocol.CAPABILITY, Map.of(BinaryFramingProtocol.FORMAT, format.id()));
+		return new McpSchema.InitializeResult(result.protocolVersion(),
+				new McpSchema.ServerCapabilities(capabilities.completions(), experimental, capabilities.logging(),
+						capabilities.prompts(), capabilities.resources(), capabilities.tools()),
+				result.serverInfo(), result.instructions());
+	}
+
+}
@@ -0,0 +1,1161 @@
+/*
+ * Copied from StdioServerTransportProvider
+ * with some changes
+ */
+
+package com.eg.mcp.mytransport;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.NullNode;
+import io.modelcontextprotocol.spec.McpError;
+import io.modelcontextprotocol.spec.McpSchema;
+import io.modelcontextprotocol.spec.McpSchema.JSONRPCMessage;
+import io.modelcontextprotocol.spec.McpServerSession;
+import io.modelcontextprotocol.spec.McpServerTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eg.mcp.capture.MessageCapture;
+import com.eg.mcp.mytransport.PriorityLanes.Lane;
+import com.eg.mcp.utils.McpTransportProperties;
+import com.eg.mcp.utils.McpTransportProperties.BinaryFormat;
+import com.eg.mcp.utils.McpTransportProperties.DispatchMode;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * McpServerTransport for one session exchanging newline-delimited JSON-RPC messages
+ * through a frame source and sink, stdin/stdout or a socket connection. Clients may
+ * switch the session to {@link BinaryFraming} while initializing.
+ * <p>
+ * A JSON-RPC batch is handled message by message like any other, the responses to its
+ * requests are held back until the last one is there and then written as a single batch
+ * frame. Frames that are no JSON-RPC message at all are answered with an error without
+ * ending the session.
+ * <p>
+ * A single thread reads and decodes inbound frames, a single thread serializes and
+ * writes outbound frames, and handling happens in between as configured by the
+ * {@link McpTransportProperties}.
+ * <p>
+ * Both directions sort messages into {@link PriorityLanes}. Control messages, pings,
+ * notifications, responses and errors, are handled right away and written first. Calls
+ * of the configured heavy tools and all other calls wait in their own lanes for one of
+ * the inbound slots and for the writer, drained by the configured lane weights, so a
+ * burst of large renders does not hold up a ping or a price lookup.
+ * <p>
+ * Frames are handed to the {@link MessageCapture} as they were read and written, when
+ * it selects one of their messages by method or tool name. Responses follow their
+ * request, responses to our own requests, errors without a request and frames that
+ * are no JSON-RPC message are always handed over.
+ */
+class FramedSessionTransport implements McpServerTransport {
+
+	private static final Logger logger = LoggerFactory.getLogger(FramedSessionTransport.class);
+
+	/** Implementation defined JSON-RPC server error, sent while the inbound queue is full */
+	private static final int SERVER_BUSY = -32000;
+
+	/** Implementation defined JSON-RPC server error, sent when a request runs past its deadline */
+	private static final int REQUEST_TIMED_OUT = -32001;
+
+	/**
+	 * Id of errors to a message whose id is unknown. JSON-RPC wants it written as null,
+	 * the SDK's response leaves a null id out altogether.
+	 */
+	private static final Object NULL_ID = NullNode.getInstance();
+
+	/** Not among the SDK's method constants */
+	private static final String METHOD_NOTIFICATION_CANCELLED = "notifications/cancelled";
+
+	/** Requests answered in no time that keep the session going, never queued behind calls */
+	private static final Set<String> CONTROL_METHODS = Set.of(McpSchema.METHOD_PING, McpSchema.METHOD_INITIALIZE,
+			McpSchema.METHOD_LOGGING_SET_LEVEL);
+
+	private final ObjectMapper objectMapper;
+
+	private final JsonRpcDecoder decoder;
+
+	/** Types asked for by the session, resolved once per type */
+	private final Map<Type, JavaType> unmarshalTypes = new ConcurrentHashMap<>();
+
+	private final McpTransportProperties transportProperties;
+
+	private final TransportStats stats;
+
+	private final MessageCapture capture;
+
+	private final JsonRpcFrameSource frameSource;
+
+	private McpServerSession session;
+
+	private final AtomicBoolean isClosing = new AtomicBoolean(false);
+
+	private final Sinks.One<Void> inboundReady = Sinks.one();
+
+	/** Completes once the outbound side is done and nothing more will be written */
+	private final Sinks.Empty<Void> terminated = Sinks.empty();
+
+	private final Runnable unbindQueueDepths;
+
+	/** One prepared handling per call waiting in the inbound lanes, the lanes pick which one runs */
+	private final Sinks.Many<Mono<Void>> inboundSink;
+
+	/** Handling of control messages, not limited to the inbound slots */
+	private final Sinks.Many<Mono<Void>> inboundControlSink;
+
+	/** Calls that waited for earlier ones are emitted from the thread that completed those */
+	private final ReentrantLock inboundEmitLock = new ReentrantLock();
+
+	private final PriorityLanes<Mono<Void>> inboundLanes;
+
+	/** One entry per message waiting in the outbound lanes, the lanes pick which one is written */
+	private final Sinks.Many<JSONRPCMessage> outboundSink;
+
+	/**
+	 * Responses are emitted concurrently from the handler threads, the sink takes one at
+	 * a time. Waiting on a lock parks a virtual thread, where retrying the emission spins
+	 * on a carrier the emitting thread may need.
+	 */
+	private final ReentrantLock outboundEmitLock = new ReentrantLock();
+
+	private final PriorityLanes<JSONRPCMessage> outboundLanes;
+
+	private final AtomicBoolean isStarted = new AtomicBoolean(false);
+
+	/** Scheduler for handling inbound messages */
+	private Scheduler inboundScheduler;
+
+	/** Scheduler for handling outbound messages */
+	private Scheduler outboundScheduler;
+
+	/** Virtual thread per message scheduler, null unless dispatching on virtual threads */
+	private Scheduler dispatchScheduler;
+
+	/**
+	 * Completes once the last ordered message is handled. Only touched by the inbound
+	 * thread, which prepares the handling of every message in arrival order.
+	 */
+	private Mono<Void> orderedTail = Mono.empty();
+
+	private final Sinks.One<Void> outboundReady = Sinks.one();
+
+	/** Messages read from stdin whose handling has not completed yet */
+	private final AtomicInteger inboundPending = new AtomicInteger();
+
+	/** Requests read from stdin and not answered yet, keyed by request id */
+	private final Map<Object, InFlightRequest> inFlightRequests = new ConcurrentHashMap<>();
+
+	/** Batches waiting for the responses to their requests, keyed by request id */
+	private final Map<Object, ResponseBatch> batchedRequests = new ConcurrentHashMap<>();
+
+	/** Messages accepted by sendMessage but not yet serialized */
+	private final AtomicInteger outboundPending = new AtomicInteger();
+
+	/** Only used from the outbound scheduler */
+	private final JsonRpcFrameSink frameWriter;
+
+	/** Id of the initialize request that asked for binary framing, set by the inbound thread */
+	private volatile Object binaryInitializeId;
+
+	/** Format agreed on for binary framing */
+	private volatile BinaryFormat binaryFormat;
+
+	private volatile ObjectMapper binaryMapper;
+
+	/** Messages buffered since the last flush, only used from the outbound scheduler */
+	private int batchSize;
+
+	private long batchStartNanos;
+
+	/**
+	 * @param name prefix of the transport's thread names
+	 * @param objectMapper the ObjectMapper to use for JSON serialization/deserialization
+	 * @param frameSource where inbound frames are read from
+	 * @param frameSink where outbound frames are written to
+	 * @param transportProperties the transport settings
+	 * @param stats the stats this transport adds to, may be shared between transports
+	 * @param capture where the frames selected for capture go, may be shared between
+	 * transports, each capturing as a session of its own
+	 */
+	FramedSessionTransport(String name, ObjectMapper objectMapper, JsonRpcFrameSource frameSource,
+			JsonRpcFrameSink frameSink, McpTransportProperties transportProperties, TransportStats stats,
+			MessageCapture capture) {
+		this.objectMapper = objectMapper;
+		this.decoder = new JsonRpcDecoder(objectMapper);
+		this.frameSource = frameSource;
+		this.frameWriter = frameSink;
+		this.transportProperties = transportProperties;
+		this.stats = stats;
+		this.capture = capture.session();
+
+		this.inboundSink = Sinks.many().unicast().onBackpressureBuffer();
+		this.inboundControlSink = Sinks.many().unicast().onBackpressureBuffer();
+		this.outboundSink = Sinks.many().unicast().onBackpressureBuffer();
+		this.inboundLanes = new PriorityLanes<>(transportProperties.controlLaneWeight(),
+				transportProperties.cheapLaneWeight(), transportProperties.heavyLaneWeight());
+		this.outboundLanes = new PriorityLanes<>(transportProperties.controlLaneWeight(),
+				transportProperties.cheapLaneWeight(), transportProperties.heavyLaneWeight());
+
+		// Use bounded schedulers for better resource management
+		this.inboundScheduler = Schedulers.fromExecutorService(Executors.newSingleThreadExecutor(),
+				name + "-inbound");
+		this.outboundScheduler = Schedulers.fromExecutorService(Executors.newSingleThreadExecutor(),
+				name + "-outbound");
+		if (transportProperties.dispatchMode() == DispatchMode.VIRTUAL_THREADS) {
+			this.dispatchScheduler = Schedulers.fromExecutorService(Executors.newVirtualThreadPerTaskExecutor(),
+					name + "-dispatch");
+		}
+
+		this.unbindQueueDepths = stats.addQueueDepths(inboundPending::get, outboundPending::get);
+	}
+
+	@Override
+	public Mono<Void> sendMessage(McpSchema.JSONRPCMessage message) {
+
+		return Mono.zip(inboundReady.asMono(), outboundReady.asMono()).then(Mono.defer(() -> {
+			// counted before emitting so the writer never sees an empty queue too early.
+			// Responses are always queued: they are the only answer to a request already
+			// accepted, and the inbound high-water mark bounds how many can be waiting
+			if (outboundPending.incrementAndGet() > transportProperties.outboundHighWaterMark()
+					&& !(message instanceof McpSchema.JSONRPCResponse)) {
+				outboundPending.decrementAndGet();
+				stats.recordOutboundRejected();
+				return Mono.error(new McpError("Outbound queue is full, "
+						+ transportProperties.outboundHighWaterMark() + " messages are waiting to be written"));
+			}
+			if (!isFirstAnswer(message)) {
+				outboundPending.decrementAndGet();
+				return Mono.empty();
+			}
+			// offered first, the writer polls the lanes once it sees the entry
+			outboundLanes.offer(outboundLane(message), message);
+			Sinks.EmitResult result;
+			outboundEmitLock.lock();
+			try {
+				result = outboundSink.tryEmitNext(message);
+			}
+			finally {
+				outboundEmitLock.unlock();
+			}
+			if (result.isFailure()) {
+				outboundPending.decrementAndGet();
+				dropFromBatch(message);
+				return Mono.error(new RuntimeException("Failed to enqueue message: " + result));
+			}
+			return Mono.empty();
+		}));
+	}
+
+	/**
+	 * Params the decoder already bound to the asked for type are handed back as is,
+	 * anything else is converted.
+	 */
+	@Override
+	public <T> T unmarshalFrom(Object data, TypeReference<T> typeRef) {
+		JavaType type = unmarshalTypes.computeIfAbsent(typeRef.getType(), objectMapper::constructType);
+		if (data != null && !type.hasGenericTypes() && type.getRawClass().isInstance(data)) {
+			@SuppressWarnings("unchecked")
+			T typed = (T) data;
+			return typed;
+		}
+		return objectMapper.convertValue(data, type);
+	}
+
+	@Override
+	public Mono<Void> closeGracefully() {
+		return Mono.fromRunnable(() -> {
+			isClosing.set(true);
+			logger.debug("Session transport closing gracefully");
+			completeInbound();
+		});
+	}
+
+	@Override
+	public void close() {
+		isClosing.set(true);
+		logger.debug("Session transport closed");
+	}
+
+	/**
+	 * Starts reading and writing on behalf of the session.
+	 * @param session the session created for this transport
+	 */
+	void start(McpServerSession session) {
+		this.session = session;
+		handleIncomingMessages();
+		startInboundProcessing();
+		startOutboundProcessing();
+	}
+
+	/**
+	 * Control messages are handled as soon as they arrive. Calls take one of the inbound
+	 * slots, whenever one is free the lanes decide which waiting call gets it.
+	 */
+	private void handleIncomingMessages() {
+		Flux.merge(this.inboundControlSink.asFlux().flatMap(Function.identity(), Integer.MAX_VALUE),
+				this.inboundSink.asFlux()
+					.flatMap(entry -> inboundLanes.poll(), Math.max(1, transportProperties.inboundMaxConcurrency())))
+			.doOnTerminate(() -> {
+			// The outbound processing will dispose its scheduler upon completion
+			outboundEmitLock.lock();
+			try {
+				this.outboundSink.tryEmitComplete();
+			}
+			finally {
+				outboundEmitLock.unlock();
+			}
+			this.inboundScheduler.dispose();
+			if (this.dispatchScheduler != null) {
+				this.dispatchScheduler.dispose();
+			}
+		}).subscribe();
+	}
+
+	private void completeInbound() {
+		inboundEmitLock.lock();
+		try {
+			inboundSink.tryEmitComplete();
+		}
+		finally {
+			inboundEmitLock.unlock();
+		}
+		inboundControlSink.tryEmitComplete();
+	}
+
+	/**
+	 * Hands the message on and keeps a request stoppable. Its handling is cancelled
+	 * once the client cancels the request, and once the configured deadline of its
+	 * tool or method passes, in which case a timeout error is sent instead.
+	 */
+	private Mono<Void> dispatch(JSONRPCMessage message) {
+		Mono<Void> handling = schedule(message);
+		InFlightRequest inFlight = message instanceof McpSchema.JSONRPCRequest request && request.id() != null
+				? inFlightRequests.get(request.id()) : null;
+		if (inFlight == null) {
+			return handling;
+		}
+		McpSchema.JSONRPCRequest request = (McpSchema.JSONRPCRequest) message;
+		handling = handling.takeUntilOther(inFlight.cancelled());
+		Duration deadline = deadline(inFlight);
+		if (deadline != null) {
+			handling = handling.timeout(deadline)
+				.onErrorResume(TimeoutException.class, e -> rejectTimedOut(request, deadline));
+		}
+		return handling.doFinally(signal -> {
+			// a cancelled request never gets its response written, which would remove it
+			if (inFlight.isCancelled()) {
+				inFlightRequests.remove(request.id());
+			}
+		});
+	}
+
+	/**
+	 * Hands the message to the session. When dispatching on virtual threads each
+	 * message gets its own thread, so a slow render never holds up a cheap lookup.
+	 */
+	private Mono<Void> schedule(JSONRPCMessage message) {
+		Mono<Void> handling = session.handle(message);
+		return dispatchScheduler == null ? handling : handling.subscribeOn(dispatchScheduler);
+	}
+
+	/**
+	 * When dispatching on virtual threads, calls to the configured ordered tools wait
+	 * for the previous ordered call to complete, which keeps State changes in arrival
+	 * order. State reading tools wait for those earlier changes too, but not for each
+	 * other. They wait before they are offered to the lanes: a call holding one of the
+	 * inbound slots while it waits could keep the call it waits for from getting one.
+	 * @return what the call waits for, null when it waits for nothing, together with
+	 * the handling that completes the ordered tail in turn
+	 */
+	private Ordered order(JSONRPCMessage message, Mono<Void> handling) {
+		String toolName = dispatchScheduler != null ? toolName(message) : null;
+		if (toolName == null) {
+			return new Ordered(null, handling);
+		}
+		if (transportProperties.orderedTools().contains(toolName)) {
+			Sinks.Empty<Void> done = Sinks.empty();
+			Mono<Void> previous = orderedTail;
+			orderedTail = done.asMono();
+			return new Ordered(previous, handling.doFinally(signal -> done.tryEmitEmpty()));
+		}
+		if (transportProperties.stateReadTools().contains(toolName)) {
+			return new Ordered(orderedTail, handling);
+		}
+		return new Ordered(null, handling);
+	}
+
+	private record Ordered(Mono<Void> after, Mono<Void> handling) {
+	}
+
+	/**
+	 * A deadline configured for the tool wins over one configured for the method.
+	 * @return the deadline of the request, null when it has none
+	 */
+	private Duration deadline(InFlightRequest request) {
+		Map<String, Duration> deadlines = transportProperties.deadlines();
+		Duration deadline = request.toolName() != null ? deadlines.get(request.toolName()) : null;
+		if (deadline == null) {
+			deadline = deadlines.get(request.method());
+		}
+		return deadline != null && deadline.isPositive() ? deadline : null;
+	}
+
+	private Mono<Void> rejectTimedOut(McpSchema.JSONRPCRequest request, Duration deadline) {
+		stats.recordDeadlineExceeded();
+		logger.warn("Request {} ({}) exceeded its deadline of {} ms", request.id(), request.method(),
+				deadline.toMillis());
+		var errorResponse = new McpSchema.JSONRPCResponse(McpSchema.JSONRPC_VERSION, request.id(), null,
+				new McpSchema.JSONRPCResponse.JSONRPCError(REQUEST_TIMED_OUT,
+						"Request timed out after " + deadline.toMillis() + " ms", null));
+		return sendMessage(errorResponse);
+	}
+
+	/**
+	 * Handled right on the inbound thread, a cancellation must not queue up behind
+	 * the work it is meant to stop. As the spec asks, no response is sent for the
+	 * cancelled request.
+	 */
+	private void cancel(McpSchema.JSONRPCNotification notification) {
+		Object requestId = notification.params() instanceof Map<?, ?> params ? params.get("requestId") : null;
+		InFlightRequest request = requestId == null ? null : inFlightRequests.get(requestId);
+		if (request == null) {
+			logger.debug("Ignoring cancellation of unknown or already answered request {}", requestId);
+			return;
+		}
+		if (request.cancel()) {
+			stats.recordCancelled();
+			logger.debug("Request {} ({}) cancelled by the client", requestId, request.method());
+			ResponseBatch batch = batchedRequests.remove(requestId);
+			if (batch != null && batch.drop()) {
+				writeResponseBatchLater(batch);
+			}
+		}
+	}
+
+	/**
+	 * Only the first response to a request goes out. Whatever a cancelled or timed
+	 * out handler still produces afterwards is dropped here.
+	 */
+	private boolean isFirstAnswer(JSONRPCMessage message) {
+		if (message instanceof McpSchema.JSONRPCResponse response && response.id() != null) {
+			InFlightRequest request = inFlightRequests.get(response.id());
+			if (request != null && !request.answer()) {
+				logger.debug("Dropping late response to request {}", response.id());
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String toolName(JSONRPCMessage message) {
+		if (message instanceof McpSchema.JSONRPCRequest request
+				&& McpSchema.METHOD_TOOLS_CALL.equals(request.method())
+				&& request.params() instanceof McpSchema.CallToolRequest callToolRequest) {
+			return callToolRequest.name();
+		}
+		return null;
+	}
+
+	/**
+	 * Starts the inbound processing thread that reads JSON-RPC messages from stdin.
+	 * Frames are cut on the raw bytes and deserialized without an intermediate
+	 * String, then passed to the session for handling.
+	 */
+	private void startInboundProcessing() {
+		if (isStarted.compareAndSet(false, true)) {
+			this.inboundScheduler.schedule(() -> {
+				inboundReady.tryEmitValue(null);
+				JsonRpcFrameSource reader = frameSource;
+				try {
+					while (!isClosing.get()) {
+						try {
+							int length = reader.readFrame();
+							if (length == JsonRpcFrameSource.END_OF_STREAM || isClosing.get()) {
+								break;
+							}
+							if (length == JsonRpcFrameSource.FRAME_TOO_LARGE) {
+								rejectOversizedFrame();
+								continue;
+							}
+
+							stats.recordRead(reader.frameBytes());
+							if (logger.isDebugEnabled()) {
+								logger.debug("Received JSON message: {}", reader.frameAsString());
+							}
+
+							JsonRpcDecoder.DecodedFrame frame;
+							try {
+								frame = reader.decodeFrame(decoder);
+							}
+							catch (IOException | IllegalArgumentException e) {
+								reader.captureFrame(capture);
+								rejectUndecodableFrame(e);
+								continue;
+							}
+
+							boolean captured = selectsForCapture(frame);
+							if (captured) {
+								reader.captureFrame(capture);
+							}
+							try {
+								boolean accepted = frame.batch() ? acceptBatch(frame, reader, captured)
+										: accept(frame.messages().getFirst(), reader, captured);
+								if (!accepted) {
+									// logIfNotClosing("Failed to enqueue message");
+									break;
+								}
+							}
+							catch (Exception e) {
+								logIfNotClosing("Error processing inbound message", e);
+								break;
+							}
+						}
+						catch (IOException e) {
+							logIfNotClosing("Error reading from stdin", e);
+							break;
+						}
+					}
+				}
+				catch (Exception e) {
+					logIfNotClosing("Error in inbound processing", e);
+				}
+				finally {
+					isClosing.set(true);
+					if (session != null) {
+						session.close();
+					}
+					completeInbound();
+				}
+			});
+		}
+	}
+
+	/**
+	 * A frame is captured when one of its messages is selected, all its entries being
+	 * invalid counts as well.
+	 */
+	private boolean selectsForCapture(JsonRpcDecoder.DecodedFrame frame) {
+		for (JSONRPCMessage message : frame.messages()) {
+			if (selectsForCapture(message)) {
+				return true;
+			}
+		}
+		return frame.messages().isEmpty();
+	}
+
+	/**
+	 * Requests and notifications are up to the capture, responses to our own requests
+	 * are always captured.
+	 */
+	private boolean selectsForCapture(JSONRPCMessage message) {
+		if (message instanceof McpSchema.JSONRPCRequest request) {
+			return capture.selects(request.method(), toolName(request));
+		}
+		if (message instanceof McpSchema.JSONRPCNotification notification) {
+			return capture.selects(notification.method(), null);
+		}
+		return true;
+	}
+
+	/**
+	 * A response is captured when its request was, errors without a request always are.
+	 * Only called from the outbound scheduler, before the request is removed.
+	 */
+	private boolean selectsOutboundForCapture(JSONRPCMessage message) {
+		if (message instanceof McpSchema.JSONRPCResponse response) {
+			InFlightRequest request = response.id() != null ? inFlightRequests.get(response.id()) : null;
+			return request == null || request.captured();
+		}
+		return selectsForCapture(message);
+	}
+
+	/**
+	 * @param captured whether the frame of the message was captured, its response will
+	 * be too
+	 * @return false when the message could not be queued for handling
+	 */
+	private boolean accept(JSONRPCMessage message, JsonRpcFrameSource reader, boolean captured) {
+		if (message instanceof McpSchema.JSONRPCRequest request
+				&& McpSchema.METHOD_INITIALIZE.equals(request.method())) {
+			negotiateBinaryFraming(request, reader);
+		}
+		if (message instanceof McpSchema.JSONRPCNotification notification
+				&& METHOD_NOTIFICATION_CANCELLED.equals(notification.method())) {
+			cancel(notification);
+			return true;
+		}
+		Lane lane = inboundLane(message);
+		if (!admitInbound(message, lane, captured)) {
+			return true;
+		}
+		// prepared here, in arrival order, wherever the lanes put it
+		Mono<Void> handling = dispatch(message)
+			// a response that could not be queued must not end the whole session
+			.onErrorResume(e -> {
+				logIfNotClosing("Error handling inbound message", e);
+				return Mono.empty();
+			})
+			.doFinally(signal -> inboundPending.decrementAndGet());
+		if (lane == Lane.CONTROL) {
+			if (!inboundControlSink.tryEmitNext(handling).isSuccess()) {
+				inboundPending.decrementAndGet();
+				return false;
+			}
+			return true;
+		}
+		Ordered ordered = order(message, handling);
+		if (ordered.after() == null) {
+			return offerInbound(lane, ordered.handling());
+		}
+		// offered by the thread completing the earlier call, or right away when it is done
+		ordered.after().subscribe(null, null, () -> {
+			if (!offerInbound(lane, ordered.handling()) && !isClosing.get()) {
+				logger.warn("Dropped a call that waited for earlier ones, inbound processing has stopped");
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Called from the inbound thread, and for a call that waited for earlier ones from
+	 * the thread that completed them.
+	 * @return false when the call could not be queued for handling
+	 */
+	private boolean offerInbound(Lane lane, Mono<Void> handling) {
+		inboundLanes.offer(lane, handling);
+		Sinks.EmitResult result;
+		inboundEmitLock.lock();
+		try {
+			result = inboundSink.tryEmitNext(handling);
+		}
+		finally {
+			inboundEmitLock.unlock();
+		}
+		if (!result.isSuccess()) {
+			inboundPending.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	private Lane inboundLane(JSONRPCMessage message) {
+		return message instanceof McpSchema.JSONRPCRequest request ? requestLane(request.method(), toolName(request))
+				: Lane.CONTROL;
+	}
+
+	private Lane requestLane(String method, String toolName) {
+		if (CONTROL_METHODS.contains(method)) {
+			return Lane.CONTROL;
+		}
+		return toolName != null && transportProperties.heavyTools().contains(toolName) ? Lane.HEAVY : Lane.CHEAP;
+	}
+
+	/**
+	 * Results go out in the lane of their request, errors and anything else as control
+	 * messages.
+	 */
+	private Lane outboundLane(JSONRPCMessage message) {
+		if (message instanceof McpSchema.JSONRPCResponse response && response.error() == null
+				&& response.id() != null) {
+			InFlightRequest request = inFlightRequests.get(response.id());
+			if (request != null) {
+				return request.lane();
+			}
+		}
+		return Lane.CONTROL;
+	}
+
+	/**
+	 * Registers the requests of the batch before handing on any of its messages, so a
+	 * fast response can not go out on its own. Entries that were no JSON-RPC message
+	 * are answered with an invalid request error inside the batch response. A batch
+	 * of notifications only gets no response at all, as the spec asks.
+	 * @return false when a message could not be queued for handling
+	 */
+	private boolean acceptBatch(JsonRpcDecoder.DecodedFrame frame, JsonRpcFrameSource reader, boolean captured) {
+		if (frame.messages().isEmpty() && frame.invalid() == 0) {
+			sendMessage(invalidRequest("Empty batch"))
+				.subscribe(null, e -> logger.error("Failed to reject empty batch: {}", e.getMessage()));
+			return true;
+		}
+		ResponseBatch batch = new ResponseBatch(frame.invalid(), captured);
+		int expected = 0;
+		for (JSONRPCMessage message : frame.messages()) {
+			// initialize answers on its own, binary framing may start right after it
+			if (message instanceof McpSchema.JSONRPCRequest request && request.id() != null
+					&& !McpSchema.METHOD_INITIALIZE.equals(request.method())
+					&& !inFlightRequests.containsKey(request.id())
+					&& batchedRequests.putIfAbsent(request.id(), batch) == null) {
+				batch.expect();
+				expected++;
+			}
+		}
+		logger.debug("Received batch of {} messages and {} invalid entries", frame.messages().size(),
+				frame.invalid());
+		for (JSONRPCMessage message : frame.messages()) {
+			if (!accept(message, reader, captured)) {
+				return false;
+			}
+		}
+		if (expected == 0) {
+			// otherwise the last response completes the batch on the outbound thread
+			writeResponseBatchLater(batch);
+		}
+		return true;
+	}
+
+	/**
+	 * Binary frames are read as soon as the client asks for them, the client only
+	 * writes them after it got the initialize result though.
+	 */
+	private void negotiateBinaryFraming(McpSchema.JSONRPCRequest request, JsonRpcFrameSource reader) {
+		BinaryFormat format = BinaryFraming.negotiate(request, transportProperties.binaryFormats());
+		if (format != null) {
+			binaryMapper = BinaryFraming.newMapper(format);
+			binaryFormat = format;
+			binaryInitializeId = request.id();
+			reader.acceptBinaryFrames(new JsonRpcDecoder(binaryMapper));
+		}
+	}
+
+	/**
+	 * @return the initialize result telling the client about the binary format when the
+	 * message answers the initialize request that asked for one, null otherwise
+	 */
+	private McpSchema.JSONRPCResponse acceptBinaryFraming(JSONRPCMessage message) {
+		Object initializeId = binaryInitializeId;
+		if (initializeId != null && message instanceof McpSchema.JSONRPCResponse response
+				&& initializeId.equals(response.id())
+				&& response.result() instanceof McpSchema.InitializeResult result) {
+			binaryInitializeId = null;
+			return new McpSchema.JSONRPCResponse(response.jsonrpc(), response.id(),
+					BinaryFraming.accept(result, binaryFormat), null);
+		}
+		return null;
+	}
+
+	/**
+	 * Applies the inbound high-water mark. Control messages, e.g. responses to our own
+	 * requests and pings, are always let through. Other requests are answered with a
+	 * server busy error and notifications are dropped while too many messages are
+	 * still being handled.
+	 * @param captured whether the message was captured, its response will be too
+	 * @return true when the message may be queued for handling
+	 */
+	private boolean admitInbound(JSONRPCMessage message, Lane lane, boolean captured) {
+		if (lane == Lane.CONTROL || inboundPending.get() < transportProperties.inboundHighWaterMark()) {
+			inboundPending.incrementAndGet();
+			if (message instanceof McpSchema.JSONRPCRequest request && request.id() != null) {
+				inFlightRequests.put(request.id(),
+						new InFlightRequest(request.method(), toolName(request), lane, captured, System.nanoTime()));
+			}
+			return true;
+		}
+		stats.recordInboundRejected();
+		if (message instanceof McpSchema.JSONRPCRequest request) {
+			logger.warn("Inbound queue is full, rejecting request {} ({})", request.id(), request.method());
+			var errorResponse = new McpSchema.JSONRPCResponse(McpSchema.JSONRPC_VERSION, request.id(), null,
+					new McpSchema.JSONRPCResponse.JSONRPCError(SERVER_BUSY,
+							"Server busy, too many requests in progress. Retry later", null));
+			sendMessage(errorResponse)
+				.subscribe(null, e -> logger.error("Failed to reject request {}: {}", request.id(), e.getMessage()));
+		}
+		else if (message instanceof McpSchema.JSONRPCNotification notification) {
+			logger.warn("Inbound queue is full, dropping notification {}", notification.method());
+		}
+		return false;
+	}
+
+	/**
+	 * The id of an oversized frame is never parsed, so the error goes out with a null
+	 * id. The session stays open and reading resumes with the next frame.
+	 */
+	private void rejectOversizedFrame() {
+		logger.warn("Discarded inbound frame larger than {} bytes", transportProperties.maxFrameBytes());
+		var errorResponse = new McpSchema.JSONRPCResponse(McpSchema.JSONRPC_VERSION, NULL_ID, null,
+				new McpSchema.JSONRPCResponse.JSONRPCError(McpSchema.ErrorCodes.INVALID_REQUEST,
+						"Message exceeds the maximum frame size of " + transportProperties.maxFrameBytes()
+								+ " bytes",
+						null));
+		sendMessage(errorResponse)
+			.subscribe(null, e -> logger.error("Failed to reject oversized frame: {}", e.getMessage()));
+	}
+
+	/**
+	 * A frame that is no JSON is answered with a parse error, one that is no JSON-RPC
+	 * message with an invalid request error, both with a null id. The session stays
+	 * open and reading resumes with the next frame.
+	 */
+	private void rejectUndecodableFrame(Exception e) {
+		logger.warn("Discarded undecodable inbound frame: {}", e.getMessage());
+		var errorResponse = e instanceof JsonParseException
+				? new McpSchema.JSONRPCResponse(McpSchema.JSONRPC_VERSION, NULL_ID, null,
+						new McpSchema.JSONRPCResponse.JSONRPCError(McpSchema.ErrorCodes.PARSE_ERROR, "Parse error",
+								null))
+				: invalidRequest("Not a JSON-RPC message");
+		sendMessage(errorResponse)
+			.subscribe(null, ex -> logger.error("Failed to reject undecodable frame: {}", ex.getMessage()));
+	}
+
+	private static McpSchema.JSONRPCResponse invalidRequest(String message) {
+		return new McpSchema.JSONRPCResponse(McpSchema.JSONRPC_VERSION, NULL_ID, null,
+				new McpSchema.JSONRPCResponse.JSONRPCError(McpSchema.ErrorCodes.INVALID_REQUEST, message, null));
+	}
+
+	/**
+	 * Starts the outbound processing thread that writes JSON-RPC messages to stdout.
+	 * Messages are serialized to JSON straight into a reusable buffer and written
+	 * with a newline delimiter. With outbound batching on, the buffer is only written
+	 * and flushed once the queue is drained, the batch is full or its oldest message
+	 * has waited for the configured max latency. Which of the waiting messages is
+	 * written next is up to the outbound lanes.
+	 */
+	private void startOutboundProcessing() {
+		Function<Flux<JSONRPCMessage>, Flux<JSONRPCMessage>> outboundConsumer = messages -> messages // @formatter:off
+			 .doOnSubscribe(subscription -> outboundReady.tryEmitValue(null))
+			 .publishOn(outboundScheduler)
+			 .handle((entry, sink) -> {
+				 JSONRPCMessage message = entry != null ? outboundLanes.poll() : null;
+				 if (message != null && !isClosing.get()) {
+					 try {
+						 ResponseBatch responseBatch = message instanceof McpSchema.JSONRPCResponse response
+								 && response.id() != null ? batchedRequests.remove(response.id()) : null;
+						 if (responseBatch != null) {
+							 McpSchema.JSONRPCResponse response = (McpSchema.JSONRPCResponse) message;
+							 recordLatency(response);
+							 if (responseBatch.add(response)) {
+								 writeResponseBatch(responseBatch);
+							 }
+						 }
+						 else {
+							 writeMessage(message);
+						 }
+						 int pending = outboundPending.decrementAndGet();
+						 if (batchSize > 0 && isBatchComplete(pending)) {
+							 flushBatch();
+						 }
+						 sink.next(message);
+					 }
+					 catch (IOException e) {
+						 batchSize = 0;
+						 if (!isClosing.get()) {
+							 logger.error("Error writing message", e);
+							 sink.error(new RuntimeException(e));
+						 }
+						 else {
+							 logger.debug("Stream closed during shutdown", e);
+						 }
+					 }
+				 }
+				 else if (isClosing.get()) {
+					 sink.complete();
+				 }
+			 })
+			 .doOnComplete(() -> {
+				 isClosing.set(true);
+				 flushRemaining();
+				 outboundScheduler.dispose();
+			 })
+			 .doOnError(e -> {
+				 if (!isClosing.get()) {
+					 logger.error("Error in outbound processing", e);
+					 isClosing.set(true);
+					 outboundScheduler.dispose();
+				 }
+			 })
+			 .doFinally(signal -> {
+				 unbindQueueDepths.run();
+				 terminated.tryEmitEmpty();
+			 })
+			 .map(msg -> (JSONRPCMessage) msg);
+
+			 outboundConsumer.apply(outboundSink.asFlux()).subscribe();
+	 } // @formatter:on
+
+	private void writeMessage(JSONRPCMessage message) throws IOException {
+		McpSchema.JSONRPCResponse binaryAccepted = acceptBinaryFraming(message);
+		// The generator escapes embedded newlines as per spec
+		frameWriter.write(binaryAccepted != null ? binaryAccepted : message);
+		if (selectsOutboundForCapture(message)) {
+			frameWriter.captureLastFrame(capture);
+		}
+		if (message instanceof McpSchema.JSONRPCResponse response) {
+			recordLatency(response);
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Sending JSON message: {}", frameWriter.lastFrameAsString());
+		}
+		if (binaryAccepted != null) {
+			// the initialize result itself still goes out as text
+			frameWriter.switchToBinary(binaryMapper);
+			logger.info("Switched to {} binary framing", binaryFormat);
+		}
+		countBatched();
+	}
+
+	/**
+	 * Only called from the outbound scheduler, once the batch got its last response.
+	 */
+	private void writeResponseBatch(ResponseBatch batch) throws IOException {
+		List<McpSchema.JSONRPCResponse> responses = batch.responses();
+		if (responses.isEmpty()) {
+			// every request of the batch was cancelled
+			return;
+		}
+		frameWriter.writeBatch(responses);
+		if (batch.captured()) {
+			frameWriter.captureLastFrame(capture);
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Sending JSON batch: {}", frameWriter.lastFrameAsString());
+		}
+		countBatched();
+	}
+
+	/**
+	 * For batches completed without a response passing the outbound flux, because
+	 * their last request was cancelled or they held invalid entries only.
+	 */
+	private void writeResponseBatchLater(ResponseBatch batch) {
+		try {
+			outboundScheduler.schedule(() -> {
+				if (isClosing.get()) {
+					return;
+				}
+				try {
+					writeResponseBatch(batch);
+					if (batchSize > 0 && isBatchComplete(outboundPending.get())) {
+						flushBatch();
+					}
+				}
+				catch (IOException e) {
+					batchSize = 0;
+					logIfNotClosing("Error writing batch response", e);
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			logger.debug("Outbound processing already stopped, batch response not written", e);
+		}
+	}
+
+	/**
+	 * A response that will never be written must not keep its batch waiting.
+	 */
+	private void dropFromBatch(JSONRPCMessage message) {
+		if (message instanceof McpSchema.JSONRPCResponse response && response.id() != null) {
+			ResponseBatch batch = batchedRequests.remove(response.id());
+			if (batch != null && batch.drop()) {
+				writeResponseBatchLater(batch);
+			}
+		}
+	}
+
+	private void countBatched() {
+		if (batchSize++ == 0) {
+			batchStartNanos = System.nanoTime();
+		}
+	}
+
+	private boolean isBatchComplete(int pending) {
+		return !transportProperties.outboundBatching() || pending <= 0
+				|| batchSize >= transportProperties.outboundMaxBatchSize()
+				|| System.nanoTime() - batchStartNanos >= transportProperties.outboundMaxBatchLatency().toNanos();
+	}
+
+	private void flushBatch() throws IOException {
+		int flushed = batchSize;
+		int bytes = frameWriter.size();
+		batchSize = 0;
+		frameWriter.flush();
+		stats.recordFlush(flushed, bytes);
+		if (flushed > 1) {
+			logger.debug("Flushed batch of {} messages", flushed);
+		}
+	}
+
+	private void flushRemaining() {
+		if (batchSize > 0) {
+			try {
+				flushBatch();
+			}
+			catch (IOException e) {
+				logger.debug("Stream closed during shutdown", e);
+			}
+		}
+	}
+
+	private void recordLatency(McpSchema.JSONRPCResponse response) {
+		InFlightRequest request = response.id() == null ? null : inFlightRequests.remove(response.id());
+		if (request != null) {
+			stats.recordLatency(request.method(), request.toolName(), System.nanoTime() - request.startNanos());
+		}
+	}
+
+	/**
+	 * @return completes once the transport has stopped writing, the streams or channels
+	 * underneath may be closed then
+	 */
+	Mono<Void> terminated() {
+		return terminated.asMono();
+	}
+
+	private void logIfNotClosing(String message, Throwable e) {
+		if (!isClosing.get()) {
+			logger.error(message, e);
+		}
+	}
+
+
+
+	/**
+	 * The responses of one inbound JSON-RPC batch, collected until every request in it
+	 * is answered or cancelled.
+	 */
+	private static final class ResponseBatch {
+
+		private final List<McpSchema.JSONRPCResponse> responses = new ArrayList<>();
+
+		private final boolean captured;
+
+		private int expected;
+
+		ResponseBatch(int invalid, boolean captured) {
+			this.captured = captured;
+			for (int i = 0; i < invalid; i++) {
+				responses.add(invalidRequest("Not a JSON-RPC message"));
+			}
+		}
+
+		boolean captured() {
+			return captured;
+		}
+
+		synchronized void expect() {
+			expected++;
+		}
+
+		/**
+		 * @return true when this was the last response the batch waited for
+		 */
+		synchronized boolean add(McpSchema.JSONRPCResponse response) {
+			responses.add(response);
+			return --expected == 0;
+		}
+
+		/**
+		 * @return true when the dropped response was the last one the batch waited for
+		 */
+		synchronized boolean drop() {
+			return --expected == 0;
+		}
+
+		synchronized List<McpSchema.JSONRPCResponse> responses() {
+			return List.copyOf(responses);
+		}
+
+	}
+
+	/**
+	 * A request waiting for its response, kept to measure the latency and to stop its
+	 * handling when it is cancelled.
+	 */
+	private static final class InFlightRequest {
+
+		private final String method;
+
+		private final String toolName;
+
+		private final Lane lane;
+
+		private final boolean captured;
+
+		private final long startNanos;
+
+		private final AtomicBoolean answered = new AtomicBoolean();
+
+		private final Sinks.Empty<Void> cancellation = Sinks.empty();
+
+		private volatile boolean cancelled;
+
+		InFlightRequest(String method, String toolName, Lane lane, boolean captured, long startNanos) {
+			this.method = method;
+			this.toolName = toolName;
+			this.lane = lane;
+			this.captured = captured;
+			this.startNanos = startNanos;
+		}
+
+		String method() {
+			return method;
+		}
+
+		String toolName() {
+			return toolName;
+		}
+
+		Lane lane() {
+			return lane;
+		}
+
+		boolean captured() {
+			return captured;
+		}
+
+		long startNanos() {
+			return startNanos;
+		}
+
+		/**
+		 * @return true for the first response, which is the only one to be written
+		 */
+		boolean answer() {
+			return answered.compareAndSet(false, true);
+		}
+
+		/**
+		 * @return true when the request was still unanswered and is now cancelled
+		 */
+		boolean cancel() {
+			if (!answer()) {
+				return false;
+			}
+			cancelled = true;
+			cancellation.tryEmitEmpty();
+			return true;
+		}
+
+		boolean isCancelled() {
+			return cancelled;
+		}
+
+		Mono<Void> cancelled() {
+			return cancellation.asMono();
+		}
+
+	}
+
+}
@@ -0,0 +1,34 @@
+package com.eg.mcp.mytransport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Channel counterpart of {@link JsonRpcFrameReader}. Reads go straight into a direct
+ * buffer, so no bytes are copied between the kernel and a temporary buffer, and frames
+ * are decoded from a slice of it.
+ * <p>
+ * Not thread safe, meant to be driven by the single inbound thread.
+ */
+class JsonRpcChannelFrameReader extends AbstractJsonRpcFrameReader {
+
+	private final ReadableByteChannel channel;
+
+	JsonRpcChannelFrameReader(ReadableByteChannel channel, int maxFrameBytes) {
+		super(maxFrameBytes, ByteBuffer::allocateDirect);
+		this.channel = channel;
+	}
+
+	@Override
+	protected int read(ByteBuffer buffer) throws IOException {
+		return channel.read(buffer);
+	}
+
+	@Override
+	protected JsonRpcDecoder.DecodedFrame decode(JsonRpcDecoder decoder, ByteBuffer buffer, int offset, int length)
+			throws IOException {
+		return decoder.decode(buffer.slice(offset, length));
+	}
+
+}
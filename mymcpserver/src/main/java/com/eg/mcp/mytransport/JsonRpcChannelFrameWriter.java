@@ -0,0 +1,221 @@
+package com.eg.mcp.mytransport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.modelcontextprotocol.spec.McpSchema.JSONRPCMessage;
+
+import com.eg.mcp.capture.Direction;
+import com.eg.mcp.capture.MessageCapture;
+import com.eg.mcp.framing.BinaryFramingProtocol;
+
+/**
+ * Channel counterpart of {@link JsonRpcFrameWriter}. Every frame of a batch is
+ * serialized into its own direct buffer and the whole batch goes out with one gathering
+ * write, so the frames are neither copied together nor copied again by the channel.
+ * <p>
+ * Not thread safe, meant to be driven by the single outbound thread.
+ */
+class JsonRpcChannelFrameWriter implements JsonRpcFrameSink {
+
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+
+	/** A buffer grown beyond this by one huge message is not kept around */
+	private static final int RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+	private JsonFactory jsonFactory;
+
+	private ObjectWriter objectWriter;
+
+	/** Set once binary framing was negotiated */
+	private ObjectMapper binaryMapper;
+
+	private final GatheringByteChannel channel;
+
+	/** Reused across batches, slot i holds the i-th frame of the current batch */
+	private ByteBuffer[] frames = new ByteBuffer[16];
+
+	private int frameCount;
+
+	private int bufferedBytes;
+
+	private final FrameOutputStream frameOutput = new FrameOutputStream();
+
+	JsonRpcChannelFrameWriter(ObjectMapper objectMapper, GatheringByteChannel channel) {
+		this.jsonFactory = objectMapper.getFactory();
+		this.objectWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+		this.channel = channel;
+	}
+
+	@Override
+	public void write(JSONRPCMessage message) throws IOException {
+		writeFrame(message, null);
+	}
+
+	@Override
+	public void writeBatch(List<? extends JSONRPCMessage> messages) throws IOException {
+		writeFrame(null, messages);
+	}
+
+	private void writeFrame(JSONRPCMessage message, List<? extends JSONRPCMessage> batch) throws IOException {
+		if (frameCount == frames.length) {
+			frames = Arrays.copyOf(frames, frameCount * 2);
+		}
+		if (frames[frameCount] == null) {
+			frames[frameCount] = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+		}
+		frameOutput.slot = frameCount;
+		if (binaryMapper != null) {
+			// the length is filled in once the payload is written
+			frames[frameCount].put(BinaryFramingProtocol.MARKER).putInt(0);
+		}
+		try (JsonGenerator generator = jsonFactory.createGenerator(frameOutput)) {
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			if (batch != null) {
+				generator.writeStartArray();
+				for (JSONRPCMessage batched : batch) {
+					objectWriter.writeValue(generator, batched);
+				}
+				generator.writeEndArray();
+			}
+			else {
+				objectWriter.writeValue(generator, message);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			frames[frameCount].clear();
+			throw e;
+		}
+		if (binaryMapper != null) {
+			ByteBuffer frame = frames[frameCount];
+			frame.putInt(1, frame.position() - BinaryFramingProtocol.HEADER_SIZE);
+		}
+		else {
+			frameOutput.write('\n');
+		}
+		bufferedBytes += frames[frameCount].position();
+		frameCount++;
+	}
+
+	@Override
+	public void switchToBinary(ObjectMapper binaryMapper) {
+		this.binaryMapper = binaryMapper;
+		this.jsonFactory = binaryMapper.getFactory();
+		this.objectWriter = binaryMapper.writer();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		try {
+			for (int i = 0; i < frameCount; i++) {
+				frames[i].flip();
+			}
+			// a gathering write may stop short, e.g. when the pipe is full
+			int first = 0;
+			while (first < frameCount) {
+				channel.write(frames, first, frameCount - first);
+				while (first < frameCount && !frames[first].hasRemaining()) {
+					first++;
+				}
+			}
+		}
+		finally {
+			clear();
+		}
+	}
+
+	@Override
+	public int size() {
+		return bufferedBytes;
+	}
+
+	@Override
+	public void captureLastFrame(MessageCapture capture) {
+		ByteBuffer last = frames[frameCount - 1];
+		if (binaryMapper != null) {
+			capture.capture(Direction.OUT, true, last, BinaryFramingProtocol.HEADER_SIZE,
+					last.position() - BinaryFramingProtocol.HEADER_SIZE);
+		}
+		else {
+			capture.capture(Direction.OUT, false, last, 0, last.position() - 1);
+		}
+	}
+
+	@Override
+	public String lastFrameAsString() {
+		ByteBuffer last = frames[frameCount - 1];
+		if (binaryMapper != null) {
+			byte[] frame = new byte[last.position() - BinaryFramingProtocol.HEADER_SIZE];
+			last.get(BinaryFramingProtocol.HEADER_SIZE, frame);
+			try {
+				return binaryMapper.readTree(frame).toString();
+			}
+			catch (IOException e) {
+				return "<binary frame>";
+			}
+		}
+		byte[] frame = new byte[last.position() - 1];
+		last.get(0, frame);
+		return new String(frame, StandardCharsets.UTF_8);
+	}
+
+	private void clear() {
+		for (int i = 0; i < frameCount; i++) {
+			if (frames[i].capacity() > RETAINED_BUFFER_SIZE) {
+				frames[i] = null;
+			}
+			else {
+				frames[i].clear();
+			}
+		}
+		frameCount = 0;
+		bufferedBytes = 0;
+	}
+
+	/**
+	 * Appends to the direct buffer of the current frame, replacing it with a larger one
+	 * when it runs full.
+	 */
+	private final class FrameOutputStream extends OutputStream {
+
+		private int slot;
+
+		@Override
+		public void write(int b) {
+			ensureRemaining(1).put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			ensureRemaining(len).put(b, off, len);
+		}
+
+		private ByteBuffer ensureRemaining(int needed) {
+			ByteBuffer frame = frames[slot];
+			if (frame.remaining() >= needed) {
+				return frame;
+			}
+			int capacity = frame.capacity();
+			while (capacity - frame.position() < needed) {
+				capacity *= 2;
+			}
+			ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+			grown.put(frame.flip());
+			frames[slot] = grown;
+			return grown;
+		}
+
+	}
+
+}
@@ -0,0 +1,207 @@
+package com.eg.mcp.mytransport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import io.modelcontextprotocol.spec.McpSchema;
+import io.modelcontextprotocol.spec.McpSchema.JSONRPCMessage;
+
+/**
+ * Byte based counterpart of {@link McpSchema#deserializeJsonRpcMessage(ObjectMapper, String)}.
+ * <p>
+ * The SDK method reads the whole message into a map and converts that map into the
+ * message record, after which the session converts the params once more into the request
+ * type of the method. Here the envelope is read field by field straight off the parser
+ * and the params of the methods the server handles are bound to their request type in
+ * the same pass, through readers created once per decoder. Params arriving before the
+ * method are buffered as tokens and bound once the method is known. Params of other
+ * methods and results are still read as maps, as the SDK expects them.
+ * <p>
+ * A frame holding a JSON array is a JSON-RPC batch, its entries are decoded one by one.
+ * <p>
+ * Thread safe, a decoder is created per ObjectMapper and reused for every frame.
+ */
+final class JsonRpcDecoder {
+
+	private final ObjectMapper objectMapper;
+
+	private final ObjectReader untypedReader;
+
+	private final ObjectReader errorReader;
+
+	/**
+	 * Request types of the params the SDK binds, keyed by method. Left out are methods
+	 * whose params the SDK casts to a map, e.g. completion/complete.
+	 */
+	private final Map<String, ObjectReader> paramsReaders;
+
+	JsonRpcDecoder(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+		this.untypedReader = objectMapper.readerFor(Object.class);
+		this.errorReader = objectMapper.readerFor(McpSchema.JSONRPCResponse.JSONRPCError.class);
+		this.paramsReaders = Map.of(
+				McpSchema.METHOD_INITIALIZE, objectMapper.readerFor(McpSchema.InitializeRequest.class),
+				McpSchema.METHOD_TOOLS_CALL, objectMapper.readerFor(McpSchema.CallToolRequest.class),
+				McpSchema.METHOD_RESOURCES_READ, objectMapper.readerFor(McpSchema.ReadResourceRequest.class),
+				McpSchema.METHOD_PROMPT_GET, objectMapper.readerFor(McpSchema.GetPromptRequest.class),
+				McpSchema.METHOD_LOGGING_SET_LEVEL, objectMapper.readerFor(McpSchema.SetLevelRequest.class));
+	}
+
+	ObjectMapper objectMapper() {
+		return objectMapper;
+	}
+
+	DecodedFrame decode(byte[] buffer, int offset, int length) throws IOException {
+		try (JsonParser parser = objectMapper.createParser(buffer, offset, length)) {
+			return decodeFrame(parser, length);
+		}
+	}
+
+	/**
+	 * Decodes the remaining bytes of the buffer, which may be a direct one. The
+	 * position of the buffer is moved to its limit.
+	 */
+	DecodedFrame decode(ByteBuffer frame) throws IOException {
+		int length = frame.remaining();
+		try (JsonParser parser = objectMapper.createParser(new ByteBufferBackedInputStream(frame))) {
+			return decodeFrame(parser, length);
+		}
+	}
+
+	private DecodedFrame decodeFrame(JsonParser parser, int length) throws IOException {
+		JsonToken token = parser.nextToken();
+		if (token == JsonToken.START_OBJECT) {
+			return new DecodedFrame(List.of(decodeMessage(parser, length)), false, 0);
+		}
+		if (token != JsonToken.START_ARRAY) {
+			throw new IllegalArgumentException("Cannot deserialize JSONRPCMessage of " + length + " bytes");
+		}
+		List<JSONRPCMessage> messages = new ArrayList<>();
+		int invalid = 0;
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+			if (token == null) {
+				throw new JsonParseException(parser, "Unexpected end of batch");
+			}
+			if (token != JsonToken.START_OBJECT) {
+				parser.skipChildren();
+				invalid++;
+				continue;
+			}
+			try {
+				messages.add(decodeMessage(parser, length));
+			}
+			catch (IllegalArgumentException e) {
+				// thrown once the whole object was read, the next entry can follow
+				invalid++;
+			}
+		}
+		return new DecodedFrame(messages, true, invalid);
+	}
+
+	/**
+	 * Reads the object the parser is positioned at, up to and including its end.
+	 */
+	private JSONRPCMessage decodeMessage(JsonParser parser, int length) throws IOException {
+		String jsonrpc = null;
+		String method = null;
+		Object id = null;
+		Object params = null;
+		TokenBuffer earlyParams = null;
+		Object result = null;
+		McpSchema.JSONRPCResponse.JSONRPCError error = null;
+		// presence matters, not the value, as with the SDK's containsKey checks
+		boolean hasId = false;
+		boolean hasResult = false;
+		boolean hasError = false;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.currentName();
+			parser.nextToken();
+			switch (field) {
+				case "jsonrpc" -> jsonrpc = parser.getValueAsString();
+				case "method" -> method = parser.getValueAsString();
+				case "id" -> {
+					hasId = true;
+					id = readId(parser);
+				}
+				case "params" -> {
+					if (method != null) {
+						params = readParams(method, parser);
+					}
+					else {
+						earlyParams = new TokenBuffer(parser);
+						earlyParams.copyCurrentStructure(parser);
+					}
+				}
+				case "result" -> {
+					hasResult = true;
+					result = untypedReader.readValue(parser);
+				}
+				case "error" -> {
+					hasError = true;
+					error = parser.currentToken() == JsonToken.VALUE_NULL ? null : errorReader.readValue(parser);
+				}
+				default -> parser.skipChildren();
+			}
+		}
+		if (earlyParams != null && method != null) {
+			try (JsonParser paramsParser = earlyParams.asParser()) {
+				paramsParser.nextToken();
+				params = readParams(method, paramsParser);
+			}
+		}
+
+		// Same message type detection as the SDK
+		if (method != null && hasId) {
+			return new McpSchema.JSONRPCRequest(jsonrpc, method, id, params);
+		}
+		else if (method != null) {
+			return new McpSchema.JSONRPCNotification(jsonrpc, method, params);
+		}
+		else if (hasResult || hasError) {
+			return new McpSchema.JSONRPCResponse(jsonrpc, id, result, error);
+		}
+
+		throw new IllegalArgumentException("Cannot deserialize JSONRPCMessage of " + length + " bytes");
+	}
+
+	private Object readParams(String method, JsonParser parser) throws IOException {
+		if (parser.currentToken() == JsonToken.VALUE_NULL) {
+			return null;
+		}
+		return paramsReaders.getOrDefault(method, untypedReader).readValue(parser);
+	}
+
+	/**
+	 * Ids come out as they would from a map, a String or a boxed integer.
+	 */
+	private Object readId(JsonParser parser) throws IOException {
+		return switch (parser.currentToken()) {
+			case VALUE_STRING -> parser.getText();
+			case VALUE_NUMBER_INT -> parser.getNumberValue();
+			case VALUE_NULL -> null;
+			default -> untypedReader.readValue(parser);
+		};
+	}
+
+	/**
+	 * What a frame held, a single message or a JSON-RPC batch.
+	 * @param messages the messages in the order they were read
+	 * @param batch whether the frame was a batch array, also when it holds a single entry
+	 * @param invalid entries of the batch that were no JSON-RPC message
+	 */
+	record DecodedFrame(List<JSONRPCMessage> messages, boolean batch, int invalid) {
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.eg.mcp.mytransport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads newline-delimited frames straight off a byte stream, into a heap buffer whose
+ * array the stream reads into and frames are decoded from.
+ * <p>
+ * Not thread safe, meant to be driven by the single inbound thread.
+ */
+class JsonRpcFrameReader extends AbstractJsonRpcFrameReader {
+
+	private final InputStream inputStream;
+
+	JsonRpcFrameReader(InputStream inputStream, int maxFrameBytes) {
+		super(maxFrameBytes, ByteBuffer::allocate);
+		this.inputStream = inputStream;
+	}
+
+	@Override
+	protected int read(ByteBuffer buffer) throws IOException {
+		return inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+	}
+
+	@Override
+	protected JsonRpcDecoder.DecodedFrame decode(JsonRpcDecoder decoder, ByteBuffer buffer, int offset, int length)
+			throws IOException {
+		return decoder.decode(buffer.array(), buffer.arrayOffset() + offset, length);
+	}
+
+}
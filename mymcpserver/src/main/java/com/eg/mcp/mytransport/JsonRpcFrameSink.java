@@ -0,0 +1,63 @@
+package com.eg.mcp.mytransport;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.eg.mcp.capture.MessageCapture;
+
+import io.modelcontextprotocol.spec.McpSchema.JSONRPCMessage;
+
+/**
+ * Where the outbound loop puts its frames. Messages are buffered by {@link #write} and
+ * only reach the stream or channel on {@link #flush()}.
+ * <p>
+ * Implementations are not thread safe, they are driven by the single outbound thread.
+ */
+interface JsonRpcFrameSink {
+
+	/**
+	 * Appends the message to the buffered frames.
+	 * @param message the message to serialize
+	 * @throws IOException when the message can not be serialized
+	 */
+	void write(JSONRPCMessage message) throws IOException;
+
+	/**
+	 * Appends the messages as a single JSON-RPC batch frame, an array of messages.
+	 * @param messages the messages to serialize
+	 * @throws IOException when a message can not be serialized
+	 */
+	void writeBatch(List<? extends JSONRPCMessage> messages) throws IOException;
+
+	/**
+	 * Writes every following message as a {@link BinaryFraming} frame. Frames already
+	 * buffered are left as they are.
+	 * @param binaryMapper the mapper binary frames are serialized with
+	 */
+	void switchToBinary(ObjectMapper binaryMapper);
+
+	/**
+	 * Writes all buffered frames out, flushes and empties the buffer.
+	 * @throws IOException when writing fails
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * @return the number of bytes currently buffered
+	 */
+	int size();
+
+	/**
+	 * Hands the last written frame to the capture, before it is flushed to the client.
+	 * @param capture where the frame is copied to
+	 */
+	void captureLastFrame(MessageCapture capture);
+
+	/**
+	 * @return the last written frame without its newline, for logging only
+	 */
+	String lastFrameAsString();
+
+}
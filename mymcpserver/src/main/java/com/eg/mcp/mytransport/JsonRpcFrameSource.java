@@ -0,0 +1,58 @@
+package com.eg.mcp.mytransport;
+
+import java.io.IOException;
+
+import com.eg.mcp.capture.MessageCapture;
+
+/**
+ * Where the inbound loop gets its frames from, newline-delimited JSON unless binary
+ * framing was negotiated. The bytes of the current frame stay valid until the next call
+ * to {@link #readFrame()}.
+ * <p>
+ * Implementations are not thread safe, they are driven by the single inbound thread.
+ */
+interface JsonRpcFrameSource {
+
+	int END_OF_STREAM = -1;
+
+	int FRAME_TOO_LARGE = -2;
+
+	/**
+	 * Reads the next non blank frame.
+	 * @return the length of the frame, {@link #END_OF_STREAM} or {@link #FRAME_TOO_LARGE}
+	 * @throws IOException when reading the underlying stream or channel fails
+	 */
+	int readFrame() throws IOException;
+
+	/**
+	 * From now on also reads {@link BinaryFraming} frames, text frames are still read.
+	 * @param binaryDecoder the decoder for binary frames
+	 */
+	void acceptBinaryFrames(JsonRpcDecoder binaryDecoder);
+
+	/**
+	 * @return the bytes the frame returned by the last {@link #readFrame()} took on the
+	 * wire, its binary header or line ending included
+	 */
+	int frameBytes();
+
+	/**
+	 * Deserializes the frame returned by the last {@link #readFrame()}.
+	 * @param decoder the decoder for text frames
+	 * @return the message or batch of messages held by the frame
+	 * @throws IOException when the frame is not valid JSON
+	 */
+	JsonRpcDecoder.DecodedFrame decodeFrame(JsonRpcDecoder decoder) throws IOException;
+
+	/**
+	 * Hands the frame returned by the last {@link #readFrame()} to the capture.
+	 * @param capture where the frame is copied to
+	 */
+	void captureFrame(MessageCapture capture);
+
+	/**
+	 * @return the frame returned by the last {@link #readFrame()}, for logging only
+	 */
+	String frameAsString();
+
+}
@@ -0,0 +1,193 @@
+package com.eg.mcp.mytransport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.modelcontextprotocol.spec.McpSchema.JSONRPCMessage;
+
+import com.eg.mcp.capture.Direction;
+import com.eg.mcp.capture.MessageCapture;
+import com.eg.mcp.framing.BinaryFramingProtocol;
+
+/**
+ * Serializes JSON-RPC messages as newline terminated frames into a reusable byte buffer.
+ * <p>
+ * Messages are streamed through a {@link JsonGenerator} straight into the buffer, which
+ * is then handed to the target stream as is. Indentation is always disabled and the
+ * generator escapes control characters inside strings, so a frame can never contain a
+ * raw newline and no String post-processing is needed. Once switched to binary, frames
+ * are length-prefixed as described by {@link BinaryFraming} instead.
+ * <p>
+ * Not thread safe, meant to be driven by the single outbound thread.
+ */
+class JsonRpcFrameWriter implements JsonRpcFrameSink {
+
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+
+	/** A buffer grown beyond this by one huge message is not kept around */
+	private static final int RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+	private static final byte[] BINARY_LENGTH_PLACEHOLDER = new byte[BinaryFramingProtocol.HEADER_SIZE - 1];
+
+	private JsonFactory jsonFactory;
+
+	private ObjectWriter objectWriter;
+
+	/** Set once binary framing was negotiated */
+	private ObjectMapper binaryMapper;
+
+	private final OutputStream outputStream;
+
+	private FrameBuffer frames = new FrameBuffer();
+
+	private int lastFrameOffset;
+
+	JsonRpcFrameWriter(ObjectMapper objectMapper, OutputStream outputStream) {
+		this.jsonFactory = objectMapper.getFactory();
+		this.objectWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+		this.outputStream = outputStream;
+	}
+
+	@Override
+	public void write(JSONRPCMessage message) throws IOException {
+		writeFrame(message, null);
+	}
+
+	@Override
+	public void writeBatch(List<? extends JSONRPCMessage> messages) throws IOException {
+		writeFrame(null, messages);
+	}
+
+	private void writeFrame(JSONRPCMessage message, List<? extends JSONRPCMessage> batch) throws IOException {
+		lastFrameOffset = frames.size();
+		if (binaryMapper != null) {
+			// the length is filled in once the payload is written
+			frames.write(BinaryFramingProtocol.MARKER);
+			frames.write(BINARY_LENGTH_PLACEHOLDER, 0, BINARY_LENGTH_PLACEHOLDER.length);
+		}
+		try (JsonGenerator generator = jsonFactory.createGenerator(frames)) {
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			if (batch != null) {
+				generator.writeStartArray();
+				for (JSONRPCMessage batched : batch) {
+					objectWriter.writeValue(generator, batched);
+				}
+				generator.writeEndArray();
+			}
+			else {
+				objectWriter.writeValue(generator, message);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			frames.truncate(lastFrameOffset);
+			throw e;
+		}
+		if (binaryMapper != null) {
+			frames.putInt(lastFrameOffset + 1, frames.size() - lastFrameOffset - BinaryFramingProtocol.HEADER_SIZE);
+		}
+		else {
+			frames.write('\n');
+		}
+	}
+
+	@Override
+	public void switchToBinary(ObjectMapper binaryMapper) {
+		this.binaryMapper = binaryMapper;
+		this.jsonFactory = binaryMapper.getFactory();
+		this.objectWriter = binaryMapper.writer();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		try {
+			synchronized (outputStream) {
+				frames.writeTo(outputStream);
+				outputStream.flush();
+			}
+		}
+		finally {
+			clear();
+		}
+	}
+
+	@Override
+	public int size() {
+		return frames.size();
+	}
+
+	@Override
+	public void captureLastFrame(MessageCapture capture) {
+		if (binaryMapper != null) {
+			capture.capture(Direction.OUT, true, frames.array(), lastFrameOffset + BinaryFramingProtocol.HEADER_SIZE,
+					frames.size() - lastFrameOffset - BinaryFramingProtocol.HEADER_SIZE);
+		}
+		else {
+			capture.capture(Direction.OUT, false, frames.array(), lastFrameOffset,
+					frames.size() - lastFrameOffset - 1);
+		}
+	}
+
+	@Override
+	public String lastFrameAsString() {
+		if (binaryMapper != null) {
+			try {
+				return binaryMapper
+					.readTree(frames.array(), lastFrameOffset + BinaryFramingProtocol.HEADER_SIZE,
+							frames.size() - lastFrameOffset - BinaryFramingProtocol.HEADER_SIZE)
+					.toString();
+			}
+			catch (IOException e) {
+				return "<binary frame>";
+			}
+		}
+		return new String(frames.array(), lastFrameOffset, frames.size() - lastFrameOffset - 1,
+				StandardCharsets.UTF_8);
+	}
+
+	private void clear() {
+		if (frames.array().length > RETAINED_BUFFER_SIZE) {
+			frames = new FrameBuffer();
+		}
+		else {
+			frames.reset();
+		}
+		lastFrameOffset = 0;
+	}
+
+	/**
+	 * Exposes the backing array so frames can be logged without copying the whole
+	 * buffer.
+	 */
+	private static final class FrameBuffer extends ByteArrayOutputStream {
+
+		FrameBuffer() {
+			super(INITIAL_BUFFER_SIZE);
+		}
+
+		byte[] array() {
+			return buf;
+		}
+
+		void truncate(int size) {
+			count = size;
+		}
+
+		void putInt(int offset, int value) {
+			buf[offset] = (byte) (value >>> 24);
+			buf[offset + 1] = (byte) (value >>> 16);
+			buf[offset + 2] = (byte) (value >>> 8);
+			buf[offset + 3] = (byte) value;
+		}
+
+	}
+
+}
@@ -5,36 +5,32 @@
 
 package com.eg.mcp.mytransport;
 
-import java.io.BufferedReader;
-import java.io.IOException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.Reader;
-import java.nio.charset.StandardCharsets;
-import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Function;
-
-import com.fasterxml.jackson.core.type.TypeReference;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.modelcontextprotocol.spec.McpError;
-import io.modelcontextprotocol.spec.McpSchema;
-import io.modelcontextprotocol.spec.McpSchema.JSONRPCMessage;
 import io.modelcontextprotocol.spec.McpServerSession;
-import io.modelcontextprotocol.spec.McpServerTransport;
 import io.modelcontextprotocol.spec.McpServerTransportProvider;
 import io.modelcontextprotocol.util.Assert;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
-import reactor.core.publisher.Flux;
+import com.eg.mcp.capture.MessageCapture;
+import com.eg.mcp.utils.McpTransportProperties;
+import com.eg.mcp.utils.McpTransportProperties.IoMode;
+
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.Sinks;
-import reactor.core.scheduler.Scheduler;
-import reactor.core.scheduler.Schedulers;
 
 /**
  * Implementation of the MCP Stdio transport provider for servers that communicates using
@@ -44,21 +40,22 @@ import reactor.core.scheduler.Schedulers;
  * @author Christian Tzolov
  */
 @Component
+@ConditionalOnProperty(prefix = McpTransportProperties.PREFIX, name = "endpoint", havingValue = "STDIO", matchIfMissing = true)
 public class MyStdioServerTransportProvider implements McpServerTransportProvider {
 
 	private static final Logger logger = LoggerFactory.getLogger(MyStdioServerTransportProvider.class);
 
 	private final ObjectMapper objectMapper;
 
-	private final InputStream inputStream;
+	private final Endpoints endpoints;
 
-	private final OutputStream outputStream;
+	private final McpTransportProperties transportProperties;
 
 	private McpServerSession session;
 
-	private final AtomicBoolean isClosing = new AtomicBoolean(false);
+	private final TransportStats stats;
 
-	private final Sinks.One<Void> inboundReady = Sinks.one();
+	private final MessageCapture capture;
 
 	/**
 	 * Creates a new StdioServerTransportProvider with a default ObjectMapper and System
@@ -85,21 +82,91 @@ public class MyStdioServerTransportProvider implements McpServerTransportProvide
 	 * @param outputStream The output stream to write to
 	 */
 	public MyStdioServerTransportProvider(ObjectMapper objectMapper, InputStream inputStream, OutputStream outputStream) {
+		this(objectMapper, inputStream, outputStream, McpTransportProperties.defaults());
+	}
+
+	/**
+	 * Creates a new StdioServerTransportProvider with a default ObjectMapper and the
+	 * given transport settings and meter registry. Depending on the configured IO mode
+	 * stdin and stdout are used through the System streams or through file channels.
+	 * @param transportProperties The transport settings
+	 * @param meterRegistry The registry the transport meters are published to
+	 * @param capture Where the messages read and written are captured
+	 */
+	@Autowired
+	public MyStdioServerTransportProvider(McpTransportProperties transportProperties, MeterRegistry meterRegistry,
+			MessageCapture capture) {
+		this(new ObjectMapper(), Endpoints.stdio(transportProperties.ioMode()), transportProperties, meterRegistry,
+				capture);
+	}
+
+	/**
+	 * Creates a new StdioServerTransportProvider with the specified ObjectMapper,
+	 * streams and transport settings. Meters go to the global registry.
+	 * @param objectMapper The ObjectMapper to use for JSON serialization/deserialization
+	 * @param inputStream The input stream to read from
+	 * @param outputStream The output stream to write to
+	 * @param transportProperties The transport settings
+	 */
+	public MyStdioServerTransportProvider(ObjectMapper objectMapper, InputStream inputStream, OutputStream outputStream,
+			McpTransportProperties transportProperties) {
+		this(objectMapper, inputStream, outputStream, transportProperties, Metrics.globalRegistry);
+	}
+
+	/**
+	 * Creates a new StdioServerTransportProvider with the specified ObjectMapper,
+	 * streams, transport settings and meter registry, capturing nothing.
+	 * @param objectMapper The ObjectMapper to use for JSON serialization/deserialization
+	 * @param inputStream The input stream to read from
+	 * @param outputStream The output stream to write to
+	 * @param transportProperties The transport settings
+	 * @param meterRegistry The registry the transport meters are published to
+	 */
+	public MyStdioServerTransportProvider(ObjectMapper objectMapper, InputStream inputStream, OutputStream outputStream,
+			McpTransportProperties transportProperties, MeterRegistry meterRegistry) {
+		this(objectMapper, Endpoints.streams(inputStream, outputStream), transportProperties, meterRegistry,
+				MessageCapture.NONE);
+	}
+
+	/**
+	 * Creates a new StdioServerTransportProvider with the specified ObjectMapper,
+	 * channels, transport settings and meter registry, capturing nothing. Frames are read
+	 * into and written from direct buffers, batches go out with a single gathering write.
+	 * @param objectMapper The ObjectMapper to use for JSON serialization/deserialization
+	 * @param inputChannel The channel to read from
+	 * @param outputChannel The channel to write to
+	 * @param transportProperties The transport settings
+	 * @param meterRegistry The registry the transport meters are published to
+	 */
+	public MyStdioServerTransportProvider(ObjectMapper objectMapper, ReadableByteChannel inputChannel,
+			GatheringByteChannel outputChannel, McpTransportProperties transportProperties,
+			MeterRegistry meterRegistry) {
+		this(objectMapper, Endpoints.channels(inputChannel, outputChannel), transportProperties, meterRegistry,
+				MessageCapture.NONE);
+	}
+
+	private MyStdioServerTransportProvider(ObjectMapper objectMapper, Endpoints endpoints,
+			McpTransportProperties transportProperties, MeterRegistry meterRegistry, MessageCapture capture) {
 		Assert.notNull(objectMapper, "The ObjectMapper can not be null");
-		Assert.notNull(inputStream, "The InputStream can not be null");
-		Assert.notNull(outputStream, "The OutputStream can not be null");
+		Assert.notNull(transportProperties, "The McpTransportProperties can not be null");
+		Assert.notNull(meterRegistry, "The MeterRegistry can not be null");
+		Assert.notNull(capture, "The MessageCapture can not be null");
 
 		this.objectMapper = objectMapper;
-		this.inputStream = inputStream;
-		this.outputStream = outputStream;
+		this.endpoints = endpoints;
+		this.transportProperties = transportProperties;
+		this.stats = TransportStats.create(meterRegistry);
+		this.capture = capture;
 	}
 
 	@Override
 	public void setSessionFactory(McpServerSession.Factory sessionFactory) {
 		// Create a single session for the stdio connection
-		var transport = new StdioMcpSessionTransport();
+		var transport = new FramedSessionTransport("stdio", objectMapper,
+				endpoints.frameSource(transportProperties.maxFrameBytes()), endpoints.frameSink(objectMapper),
+				transportProperties, stats, capture);
 		this.session = sessionFactory.create(transport);
-		transport.initProcessing();
+		transport.start(session);
 	}
 
 	@Override
@@ -119,194 +186,48 @@ public class MyStdioServerTransportProvider implements McpServerTransportProvide
 		return this.session.closeGracefully();
 	}
 
+	public TransportStats getStats() {
+		return stats;
+	}
+
 	/**
-	 * Implementation of McpServerTransport for the stdio session.
+	 * What stdin and stdout are bound to, either the two streams or the two channels.
 	 */
-	private class StdioMcpSessionTransport implements McpServerTransport {
-
-		private final Sinks.Many<JSONRPCMessage> inboundSink;
-
-		private final Sinks.Many<JSONRPCMessage> outboundSink;
-
-		private final AtomicBoolean isStarted = new AtomicBoolean(false);
-
-		/** Scheduler for handling inbound messages */
-		private Scheduler inboundScheduler;
-
-		/** Scheduler for handling outbound messages */
-		private Scheduler outboundScheduler;
-
-		private final Sinks.One<Void> outboundReady = Sinks.one();
-
-		public StdioMcpSessionTransport() {
-
-			this.inboundSink = Sinks.many().unicast().onBackpressureBuffer();
-			this.outboundSink = Sinks.many().unicast().onBackpressureBuffer();
-
-			// Use bounded schedulers for better resource management
-			this.inboundScheduler = Schedulers.fromExecutorService(Executors.newSingleThreadExecutor(),
-					"stdio-inbound");
-			this.outboundScheduler = Schedulers.fromExecutorService(Executors.newSingleThreadExecutor(),
-					"stdio-outbound");
-		}
+	private record Endpoints(InputStream inputStream, OutputStream outputStream, ReadableByteChannel inputChannel,
+			GatheringByteChannel outputChannel) {
 
-		@Override
-		public Mono<Void> sendMessage(McpSchema.JSONRPCMessage message) {
-
-			return Mono.zip(inboundReady.asMono(), outboundReady.asMono()).then(Mono.defer(() -> {
-				if (outboundSink.tryEmitNext(message).isSuccess()) {
-					return Mono.empty();
-				}
-				else {
-					return Mono.error(new RuntimeException("Failed to enqueue message"));
-				}
-			}));
+		static Endpoints streams(InputStream inputStream, OutputStream outputStream) {
+			Assert.notNull(inputStream, "The InputStream can not be null");
+			Assert.notNull(outputStream, "The OutputStream can not be null");
+			return new Endpoints(inputStream, outputStream, null, null);
 		}
 
-		@Override
-		public <T> T unmarshalFrom(Object data, TypeReference<T> typeRef) {
-			return objectMapper.convertValue(data, typeRef);
+		static Endpoints channels(ReadableByteChannel inputChannel, GatheringByteChannel outputChannel) {
+			Assert.notNull(inputChannel, "The input channel can not be null");
+			Assert.notNull(outputChannel, "The output channel can not be null");
+			return new Endpoints(null, null, inputChannel, outputChannel);
 		}
 
-		@Override
-		public Mono<Void> closeGracefully() {
-			return Mono.fromRunnable(() -> {
-				isClosing.set(true);
-				logger.debug("Session transport closing gracefully");
-				inboundSink.tryEmitComplete();
-			});
-		}
-
-		@Override
-		public void close() {
-			isClosing.set(true);
-			logger.debug("Session transport closed");
-		}
-
-		private void initProcessing() {
-			handleIncomingMessages();
-			startInboundProcessing();
-			startOutboundProcessing();
-		}
-
-		private void handleIncomingMessages() {
-			this.inboundSink.asFlux().flatMap(message -> session.handle(message)).doOnTerminate(() -> {
-				// The outbound processing will dispose its scheduler upon completion
-				this.outboundSink.tryEmitComplete();
-				this.inboundScheduler.dispose();
-			}).subscribe();
-		}
-
-		/**
-		 * Starts the inbound processing thread that reads JSON-RPC messages from stdin.
-		 * Messages are deserialized and passed to the session for handling.
+		/*
+		 * The channels sit right on the file descriptors, bypassing System.in and
+		 * System.out.
 		 */
-		private void startInboundProcessing() {
-			if (isStarted.compareAndSet(false, true)) {
-				this.inboundScheduler.schedule(() -> {
-					inboundReady.tryEmitValue(null);
-					BufferedReader reader = null;
-					try {
-						reader = new BufferedReader(new InputStreamReader(inputStream));
-						while (!isClosing.get()) {
-							try {
-								String line = reader.readLine();
-								if (line == null || isClosing.get()) {
-									break;
-								}
-
-								logger.debug("Received JSON message: {}", line);
-
-								try {
-									McpSchema.JSONRPCMessage message = McpSchema.deserializeJsonRpcMessage(objectMapper,
-											line);
-									if (!this.inboundSink.tryEmitNext(message).isSuccess()) {
-										// logIfNotClosing("Failed to enqueue message");
-										break;
-									}
-
-								}
-								catch (Exception e) {
-									logIfNotClosing("Error processing inbound message", e);
-									break;
-								}
-							}
-							catch (IOException e) {
-								logIfNotClosing("Error reading from stdin", e);
-								break;
-							}
-						}
-					}
-					catch (Exception e) {
-						logIfNotClosing("Error in inbound processing", e);
-					}
-					finally {
-						isClosing.set(true);
-						if (session != null) {
-							session.close();
-						}
-						inboundSink.tryEmitComplete();
-					}
-				});
+		static Endpoints stdio(IoMode ioMode) {
+			if (ioMode == IoMode.CHANNELS) {
+				return channels(new FileInputStream(FileDescriptor.in).getChannel(),
+						new FileOutputStream(FileDescriptor.out).getChannel());
 			}
+			return streams(System.in, System.out);
 		}
 
-		/**
-		 * Starts the outbound processing thread that writes JSON-RPC messages to stdout.
-		 * Messages are serialized to JSON and written with a newline delimiter.
-		 */
-		private void startOutboundProcessing() {
-			Function<Flux<JSONRPCMessage>, Flux<JSONRPCMessage>> outboundConsumer = messages -> messages // @formatter:off
-				 .doOnSubscribe(subscription -> outboundReady.tryEmitValue(null))
-				 .publishOn(outboundScheduler)
-				 .handle((message, sink) -> {
-					 if (message != null && !isClosing.get()) {
-						 try {
-							 String jsonMessage = objectMapper.writeValueAsString(message);
-							 // Escape any embedded newlines in the JSON message as per spec
-							 jsonMessage = jsonMessage.replace("\r\n", "\\n").replace("\n", "\\n").replace("\r", "\\n");
-							 logger.debug("Sending JSON message: {}", jsonMessage);
-							 synchronized (outputStream) {
-								 outputStream.write(jsonMessage.getBytes(StandardCharsets.UTF_8));
-								 outputStream.write("\n".getBytes(StandardCharsets.UTF_8));
-								 outputStream.flush();
-							 }
-							 sink.next(message);
-						 }
-						 catch (IOException e) {
-							 if (!isClosing.get()) {
-								 logger.error("Error writing message", e);
-								 sink.error(new RuntimeException(e));
-							 }
-							 else {
-								 logger.debug("Stream closed during shutdown", e);
-							 }
-						 }
-					 }
-					 else if (isClosing.get()) {
-						 sink.complete();
-					 }
-				 })
-				 .doOnComplete(() -> {
-					 isClosing.set(true);
-					 outboundScheduler.dispose();
-				 })
-				 .doOnError(e -> {
-					 if (!isClosing.get()) {
-						 logger.error("Error in outbound processing", e);
-						 isClosing.set(true);
-						 outboundScheduler.dispose();
-					 }
-				 })
-				 .map(msg -> (JSONRPCMessage) msg);
-	
-				 outboundConsumer.apply(outboundSink.asFlux()).subscribe();
-		 } // @formatter:on
-
-		private void logIfNotClosing(String message, Exception e) {
-			if (!isClosing.get()) {
-				logger.error(message, e);
-			}
+		JsonRpcFrameSource frameSource(int maxFrameBytes) {
+			return inputChannel != null ? new JsonRpcChannelFrameReader(inputChannel, maxFrameBytes)
+					: new JsonRpcFrameReader(inputStream, maxFrameBytes);
+		}
+
+		JsonRpcFrameSink frameSink(ObjectMapper objectMapper) {
+			return outputChannel != null ? new JsonRpcChannelFrameWriter(objectMapper, outputChannel)
+					: new JsonRpcFrameWriter(objectMapper, outputStream);
 		}
 
 	}
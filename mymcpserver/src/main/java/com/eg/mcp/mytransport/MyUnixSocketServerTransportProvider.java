@@ -0,0 +1,234 @@
+package com.eg.mcp.mytransport;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.eg.mcp.capture.MessageCapture;
+import com.eg.mcp.utils.McpTransportProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.modelcontextprotocol.spec.McpServerSession;
+import io.modelcontextprotocol.spec.McpServerTransportProvider;
+import io.modelcontextprotocol.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Transport provider for a long running server shared by many clients. It listens on a
+ * local Unix domain socket and creates one session per accepted connection, all of them
+ * served by the same tools, resources and State.
+ * <p>
+ * Every connection speaks the same newline-delimited JSON-RPC as stdio. Clients that
+ * can only start a process talk to it through {@link UnixSocketStdioShim}.
+ */
+@Component
+@ConditionalOnProperty(prefix = McpTransportProperties.PREFIX, name = "endpoint", havingValue = "UNIX_SOCKET")
+public class MyUnixSocketServerTransportProvider implements McpServerTransportProvider {
+
+	private static final Logger logger = LoggerFactory.getLogger(MyUnixSocketServerTransportProvider.class);
+
+	private final ObjectMapper objectMapper;
+
+	private final McpTransportProperties transportProperties;
+
+	private final TransportStats stats;
+
+	private final MessageCapture capture;
+
+	private final Set<McpServerSession> sessions = ConcurrentHashMap.newKeySet();
+
+	/** Numbers the connections, only used to name their threads */
+	private final AtomicInteger connections = new AtomicInteger();
+
+	private ServerSocketChannel serverChannel;
+
+	private volatile boolean closing;
+
+	/**
+	 * Creates a new provider with a default ObjectMapper.
+	 * @param transportProperties The transport settings, socketPath is listened on
+	 * @param meterRegistry The registry the transport meters are published to
+	 * @param capture Where the messages of every connection are captured
+	 */
+	@Autowired
+	public MyUnixSocketServerTransportProvider(McpTransportProperties transportProperties,
+			MeterRegistry meterRegistry, MessageCapture capture) {
+		this(new ObjectMapper(), transportProperties, meterRegistry, capture);
+	}
+
+	/**
+	 * Creates a new provider capturing nothing.
+	 * @param objectMapper The ObjectMapper to use for JSON serialization/deserialization
+	 * @param transportProperties The transport settings, socketPath is listened on
+	 * @param meterRegistry The registry the transport meters are published to
+	 */
+	public MyUnixSocketServerTransportProvider(ObjectMapper objectMapper, McpTransportProperties transportProperties,
+			MeterRegistry meterRegistry) {
+		this(objectMapper, transportProperties, meterRegistry, MessageCapture.NONE);
+	}
+
+	/**
+	 * Creates a new provider.
+	 * @param objectMapper The ObjectMapper to use for JSON serialization/deserialization
+	 * @param transportProperties The transport settings, socketPath is listened on
+	 * @param meterRegistry The registry the transport meters are published to
+	 * @param capture Where the messages of every connection are captured
+	 */
+	public MyUnixSocketServerTransportProvider(ObjectMapper objectMapper, McpTransportProperties transportProperties,
+			MeterRegistry meterRegistry, MessageCapture capture) {
+		Assert.notNull(objectMapper, "The ObjectMapper can not be null");
+		Assert.notNull(transportProperties, "The McpTransportProperties can not be null");
+		Assert.notNull(meterRegistry, "The MeterRegistry can not be null");
+		Assert.notNull(capture, "The MessageCapture can not be null");
+
+		this.objectMapper = objectMapper;
+		this.transportProperties = transportProperties;
+		this.stats = TransportStats.create(meterRegistry);
+		this.capture = capture;
+	}
+
+	@Override
+	public void setSessionFactory(McpServerSession.Factory sessionFactory) {
+		try {
+			this.serverChannel = bind(transportProperties.socketPath());
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Failed to listen on " + transportProperties.socketPath(), e);
+		}
+		logger.info("Listening for MCP clients on {}", transportProperties.socketPath());
+		// not a daemon, it keeps the server alive while no client is connected
+		Thread.ofPlatform().name("uds-accept").start(() -> acceptConnections(sessionFactory));
+	}
+
+	@Override
+	public Mono<Void> notifyClients(String method, Object params) {
+		return Flux.fromIterable(sessions)
+			.flatMap(session -> session.sendNotification(method, params)
+				.doOnError(e -> logger.error("Failed to send notification: {}", e.getMessage()))
+				.onErrorComplete())
+			.then();
+	}
+
+	@Override
+	public Mono<Void> closeGracefully() {
+		closing = true;
+		closeServerChannel();
+		return Flux.fromIterable(sessions).flatMap(McpServerSession::closeGracefully).then();
+	}
+
+	public TransportStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * @return the number of connected clients
+	 */
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	/*
+	 * A socket file left behind by a crashed server is removed, one a live server still
+	 * accepts connections on is not.
+	 */
+	private static ServerSocketChannel bind(Path socketPath) throws IOException {
+		UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socketPath);
+		if (Files.exists(socketPath)) {
+			if (isListening(address)) {
+				throw new IOException("Another server is already listening on " + socketPath);
+			}
+			Files.deleteIfExists(socketPath);
+		}
+		ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		channel.bind(address);
+		return channel;
+	}
+
+	private static boolean isListening(UnixDomainSocketAddress address) {
+		SocketChannel probe;
+		try {
+			probe = SocketChannel.open(address);
+		}
+		catch (IOException e) {
+			return false;
+		}
+		try {
+			probe.close();
+		}
+		catch (IOException e) {
+			logger.debug("Failed to close the probe of {}", address, e);
+		}
+		return true;
+	}
+
+	private void acceptConnections(McpServerSession.Factory sessionFactory) {
+		while (!closing) {
+			try {
+				open(sessionFactory, serverChannel.accept());
+			}
+			catch (IOException e) {
+				if (!closing) {
+					logger.error("Failed to accept connection on {}", transportProperties.socketPath(), e);
+					closeServerChannel();
+				}
+				return;
+			}
+		}
+	}
+
+	private void open(McpServerSession.Factory sessionFactory, SocketChannel channel) {
+		String name = "uds-" + connections.incrementAndGet();
+		var transport = new FramedSessionTransport(name, objectMapper,
+				new JsonRpcChannelFrameReader(channel, transportProperties.maxFrameBytes()),
+				new JsonRpcChannelFrameWriter(objectMapper, channel), transportProperties, stats, capture);
+		McpServerSession session = sessionFactory.create(transport);
+		sessions.add(session);
+		transport.terminated().doFinally(signal -> {
+			sessions.remove(session);
+			closeQuietly(channel);
+			logger.info("Client {} disconnected, {} still connected", name, sessions.size());
+		}).subscribe();
+		transport.start(session);
+		logger.info("Client {} connected, {} connected now", name, sessions.size());
+	}
+
+	private void closeServerChannel() {
+		if (serverChannel == null) {
+			return;
+		}
+		closeQuietly(serverChannel);
+		try {
+			Files.deleteIfExists(transportProperties.socketPath());
+		}
+		catch (IOException e) {
+			logger.warn("Failed to remove socket file {}", transportProperties.socketPath(), e);
+		}
+	}
+
+	private static void closeQuietly(Channel channel) {
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+			logger.debug("Failed to close channel", e);
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.eg.mcp.mytransport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Three FIFO queues, one per {@link Lane}, drained by weight.
+ * <p>
+ * A round hands out as many items of a lane as its weight allows, control first, then
+ * cheap, then heavy. A new round starts once every lane has used up its weight or ran
+ * empty, so a lane with a higher weight gets ahead while the others still get their
+ * share and never starve. Within a lane items keep their order.
+ * <p>
+ * Items may be offered from any thread, only a single thread at a time may poll.
+ */
+final class PriorityLanes<T> {
+
+	/**
+	 * Priority classes of JSON-RPC traffic.
+	 */
+	enum Lane {
+		/** Pings, notifications, responses and errors, anything keeping the session going */
+		CONTROL,
+		/** Lookups and State changes that are done in no time */
+		CHEAP,
+		/** Renders of large documents */
+		HEAVY
+	}
+
+	private static final Lane[] LANES = Lane.values();
+
+	/** Indexed by lane ordinal */
+	private final List<Queue<T>> queues;
+
+	private final int[] weights;
+
+	/** Items each lane may still hand out in the current round, only touched by poll */
+	private final int[] credits;
+
+	/**
+	 * @param controlWeight items of the control lane per round
+	 * @param cheapWeight items of the cheap lane per round
+	 * @param heavyWeight items of the heavy lane per round
+	 */
+	PriorityLanes(int controlWeight, int cheapWeight, int heavyWeight) {
+		this.weights = new int[] { Math.max(1, controlWeight), Math.max(1, cheapWeight), Math.max(1, heavyWeight) };
+		this.credits = weights.clone();
+		List<Queue<T>> lanes = new ArrayList<>(LANES.length);
+		for (int i = 0; i < LANES.length; i++) {
+			lanes.add(new ConcurrentLinkedQueue<>());
+		}
+		this.queues = List.copyOf(lanes);
+	}
+
+	void offer(Lane lane, T item) {
+		queues.get(lane.ordinal()).offer(item);
+	}
+
+	/**
+	 * @return the next item by lane weight, null when all lanes are empty
+	 */
+	T poll() {
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < LANES.length; i++) {
+				if (credits[i] > 0) {
+					T item = queues.get(i).poll();
+					if (item != null) {
+						credits[i]--;
+						return item;
+					}
+				}
+			}
+			// every lane with items left has used up its weight
+			System.arraycopy(weights, 0, credits, 0, weights.length);
+		}
+		return null;
+	}
+
+}
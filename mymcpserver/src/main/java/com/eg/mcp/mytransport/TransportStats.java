@@ -0,0 +1,255 @@
+package com.eg.mcp.mytransport;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Counters kept by the stdio transport.
+ * Cheap enough to be updated on every message, read whenever someone asks.
+ * Everything is also published as Micrometer meters named mcp.transport.*
+ */
+public class TransportStats {
+
+	public static final String METER_PREFIX = "mcp.transport.";
+
+	/** Tag value used for requests that are not tool calls */
+	public static final String NO_TOOL = "none";
+
+	private final MeterRegistry meterRegistry;
+
+	private final LongAdder flushes = new LongAdder();
+
+	private final LongAdder messagesRead = new LongAdder();
+
+	private final LongAdder messagesWritten = new LongAdder();
+
+	private final LongAdder bytesRead = new LongAdder();
+
+	private final LongAdder bytesWritten = new LongAdder();
+
+	private final LongAccumulator largestBatch = new LongAccumulator(Math::max, 0);
+
+	private final LongAdder inboundRejected = new LongAdder();
+
+	private final LongAdder outboundRejected = new LongAdder();
+
+	private final LongAdder cancelled = new LongAdder();
+
+	private final LongAdder deadlineExceeded = new LongAdder();
+
+	private final DistributionSummary batchSizes;
+
+	/** Keyed by method and tool name, building a timer for every response is too costly */
+	private final Map<String, Timer> latencyTimers = new ConcurrentHashMap<>();
+
+	/** One entry per live session transport */
+	private final List<QueueDepths> queueDepths = new CopyOnWriteArrayList<>();
+
+	private TransportStats(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+		this.batchSizes = DistributionSummary.builder(METER_PREFIX + "outbound.batch.size")
+			.publishPercentiles(0.5, 0.99)
+			.register(meterRegistry);
+	}
+
+	/**
+	 * @return stats published to the registry, the meters are registered once the stats
+	 * are fully built since the gauges read them
+	 */
+	public static TransportStats create(MeterRegistry meterRegistry) {
+		TransportStats stats = new TransportStats(meterRegistry);
+		stats.registerMeters();
+		return stats;
+	}
+
+	private void registerMeters() {
+		FunctionCounter.builder(METER_PREFIX + "messages", messagesRead, LongAdder::sum)
+			.tag("direction", "in")
+			.register(meterRegistry);
+		FunctionCounter.builder(METER_PREFIX + "messages", messagesWritten, LongAdder::sum)
+			.tag("direction", "out")
+			.register(meterRegistry);
+		FunctionCounter.builder(METER_PREFIX + "bytes", bytesRead, LongAdder::sum)
+			.tag("direction", "in")
+			.baseUnit("bytes")
+			.register(meterRegistry);
+		FunctionCounter.builder(METER_PREFIX + "bytes", bytesWritten, LongAdder::sum)
+			.tag("direction", "out")
+			.baseUnit("bytes")
+			.register(meterRegistry);
+		FunctionCounter.builder(METER_PREFIX + "flushes", flushes, LongAdder::sum).register(meterRegistry);
+		FunctionCounter.builder(METER_PREFIX + "rejected", inboundRejected, LongAdder::sum)
+			.tag("direction", "in")
+			.register(meterRegistry);
+		FunctionCounter.builder(METER_PREFIX + "rejected", outboundRejected, LongAdder::sum)
+			.tag("direction", "out")
+			.register(meterRegistry);
+		FunctionCounter.builder(METER_PREFIX + "abandoned", cancelled, LongAdder::sum)
+			.tag("reason", "cancelled")
+			.register(meterRegistry);
+		FunctionCounter.builder(METER_PREFIX + "abandoned", deadlineExceeded, LongAdder::sum)
+			.tag("reason", "deadline")
+			.register(meterRegistry);
+		Gauge.builder(METER_PREFIX + "queue.depth", this, TransportStats::getInboundQueueDepth)
+			.tag("direction", "in")
+			.register(meterRegistry);
+		Gauge.builder(METER_PREFIX + "queue.depth", this, TransportStats::getOutboundQueueDepth)
+			.tag("direction", "out")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Adds the queues of a session transport to the reported depths.
+	 * @return removes them again
+	 */
+	Runnable addQueueDepths(IntSupplier inboundQueueDepth, IntSupplier outboundQueueDepth) {
+		QueueDepths depths = new QueueDepths(inboundQueueDepth, outboundQueueDepth);
+		queueDepths.add(depths);
+		return () -> queueDepths.remove(depths);
+	}
+
+	void recordRead(int frameBytes) {
+		messagesRead.increment();
+		bytesRead.add(frameBytes);
+	}
+
+	void recordFlush(int batchSize, int batchBytes) {
+		flushes.increment();
+		messagesWritten.add(batchSize);
+		bytesWritten.add(batchBytes);
+		largestBatch.accumulate(batchSize);
+		batchSizes.record(batchSize);
+	}
+
+	/**
+	 * Records the time from reading a request to serializing its response.
+	 * @param method the JSON-RPC method of the request
+	 * @param toolName the called tool, null when the request is not a tool call
+	 * @param nanos the elapsed time
+	 */
+	void recordLatency(String method, String toolName, long nanos) {
+		String tool = toolName == null ? NO_TOOL : toolName;
+		latencyTimers.computeIfAbsent(method + '/' + tool, key -> Timer.builder(METER_PREFIX + "request.latency")
+			.tag("method", method)
+			.tag("tool", tool)
+			.publishPercentiles(0.5, 0.95, 0.99)
+			.register(meterRegistry)).record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	void recordInboundRejected() {
+		inboundRejected.increment();
+	}
+
+	void recordOutboundRejected() {
+		outboundRejected.increment();
+	}
+
+	void recordCancelled() {
+		cancelled.increment();
+	}
+
+	void recordDeadlineExceeded() {
+		deadlineExceeded.increment();
+	}
+
+	/**
+	 * @return how often stdout was flushed, one flush per written batch
+	 */
+	public long getFlushes() {
+		return flushes.sum();
+	}
+
+	public long getMessagesRead() {
+		return messagesRead.sum();
+	}
+
+	public long getMessagesWritten() {
+		return messagesWritten.sum();
+	}
+
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	public long getLargestBatch() {
+		return largestBatch.get();
+	}
+
+	public double getAverageBatchSize() {
+		long count = getFlushes();
+		return count == 0 ? 0d : (double) getMessagesWritten() / count;
+	}
+
+	/**
+	 * @return inbound messages read but not yet completely handled
+	 */
+	public int getInboundQueueDepth() {
+		return queueDepths.stream().mapToInt(depths -> depths.inbound().getAsInt()).sum();
+	}
+
+	/**
+	 * @return outbound messages queued but not yet serialized
+	 */
+	public int getOutboundQueueDepth() {
+		return queueDepths.stream().mapToInt(depths -> depths.outbound().getAsInt()).sum();
+	}
+
+	/**
+	 * @return inbound messages turned away because the inbound high-water mark was hit
+	 */
+	public long getInboundRejected() {
+		return inboundRejected.sum();
+	}
+
+	/**
+	 * @return outbound messages refused because the outbound high-water mark was hit
+	 */
+	public long getOutboundRejected() {
+		return outboundRejected.sum();
+	}
+
+	/**
+	 * @return requests the client cancelled before they were answered
+	 */
+	public long getCancelled() {
+		return cancelled.sum();
+	}
+
+	/**
+	 * @return requests answered with a timeout error because they ran past their deadline
+	 */
+	public long getDeadlineExceeded() {
+		return deadlineExceeded.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "TransportStats[messagesRead=" + getMessagesRead() + ", messagesWritten=" + getMessagesWritten()
+				+ ", bytesRead=" + getBytesRead() + ", bytesWritten=" + getBytesWritten() + ", flushes="
+				+ getFlushes() + ", largestBatch=" + getLargestBatch() + ", averageBatchSize="
+				+ getAverageBatchSize() + ", inboundQueueDepth=" + getInboundQueueDepth() + ", outboundQueueDepth="
+				+ getOutboundQueueDepth() + ", inboundRejected=" + getInboundRejected() + ", outboundRejected="
+				+ getOutboundRejected() + ", cancelled=" + getCancelled() + ", deadlineExceeded="
+				+ getDeadlineExceeded() + "]";
+	}
+
+	private record QueueDepths(IntSupplier inbound, IntSupplier outbound) {
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.eg.mcp.mytransport;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * Bridges the stdin/stdout of a client launched process to a shared server listening
+ * with {@link MyUnixSocketServerTransportProvider}. Bytes are copied as they are, the
+ * shim knows nothing about JSON-RPC and starts in a fraction of the time a server
+ * needs.
+ * <p>
+ * Only depends on the JDK. From the executable jar it is started without Spring with
+ * <pre>
+ * java -cp mymcpserver-0.0.1-SNAPSHOT.jar -Dloader.main=com.eg.mcp.mytransport.UnixSocketStdioShim
+ *      org.springframework.boot.loader.launch.PropertiesLauncher [socket path]
+ * </pre>
+ */
+public final class UnixSocketStdioShim {
+
+	private static final String DEFAULT_SOCKET_PATH = "/tmp/mymcpserver.sock";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private UnixSocketStdioShim() {
+	}
+
+	public static void main(String[] args) {
+		Path socketPath = Path.of(args.length > 0 ? args[0] : DEFAULT_SOCKET_PATH);
+		SocketChannel socket;
+		try {
+			socket = SocketChannel.open(UnixDomainSocketAddress.of(socketPath));
+		}
+		catch (IOException e) {
+			System.err.println("No MCP server listening on " + socketPath + ": " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		FileChannel stdin = new FileInputStream(FileDescriptor.in).getChannel();
+		FileChannel stdout = new FileOutputStream(FileDescriptor.out).getChannel();
+
+		// a daemon, it may still be blocked on stdin when the server hangs up
+		Thread.ofPlatform().name("shim-upstream").daemon().start(() -> {
+			copy(stdin, socket);
+			try {
+				// lets the server finish the session and answer what is still pending
+				socket.shutdownOutput();
+			}
+			catch (IOException e) {
+				// the server is gone already
+			}
+		});
+		copy(socket, stdout);
+	}
+
+	private static void copy(ReadableByteChannel from, WritableByteChannel to) {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		try {
+			while (from.read(buffer) >= 0) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					to.write(buffer);
+				}
+				buffer.clear();
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Shim connection closed: " + e.getMessage());
+		}
+	}
+
+}
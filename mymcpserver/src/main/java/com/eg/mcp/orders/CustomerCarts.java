@@ -0,0 +1,96 @@
+package com.eg.mcp.orders;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eg.mcp.models.SportsItem;
+
+/**
+ * Where the durable cart of each customer is, for State to load it when the customer has
+ * no cart in memory: on the first call after a restart, or after the cart was evicted.
+ * Carts recovered on startup, from the snapshot and the journal after it, are kept
+ * until the customer's cart is evicted with changes. The cart is then read back from
+ * the journal, from the last record handed over for it, so an evicted cart takes no
+ * more memory than the position of that record.
+ * <p>
+ * Without a journal nothing is durable and an evicted cart is gone.
+ */
+public final class CustomerCarts {
+
+	private static final Logger logger = LoggerFactory.getLogger(CustomerCarts.class);
+
+	private final OrderJournal journal;
+
+	private final Map<String, Map<SportsItem, Integer>> recovered;
+
+	/** The last cart record of every customer whose changed cart was evicted */
+	private final Map<String, CompletableFuture<Long>> evicted = new ConcurrentHashMap<>();
+
+	/**
+	 * A customer's durable cart as loaded.
+	 * @param evictedWith the last record of the cart when it was loaded, null for a
+	 * recovered cart
+	 */
+	public record Loaded(Map<SportsItem, Integer> quantities, CompletableFuture<Long> evictedWith) {
+	}
+
+	CustomerCarts(OrderJournal journal, Map<String, Map<SportsItem, Integer>> recovered) {
+		this.journal = journal;
+		this.recovered = new ConcurrentHashMap<>(recovered);
+	}
+
+	/**
+	 * Called while holding the customer's cart.
+	 * @param journaled the last append of the cart, null when the cart did not change
+	 * since it was loaded, which leaves the cart where it was loaded from
+	 */
+	public void evicted(String customerId, CompletableFuture<Long> journaled) {
+		if (journaled != null) {
+			evicted.put(customerId, journaled);
+			recovered.remove(customerId);
+		}
+	}
+
+	/**
+	 * Not to be called while holding the customer's cart: it waits for the cart's last
+	 * record to be written when it was evicted right after a change, and reads it back.
+	 * @return the customer's cart as of its last change journaled, empty when there is
+	 * none, or when the journal failed to write it
+	 */
+	public Loaded load(String customerId) throws IOException {
+		CompletableFuture<Long> journaled = evicted.get(customerId);
+		if (journaled == null) {
+			return new Loaded(recovered.getOrDefault(customerId, Map.of()), null);
+		}
+		long position;
+		try {
+			position = journaled.join();
+		}
+		catch (CompletionException e) {
+			logger.warn("The cart of {} was lost, journaling its last change failed: {}", customerId,
+					e.getCause().getMessage());
+			evicted.remove(customerId, journaled);
+			return new Loaded(Map.of(), null);
+		}
+		if (position == OrderJournal.NOT_JOURNALED) {
+			evicted.remove(customerId, journaled);
+			return new Loaded(Map.of(), null);
+		}
+		return new Loaded(journal.readCart(position).quantities(), journaled);
+	}
+
+	/**
+	 * Called while holding the customer's cart, before putting in the cart loaded.
+	 * @return false when the customer's cart was evicted with changes since it was loaded
+	 */
+	public boolean isCurrent(String customerId, Loaded loaded) {
+		return evicted.get(customerId) == loaded.evictedWith();
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.eg.mcp.orders;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.eg.mcp.models.SportsItem;
+
+/**
+ * A customer's cart as of one of its changes, kept in the journal along with the orders.
+ * The whole cart rather than the change, so the last one journaled for a customer is
+ * the cart, whatever came before.
+ * @param quantities empty once the cart was checked out or emptied
+ */
+public record JournaledCart(String customerId, Map<SportsItem, Integer> quantities) {
+
+	static final byte CART = 2;
+
+	/**
+	 * Type, customer and the items, each with its ordinal and quantity.
+	 */
+	byte[] encode() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(CART);
+			out.writeUTF(customerId);
+			writeQuantities(out, quantities);
+		}
+		catch (IOException e) {
+			// not from a ByteArrayOutputStream
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	static JournaledCart decode(byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		byte type = in.readByte();
+		if (type != CART) {
+			throw new IOException("Unknown journal record type " + type);
+		}
+		String customerId = in.readUTF();
+		return new JournaledCart(customerId, readQuantities(in));
+	}
+
+	static void writeQuantities(DataOutputStream out, Map<SportsItem, Integer> quantities) throws IOException {
+		out.writeByte(quantities.size());
+		for (Map.Entry<SportsItem, Integer> entry : quantities.entrySet()) {
+			out.writeByte(entry.getKey().ordinal());
+			out.writeInt(entry.getValue());
+		}
+	}
+
+	static Map<SportsItem, Integer> readQuantities(DataInputStream in) throws IOException {
+		int count = in.readUnsignedByte();
+		EnumMap<SportsItem, Integer> quantities = new EnumMap<>(SportsItem.class);
+		for (int i = 0; i < count; i++) {
+			int ordinal = in.readUnsignedByte();
+			if (ordinal >= SportsItem.values().length) {
+				throw new IOException("Unknown item " + ordinal);
+			}
+			quantities.put(SportsItem.values()[ordinal], in.readInt());
+		}
+		return Collections.unmodifiableMap(quantities);
+	}
+
+}
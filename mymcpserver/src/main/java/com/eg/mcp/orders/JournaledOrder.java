@@ -0,0 +1,93 @@
+package com.eg.mcp.orders;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.eg.mcp.models.Order;
+import com.eg.mcp.models.OrderItem;
+
+/**
+ * An order as kept in the journal, with the customer who placed it.
+ * @param customerId null for an order placed by a session, which no later session can
+ * ask for again
+ */
+public record JournaledOrder(String customerId, Order order) {
+
+	static final byte ORDER = 1;
+
+	public long id() {
+		return OrderIds.id(order.orderNumber());
+	}
+
+	/**
+	 * Type, customer, order number, time as UTC epoch second and nano, currency, total
+	 * and the items, each with its name, quantity, rate, cost, image and currency.
+	 */
+	byte[] encode() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(ORDER);
+			writeNullable(out, customerId);
+			out.writeUTF(order.orderNumber());
+			out.writeLong(order.orderDateTime().toEpochSecond(ZoneOffset.UTC));
+			out.writeInt(order.orderDateTime().getNano());
+			writeNullable(out, order.currency());
+			out.writeFloat(order.total());
+			List<OrderItem> items = order.orderItems() != null ? order.orderItems() : List.of();
+			out.writeShort(items.size());
+			for (OrderItem item : items) {
+				out.writeUTF(item.itemName());
+				out.writeInt(item.qty());
+				out.writeFloat(item.rate());
+				out.writeFloat(item.cost());
+				writeNullable(out, item.image());
+				writeNullable(out, item.currency());
+			}
+		}
+		catch (IOException e) {
+			// not from a ByteArrayOutputStream
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	static JournaledOrder decode(byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		byte type = in.readByte();
+		if (type != ORDER) {
+			throw new IOException("Unknown journal record type " + type);
+		}
+		String customerId = readNullable(in);
+		String orderNumber = in.readUTF();
+		LocalDateTime orderDateTime = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+		String currency = readNullable(in);
+		float total = in.readFloat();
+		int count = in.readUnsignedShort();
+		List<OrderItem> items = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			items.add(new OrderItem(in.readUTF(), in.readInt(), in.readFloat(), in.readFloat(), readNullable(in),
+					readNullable(in)));
+		}
+		return new JournaledOrder(customerId, new Order(orderNumber, orderDateTime, items, total, currency));
+	}
+
+	private static void writeNullable(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readNullable(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+}
@@ -0,0 +1,68 @@
+package com.eg.mcp.orders;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+
+import com.eg.mcp.models.Order;
+import com.eg.mcp.models.OrderItem;
+import com.eg.mcp.models.SportsItem;
+
+/**
+ * An order in the order history indexes, with what queries filter and sort by and where
+ * to read the order from.
+ * @param timeKey the order time as nanoseconds since 1970-01-01T00:00, both in the
+ * server's local time
+ * @param items bit set of the SportsItem ordinals ordered
+ * @param position where the order is in the journal, OrderJournal.NOT_JOURNALED when it
+ * is kept in memory only
+ * @param order null when journaled, it is read back from the journal when asked for
+ */
+record OrderEntry(long timeKey, long id, float total, int items, long position, Order order) {
+
+	/** Latest last */
+	static final Comparator<OrderEntry> BY_TIME = Comparator.comparingLong(OrderEntry::timeKey)
+		.thenComparingLong(OrderEntry::id);
+
+	/** Largest last, the latest last among equal totals */
+	static final Comparator<OrderEntry> BY_TOTAL = Comparator.comparingDouble(OrderEntry::total)
+		.thenComparing(BY_TIME);
+
+	static OrderEntry of(Order order, long position) {
+		int items = 0;
+		for (OrderItem item : order.orderItems()) {
+			SportsItem sportsItem = SportsItem.labelOf(item.itemName());
+			if (sportsItem != null) {
+				items |= 1 << sportsItem.ordinal();
+			}
+		}
+		return new OrderEntry(timeKeyOf(order.orderDateTime()), OrderIds.id(order.orderNumber()), order.total(), items,
+				position, position == OrderJournal.NOT_JOURNALED ? order : null);
+	}
+
+	/**
+	 * @return an entry sorting, by time, before or, with last, after all entries of the
+	 * time
+	 */
+	static OrderEntry timeBound(long timeKey, boolean last) {
+		return new OrderEntry(timeKey, last ? Long.MAX_VALUE : Long.MIN_VALUE, 0, 0, 0, null);
+	}
+
+	/**
+	 * @return an entry sorting, by total, before or, with last, after all entries of the
+	 * total
+	 */
+	static OrderEntry totalBound(float total, boolean last) {
+		return new OrderEntry(last ? Long.MAX_VALUE : Long.MIN_VALUE, last ? Long.MAX_VALUE : Long.MIN_VALUE, total,
+				0, 0, null);
+	}
+
+	static long timeKeyOf(LocalDateTime time) {
+		return Math.addExact(Math.multiplyExact(time.toEpochSecond(ZoneOffset.UTC), 1_000_000_000L), time.getNano());
+	}
+
+	boolean has(SportsItem item) {
+		return (items & 1 << item.ordinal()) != 0;
+	}
+
+}
@@ -0,0 +1,144 @@
+package com.eg.mcp.orders;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.eg.mcp.models.Order;
+import com.eg.mcp.models.ShopperId;
+
+/**
+ * The orders of every shopper, indexed by time, total and item so a page of a long
+ * history is found by walking only that page, plus what the criteria the index does not
+ * bound skip. The indexes hold where a journaled order is, not the order, which is read
+ * back for the page only, so hundreds of thousands of orders take no more memory than
+ * their index entries.
+ * <p>
+ * Built on startup from the latest snapshot and the journal after it, customers' orders
+ * only: a session is gone with the process, no one can ask for its orders again. The
+ * orders of a customer in the snapshot are indexed when first asked for, not on
+ * startup. The orders of a session are forgotten along with its cart.
+ * <p>
+ * Pages are handed out with a cursor, the sort keys of the last order of the page, so
+ * the next page starts right after it even when orders were placed meanwhile. A lookup
+ * looks at MAX_SCANNED orders at most, when criteria the index walked does not bound
+ * match few orders the page comes back short, with a cursor to go on from.
+ */
+public final class OrderHistory {
+
+	/** The most orders looked at by one lookup */
+	static final int MAX_SCANNED = 10_000;
+
+	/** Sort, time key, id and total */
+	private static final int CURSOR_SIZE = 1 + 2 * Long.BYTES + Float.BYTES;
+
+	private final Map<ShopperId, ShopperOrders> shoppers = new ConcurrentHashMap<>();
+
+	private final OrderJournal journal;
+
+	private final StoreSnapshot snapshot;
+
+	OrderHistory(OrderJournal journal, StoreSnapshot snapshot) {
+		this.journal = journal;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * @param position where the journal wrote the order, OrderJournal.NOT_JOURNALED to
+	 * keep it in memory
+	 */
+	public void add(ShopperId shopper, Order order, long position) {
+		add(shopper, OrderEntry.of(order, position));
+	}
+
+	void add(ShopperId shopper, OrderEntry entry) {
+		shoppers.computeIfAbsent(shopper, this::fromSnapshot).add(entry);
+	}
+
+	public void forget(ShopperId shopper) {
+		shoppers.remove(shopper);
+	}
+
+	/**
+	 * @return null when the shopper has no orders
+	 */
+	public Order latest(ShopperId shopper) throws IOException {
+		ShopperOrders orders = orders(shopper);
+		OrderEntry latest = orders != null ? orders.latest() : null;
+		return latest != null ? order(latest) : null;
+	}
+
+	public OrderPage find(ShopperId shopper, OrderQuery query) throws IOException {
+		OrderEntry after = query.cursor() != null ? fromCursor(query.cursor(), query.sort()) : null;
+		ShopperOrders orders = orders(shopper);
+		if (orders == null) {
+			return new OrderPage(List.of(), null);
+		}
+		List<OrderEntry> found = new ArrayList<>(query.limit());
+		OrderEntry next = orders.find(query, after, MAX_SCANNED, found);
+		List<Order> page = new ArrayList<>(found.size());
+		for (OrderEntry entry : found) {
+			page.add(order(entry));
+		}
+		return new OrderPage(page, next != null ? toCursor(next, query.sort()) : null);
+	}
+
+	/**
+	 * @return null when the shopper has no orders
+	 */
+	private ShopperOrders orders(ShopperId shopper) {
+		ShopperOrders orders = shoppers.get(shopper);
+		if (orders == null && shopper.customerId() != null && snapshot.hasOrders(shopper.customerId())) {
+			orders = shoppers.computeIfAbsent(shopper, this::fromSnapshot);
+		}
+		return orders;
+	}
+
+	/**
+	 * Only called while holding the shopper's entry, the shopper's orders are read from
+	 * the snapshot once.
+	 */
+	private ShopperOrders fromSnapshot(ShopperId shopper) {
+		ShopperOrders orders = new ShopperOrders();
+		if (shopper.customerId() != null) {
+			snapshot.orders(shopper.customerId(), orders::add);
+		}
+		return orders;
+	}
+
+	private Order order(OrderEntry entry) throws IOException {
+		return entry.order() != null ? entry.order() : journal.read(entry.position()).order();
+	}
+
+	private static String toCursor(OrderEntry entry, OrderQuery.Sort sort) {
+		ByteBuffer cursor = ByteBuffer.allocate(CURSOR_SIZE)
+			.put((byte) sort.ordinal())
+			.putLong(entry.timeKey())
+			.putLong(entry.id())
+			.putFloat(entry.total());
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.array());
+	}
+
+	/**
+	 * @return an entry sorting where the one the cursor was made from did
+	 */
+	private static OrderEntry fromCursor(String cursor, OrderQuery.Sort sort) {
+		byte[] bytes;
+		try {
+			bytes = Base64.getUrlDecoder().decode(cursor);
+		}
+		catch (IllegalArgumentException e) {
+			bytes = null;
+		}
+		if (bytes == null || bytes.length != CURSOR_SIZE || bytes[0] != sort.ordinal()) {
+			throw new IllegalArgumentException("Not a cursor of this lookup: " + cursor);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, CURSOR_SIZE - 1);
+		return new OrderEntry(buffer.getLong(), buffer.getLong(), buffer.getFloat(), 0, 0, null);
+	}
+
+}
@@ -0,0 +1,48 @@
+package com.eg.mcp.orders;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out order ids, increasing and never the same twice, also across restarts when
+ * started from the last id of the journal. An id is the epoch millis of the checkout
+ * once past the last id handed out and the last id plus one otherwise, so ids still
+ * tell when an order was placed while checkouts landing in the same millisecond each
+ * get their own.
+ */
+public final class OrderIds {
+
+	private static final String PREFIX = "ORD-";
+
+	private final AtomicLong last;
+
+	/**
+	 * @param last the highest id handed out before, 0 when none
+	 */
+	public OrderIds(long last) {
+		this.last = new AtomicLong(last);
+	}
+
+	public long next() {
+		return last.accumulateAndGet(System.currentTimeMillis(), (previous, now) -> Math.max(previous + 1, now));
+	}
+
+	public static String orderNumber(long id) {
+		return PREFIX + id;
+	}
+
+	/**
+	 * @return the id of the order number, 0 when it is not one handed out here
+	 */
+	public static long id(String orderNumber) {
+		if (orderNumber == null || !orderNumber.startsWith(PREFIX)) {
+			return 0;
+		}
+		try {
+			return Long.parseLong(orderNumber, PREFIX.length(), orderNumber.length(), 10);
+		}
+		catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,476 @@
+package com.eg.mcp.orders;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append only journal of the orders checked out and of the changes to customers' carts,
+ * so they outlive the process.
+ * <pre>
+ * header   magic, version (ints)
+ * records  payload length, CRC32C of the payload (ints), payload, payload length again
+ * </pre>
+ * The length at both ends of a record lets the journal be read from its end backwards,
+ * so opening it only reads its tail: a last batch cut short by a crash is found, by
+ * walking back to the last record whose lengths and checksum agree, and cut off.
+ * Reading the records from the start is left to StoreSnapshots, which replays only the
+ * ones after its latest snapshot.
+ * <p>
+ * Checkouts hand their record to the journal thread and wait for it. The thread writes
+ * all the records waiting with one write and one fsync, so concurrent checkouts share
+ * the fsync instead of queuing for one each. Only one process writes a journal, a
+ * server finding it locked by another keeps its orders in memory only.
+ */
+public final class OrderJournal implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(OrderJournal.class);
+
+	public static final String FILE_NAME = "orders.journal";
+
+	private static final int MAGIC = 0x4D43504A;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+	/** Lengths and checksum around the payload */
+	private static final int FRAME_OVERHEAD = 3 * Integer.BYTES;
+
+	/** Records beyond this many bytes wait for the next write */
+	private static final int MAX_BATCH_BYTES = 1 << 20;
+
+	/** Larger payloads are refused, so a garbage length read from a torn tail is told apart */
+	private static final int MAX_RECORD_BYTES = MAX_BATCH_BYTES - FRAME_OVERHEAD;
+
+	/** Position of the orders kept in memory only */
+	public static final long NOT_JOURNALED = -1;
+
+	/** Position of the first record */
+	public static final long START = HEADER_SIZE;
+
+	private record Pending(ByteBuffer frame, CompletableFuture<Long> written) {
+	}
+
+	/**
+	 * Receives the records read by replay, with their position.
+	 */
+	public interface Replay {
+
+		void order(JournaledOrder order, long position);
+
+		void cart(JournaledCart cart, long position);
+
+	}
+
+	/** Tells the journal thread to stop */
+	private static final Pending CLOSE = new Pending(null, null);
+
+	private final Path file;
+
+	private final FileChannel channel;
+
+	private final FileLock lock;
+
+	private final boolean fsync;
+
+	private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+	private final Thread writer;
+
+	/** Where the records written end, only the journal thread moves it */
+	private volatile long end;
+
+	/** Told the new end by the journal thread after every write */
+	private volatile LongConsumer written = newEnd -> {
+	};
+
+	private volatile boolean closed;
+
+	private OrderJournal(Path file, FileChannel channel, FileLock lock, boolean fsync, long end) {
+		this.file = file;
+		this.channel = channel;
+		this.lock = lock;
+		this.fsync = fsync;
+		this.end = end;
+		this.writer = channel != null ? Thread.ofPlatform().name("order-journal").daemon().start(this::writeLoop)
+				: null;
+	}
+
+	/**
+	 * @return a journal keeping nothing, orders are gone with the process
+	 */
+	public static OrderJournal none() {
+		return new OrderJournal(null, null, null, false, HEADER_SIZE);
+	}
+
+	/**
+	 * Opens the journal of the directory, creating it when there is none, and cuts off a
+	 * last batch left incomplete by a crash.
+	 * @param fsync false to leave the records to the OS, they may be lost with the
+	 * machine
+	 */
+	public static OrderJournal open(Path dir, boolean fsync) throws IOException {
+		Files.createDirectories(dir);
+		Path file = dir.resolve(FILE_NAME);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		boolean opened = false;
+		try {
+			FileLock lock;
+			try {
+				lock = channel.tryLock();
+			}
+			catch (OverlappingFileLockException e) {
+				lock = null;
+			}
+			if (lock == null) {
+				logger.warn("{} is in use by another server, orders are kept in memory only", file);
+				return none();
+			}
+			long size = channel.size();
+			if (size == 0) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+				write(channel, header, 0);
+				channel.force(true);
+				size = HEADER_SIZE;
+			}
+			else {
+				ByteBuffer header = read(channel, 0, Math.min(HEADER_SIZE, (int) size));
+				if (size < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+					throw new IOException(file + " is not an order journal");
+				}
+			}
+			long end = lastRecordEnd(channel, size);
+			if (end < size) {
+				logger.warn("Cutting off {} bytes of an incomplete last write at the end of {}", size - end, file);
+				channel.truncate(end);
+				channel.force(true);
+			}
+			channel.position(end);
+			opened = true;
+			return new OrderJournal(file, channel, lock, fsync, end);
+		}
+		finally {
+			if (!opened) {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * @return true for a journal keeping nothing
+	 */
+	public boolean isNone() {
+		return channel == null;
+	}
+
+	/**
+	 * @return where the records written so far end, the start of the first record when
+	 * there are none
+	 */
+	public long end() {
+		return end;
+	}
+
+	/**
+	 * @param written told the new end by the journal thread after every write, it must
+	 * not hold the thread up
+	 */
+	public void onWritten(LongConsumer written) {
+		this.written = written;
+	}
+
+	/**
+	 * Hands the order to the journal thread.
+	 * @return the position of the order in the journal, once it is written, and forced to
+	 * disk unless fsync is off, NOT_JOURNALED right away when there is no journal, or
+	 * failed with the IOException that stopped it
+	 */
+	public CompletableFuture<Long> append(JournaledOrder order) {
+		return channel == null ? CompletableFuture.completedFuture(NOT_JOURNALED) : append(order.encode());
+	}
+
+	/**
+	 * Hands the cart to the journal thread, written in the same batches as the orders.
+	 * Records handed over one after the other are written in that order.
+	 */
+	public CompletableFuture<Long> append(JournaledCart cart) {
+		return channel == null ? CompletableFuture.completedFuture(NOT_JOURNALED) : append(cart.encode());
+	}
+
+	private CompletableFuture<Long> append(byte[] payload) {
+		if (closed) {
+			return CompletableFuture.failedFuture(new IOException(file + " is closed"));
+		}
+		if (payload.length > MAX_RECORD_BYTES) {
+			return CompletableFuture.failedFuture(
+					new IOException("A record of " + payload.length + " bytes is larger than " + MAX_RECORD_BYTES));
+		}
+		CRC32C crc = new CRC32C();
+		crc.update(payload);
+		ByteBuffer frame = ByteBuffer.allocate(payload.length + FRAME_OVERHEAD)
+			.putInt(payload.length)
+			.putInt((int) crc.getValue())
+			.put(payload)
+			.putInt(payload.length)
+			.flip();
+		CompletableFuture<Long> written = new CompletableFuture<>();
+		queue.add(new Pending(frame, written));
+		return written;
+	}
+
+	/**
+	 * @param position of an order, as handed out by append or replay
+	 */
+	public JournaledOrder read(long position) throws IOException {
+		return JournaledOrder.decode(readPayload(position, "order"));
+	}
+
+	/**
+	 * @param position of a cart, as handed out by append or replay
+	 */
+	public JournaledCart readCart(long position) throws IOException {
+		return JournaledCart.decode(readPayload(position, "cart"));
+	}
+
+	private byte[] readPayload(long position, String record) throws IOException {
+		if (channel == null || position < HEADER_SIZE) {
+			throw new IOException("No " + record + " journaled at " + position);
+		}
+		ByteBuffer lengths = read(channel, position, 2 * Integer.BYTES);
+		int length = lengths.getInt(0);
+		if (length < 0 || position + FRAME_OVERHEAD + length > end) {
+			throw new IOException("No " + record + " journaled at " + position);
+		}
+		byte[] payload = new byte[length];
+		read(channel, position + 2 * Integer.BYTES, length).get(payload);
+		return payload;
+	}
+
+	/**
+	 * Reads the records between the positions, from first to last, while the journal is
+	 * written to. Both positions are where a record begins, or the end.
+	 */
+	public void replay(long from, long to, Replay replay) throws IOException {
+		if (channel == null || from >= to) {
+			return;
+		}
+		if (from < START || to > end) {
+			throw new IOException("No records journaled from " + from + " to " + to + " in " + file);
+		}
+		long position = from;
+		try (FileChannel reading = FileChannel.open(file, StandardOpenOption.READ);
+				DataInputStream in = new DataInputStream(
+						new BufferedInputStream(Channels.newInputStream(reading.position(from)), 1 << 16))) {
+			while (position < to) {
+				int length = in.readInt();
+				in.readInt();
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				in.readInt();
+				switch (payload[0]) {
+					case JournaledOrder.ORDER -> replay.order(JournaledOrder.decode(payload), position);
+					case JournaledCart.CART -> replay.cart(JournaledCart.decode(payload), position);
+					default -> throw new IOException("Unknown journal record type " + payload[0] + " at " + position);
+				}
+				position += length + FRAME_OVERHEAD;
+			}
+		}
+	}
+
+	/**
+	 * Writes whatever is waiting, up to MAX_BATCH_BYTES at once, with one write and one
+	 * force. A failed write is cut off again, so the journal never holds half a batch.
+	 */
+	private void writeLoop() {
+		List<Pending> batch = new ArrayList<>();
+		Pending next = take();
+		while (next != CLOSE) {
+			int bytes = 0;
+			while (next != null && next != CLOSE && (batch.isEmpty() || bytes + next.frame().remaining() <= MAX_BATCH_BYTES)) {
+				batch.add(next);
+				bytes += next.frame().remaining();
+				next = queue.poll();
+			}
+			write(batch);
+			batch.clear();
+			if (next == null) {
+				next = take();
+			}
+		}
+		closeChannel();
+		// appended while closing
+		for (Pending left = queue.poll(); left != null; left = queue.poll()) {
+			if (left != CLOSE) {
+				left.written().completeExceptionally(new IOException(file + " is closed"));
+			}
+		}
+	}
+
+	private void write(List<Pending> batch) {
+		long batchEnd = end;
+		try {
+			ByteBuffer[] frames = new ByteBuffer[batch.size()];
+			for (int i = 0; i < frames.length; i++) {
+				frames[i] = batch.get(i).frame();
+				batchEnd += frames[i].remaining();
+			}
+			while (channel.position() < batchEnd) {
+				channel.write(frames);
+			}
+			if (fsync) {
+				channel.force(false);
+			}
+			long position = end;
+			end = batchEnd;
+			logger.debug("Journaled {} orders with one write", batch.size());
+			for (Pending pending : batch) {
+				pending.written().complete(position);
+				position += pending.frame().capacity();
+			}
+			written.accept(batchEnd);
+		}
+		catch (IOException e) {
+			logger.error("Writing {} orders to {} failed", batch.size(), file, e);
+			try {
+				channel.truncate(end);
+				channel.position(end);
+			}
+			catch (IOException truncating) {
+				e.addSuppressed(truncating);
+			}
+			batch.forEach(pending -> pending.written().completeExceptionally(e));
+		}
+	}
+
+	private Pending take() {
+		while (true) {
+			try {
+				return queue.take();
+			}
+			catch (InterruptedException e) {
+				// only CLOSE stops the journal thread, it must not leave checkouts waiting
+			}
+		}
+	}
+
+	/**
+	 * Waits for the orders handed over so far to be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (channel == null || closed) {
+			return;
+		}
+		closed = true;
+		queue.add(CLOSE);
+		try {
+			writer.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void closeChannel() {
+		try {
+			lock.release();
+			channel.close();
+		}
+		catch (IOException e) {
+			logger.warn("Closing {} failed", file, e);
+		}
+	}
+
+	/**
+	 * Walks back from the end of the file to where the last record whose lengths and
+	 * checksum agree ends. The tail is read in growing windows, a torn write is no
+	 * longer than a batch so the first window almost always does.
+	 */
+	private static long lastRecordEnd(FileChannel channel, long size) throws IOException {
+		long window = Math.min(size - HEADER_SIZE, 2L * MAX_BATCH_BYTES);
+		while (window > 0) {
+			long base = size - window;
+			ByteBuffer tail = read(channel, base, (int) window);
+			// the trailing length of a record must be in the window
+			for (long recordEnd = size; recordEnd >= base + Integer.BYTES; recordEnd--) {
+				if (isRecordEnd(channel, tail, base, recordEnd)) {
+					return recordEnd;
+				}
+			}
+			if (base == HEADER_SIZE) {
+				break;
+			}
+			window = Math.min(size - HEADER_SIZE, window * 2);
+		}
+		return HEADER_SIZE;
+	}
+
+	/**
+	 * Whatever the trailing length says is checked before anything it points to is read:
+	 * it must fit between the header and the record end, be no larger than a record can
+	 * be, and match the leading length, else the candidate is not a record end.
+	 */
+	private static boolean isRecordEnd(FileChannel channel, ByteBuffer tail, long base, long recordEnd)
+			throws IOException {
+		int length = tail.getInt((int) (recordEnd - Integer.BYTES - base));
+		if (length < 0 || length > MAX_RECORD_BYTES || length > recordEnd - HEADER_SIZE - FRAME_OVERHEAD) {
+			return false;
+		}
+		long start = recordEnd - FRAME_OVERHEAD - length;
+		ByteBuffer frame;
+		if (start >= base) {
+			frame = tail.slice((int) (start - base), (int) (recordEnd - start));
+			if (frame.getInt(0) != length) {
+				return false;
+			}
+		}
+		else {
+			if (read(channel, start, Integer.BYTES).getInt(0) != length) {
+				return false;
+			}
+			frame = read(channel, start, (int) (recordEnd - start));
+		}
+		CRC32C crc = new CRC32C();
+		crc.update(frame.slice(2 * Integer.BYTES, length));
+		return (int) crc.getValue() == frame.getInt(Integer.BYTES);
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+		return buffer.flip();
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+}
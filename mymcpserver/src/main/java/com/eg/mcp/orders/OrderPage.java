@@ -0,0 +1,14 @@
+package com.eg.mcp.orders;
+
+import java.util.List;
+
+import com.eg.mcp.models.Order;
+
+/**
+ * One page of the orders found.
+ * @param nextCursor where the next page starts, null when there are no more orders. A
+ * page may hold fewer orders than asked for, even none, and still have a next one when
+ * the lookup stopped after looking at as many orders as one lookup may.
+ */
+public record OrderPage(List<Order> orders, String nextCursor) {
+}
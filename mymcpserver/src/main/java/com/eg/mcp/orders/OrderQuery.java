@@ -0,0 +1,31 @@
+package com.eg.mcp.orders;
+
+import java.time.LocalDateTime;
+
+import com.eg.mcp.models.SportsItem;
+
+/**
+ * What to look up in a shopper's order history. Criteria left null match every order.
+ * @param from orders placed at or after this time
+ * @param before orders placed before this time
+ * @param item orders with this item
+ * @param minTotal orders of at least this total
+ * @param maxTotal orders of at most this total
+ * @param sort the order of the pages
+ * @param limit the most orders on one page
+ * @param cursor the nextCursor of the previous page, null for the first one
+ */
+public record OrderQuery(LocalDateTime from, LocalDateTime before, SportsItem item, Float minTotal, Float maxTotal,
+		Sort sort, int limit, String cursor) {
+
+	public enum Sort {
+
+		/** Latest first */
+		LATEST,
+
+		/** Largest total first */
+		LARGEST
+
+	}
+
+}
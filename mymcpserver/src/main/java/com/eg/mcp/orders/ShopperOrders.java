@@ -0,0 +1,101 @@
+package com.eg.mcp.orders;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import com.eg.mcp.models.SportsItem;
+
+/**
+ * The orders of one shopper, kept in skip lists by time, by total and, for each item,
+ * by time again. Added to by checkouts and read by queries at the same time.
+ */
+final class ShopperOrders {
+
+	private final NavigableSet<OrderEntry> byTime = new ConcurrentSkipListSet<>(OrderEntry.BY_TIME);
+
+	private final NavigableSet<OrderEntry> byTotal = new ConcurrentSkipListSet<>(OrderEntry.BY_TOTAL);
+
+	private final Map<SportsItem, NavigableSet<OrderEntry>> byItem = new ConcurrentHashMap<>();
+
+	void add(OrderEntry entry) {
+		byTime.add(entry);
+		byTotal.add(entry);
+		for (SportsItem item : SportsItem.values()) {
+			if (entry.has(item)) {
+				byItem.computeIfAbsent(item, unused -> new ConcurrentSkipListSet<>(OrderEntry.BY_TIME)).add(entry);
+			}
+		}
+	}
+
+	/**
+	 * @return null when there are no orders
+	 */
+	OrderEntry latest() {
+		return byTime.isEmpty() ? null : byTime.last();
+	}
+
+	/**
+	 * Walks the index the query sorts by, from the cursor on, over the range the query
+	 * bounds it to.
+	 * @param after the last entry of the previous page, null for the first page
+	 * @param maxScanned the most entries looked at
+	 * @return the entry to go on after, null when the range is done
+	 */
+	OrderEntry find(OrderQuery query, OrderEntry after, int maxScanned, List<OrderEntry> found) {
+		NavigableSet<OrderEntry> range = range(query);
+		if (range == null) {
+			return null;
+		}
+		if (after != null) {
+			range = range.headSet(after, false);
+		}
+		long fromKey = query.from() != null ? OrderEntry.timeKeyOf(query.from()) : Long.MIN_VALUE;
+		long beforeKey = query.before() != null ? OrderEntry.timeKeyOf(query.before()) : Long.MAX_VALUE;
+		Iterator<OrderEntry> entries = range.descendingIterator();
+		OrderEntry last = null;
+		for (int scanned = 0; entries.hasNext(); scanned++) {
+			if (found.size() == query.limit() || scanned == maxScanned) {
+				return last;
+			}
+			last = entries.next();
+			if (matches(last, query, fromKey, beforeKey)) {
+				found.add(last);
+			}
+		}
+		return null;
+	}
+
+	private NavigableSet<OrderEntry> range(OrderQuery query) {
+		if (query.sort() == OrderQuery.Sort.LARGEST) {
+			return byTotal.subSet(
+					OrderEntry.totalBound(query.minTotal() != null ? query.minTotal() : Float.NEGATIVE_INFINITY, false),
+					true,
+					OrderEntry.totalBound(query.maxTotal() != null ? query.maxTotal() : Float.POSITIVE_INFINITY, true),
+					true);
+		}
+		NavigableSet<OrderEntry> candidates = query.item() != null ? byItem.get(query.item()) : byTime;
+		if (candidates == null) {
+			return null;
+		}
+		return candidates.subSet(
+				OrderEntry.timeBound(query.from() != null ? OrderEntry.timeKeyOf(query.from()) : Long.MIN_VALUE, false),
+				true,
+				OrderEntry.timeBound(query.before() != null ? OrderEntry.timeKeyOf(query.before()) : Long.MAX_VALUE, false),
+				false);
+	}
+
+	/**
+	 * Checks all criteria, whichever the index walked already bounds.
+	 */
+	private static boolean matches(OrderEntry entry, OrderQuery query, long fromKey, long beforeKey) {
+		return entry.timeKey() >= fromKey && entry.timeKey() < beforeKey
+				&& (query.item() == null || entry.has(query.item()))
+				&& (query.minTotal() == null || entry.total() >= query.minTotal())
+				&& (query.maxTotal() == null || entry.total() <= query.maxTotal());
+	}
+
+}
@@ -0,0 +1,245 @@
+package com.eg.mcp.orders;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.eg.mcp.models.SportsItem;
+
+/**
+ * What the journal holds up to a position, folded: the order index entries of every
+ * customer and the carts of the customers who have one.
+ * <pre>
+ * header     magic, version (ints), journal position, last order id (longs),
+ *            directory and carts sizes (ints), number of entries (long)
+ * directory  per customer, its id (UTF) and number of entries (int)
+ * carts      per cart, the customer id (UTF) and the items as journaled
+ * entries    per customer, in directory order and oldest first, time key, id (longs),
+ *            total (float), items (int), journal position (long)
+ * trailer    magic (int)
+ * </pre>
+ * Loading maps the file and reads the directory and the carts only. The entries of a
+ * customer are read straight from the mapping when the customer's orders are first
+ * asked for, fixed size entries so no more than those are read.
+ */
+final class StoreSnapshot {
+
+	static final String FILE_NAME = "store.snapshot";
+
+	private static final int MAGIC = 0x4D435053;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 4 * Integer.BYTES + 3 * Long.BYTES;
+
+	private static final int ENTRY_SIZE = 3 * Long.BYTES + Float.BYTES + Integer.BYTES;
+
+	/** Bytes copied at once from one snapshot to the next */
+	private static final int COPY_SIZE = 1 << 16;
+
+	/** No snapshot yet, the whole journal is replayed */
+	static final StoreSnapshot EMPTY = new StoreSnapshot(OrderJournal.START, 0, Map.of(), Map.of(), null);
+
+	/**
+	 * @param offset where the customer's entries begin in the mapping
+	 */
+	private record Entries(int offset, int count) {
+	}
+
+	private final long journalPosition;
+
+	private final long lastOrderId;
+
+	private final Map<String, Entries> customers;
+
+	private final Map<String, Map<SportsItem, Integer>> carts;
+
+	/** Only read with absolute gets, by any thread */
+	private final ByteBuffer mapped;
+
+	private StoreSnapshot(long journalPosition, long lastOrderId, Map<String, Entries> customers,
+			Map<String, Map<SportsItem, Integer>> carts, ByteBuffer mapped) {
+		this.journalPosition = journalPosition;
+		this.lastOrderId = lastOrderId;
+		this.customers = customers;
+		this.carts = carts;
+		this.mapped = mapped;
+	}
+
+	/**
+	 * @return where the journal records left out of the snapshot begin
+	 */
+	long journalPosition() {
+		return journalPosition;
+	}
+
+	/**
+	 * @return the highest order id journaled, 0 when none was
+	 */
+	long lastOrderId() {
+		return lastOrderId;
+	}
+
+	Map<String, Map<SportsItem, Integer>> carts() {
+		return carts;
+	}
+
+	boolean hasOrders(String customerId) {
+		return customers.containsKey(customerId);
+	}
+
+	/**
+	 * Reads the customer's entries from the mapping, oldest first.
+	 */
+	void orders(String customerId, Consumer<OrderEntry> orders) {
+		Entries entries = customers.get(customerId);
+		if (entries == null) {
+			return;
+		}
+		for (int i = 0, offset = entries.offset(); i < entries.count(); i++, offset += ENTRY_SIZE) {
+			orders.accept(new OrderEntry(mapped.getLong(offset), mapped.getLong(offset + Long.BYTES),
+					mapped.getFloat(offset + 2 * Long.BYTES), mapped.getInt(offset + 2 * Long.BYTES + Float.BYTES),
+					mapped.getLong(offset + 2 * Long.BYTES + Float.BYTES + Integer.BYTES), null));
+		}
+	}
+
+	static StoreSnapshot load(Path file) throws IOException {
+		MappedByteBuffer mapped;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE + Integer.BYTES || size > Integer.MAX_VALUE) {
+				throw new IOException(file + " is not a store snapshot, or too large to map at once");
+			}
+			// the mapping outlives the channel
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		int size = mapped.capacity();
+		if (mapped.getInt(0) != MAGIC || mapped.getInt(Integer.BYTES) != VERSION
+				|| mapped.getInt(size - Integer.BYTES) != MAGIC) {
+			throw new IOException(file + " is not a store snapshot");
+		}
+		long journalPosition = mapped.getLong(2 * Integer.BYTES);
+		long lastOrderId = mapped.getLong(2 * Integer.BYTES + Long.BYTES);
+		int directorySize = mapped.getInt(2 * Integer.BYTES + 2 * Long.BYTES);
+		int cartsSize = mapped.getInt(3 * Integer.BYTES + 2 * Long.BYTES);
+		long entryCount = mapped.getLong(4 * Integer.BYTES + 2 * Long.BYTES);
+		int entriesOffset = HEADER_SIZE + directorySize + cartsSize;
+		if (directorySize < 0 || cartsSize < 0 || entriesOffset + entryCount * ENTRY_SIZE + Integer.BYTES != size) {
+			throw new IOException(file + " is not a store snapshot");
+		}
+		Map<String, Entries> customers = new LinkedHashMap<>();
+		DataInputStream directory = section(mapped, HEADER_SIZE, directorySize);
+		for (int offset = entriesOffset; directory.available() > 0;) {
+			String customerId = directory.readUTF();
+			int count = directory.readInt();
+			customers.put(customerId, new Entries(offset, count));
+			offset += count * ENTRY_SIZE;
+		}
+		Map<String, Map<SportsItem, Integer>> carts = new LinkedHashMap<>();
+		DataInputStream cartsIn = section(mapped, HEADER_SIZE + directorySize, cartsSize);
+		while (cartsIn.available() > 0) {
+			carts.put(cartsIn.readUTF(), JournaledCart.readQuantities(cartsIn));
+		}
+		return new StoreSnapshot(journalPosition, lastOrderId, customers, Collections.unmodifiableMap(carts), mapped);
+	}
+
+	/**
+	 * Writes the next snapshot next to the file and moves it over the file once it is on
+	 * disk, so the file always holds a whole snapshot.
+	 * @param previous copied from, followed by the entries added
+	 * @param added the entries of the orders journaled since the previous snapshot, by
+	 * customer and oldest first
+	 * @param carts all carts, not only the ones changed
+	 */
+	static void write(Path file, long journalPosition, long lastOrderId, StoreSnapshot previous,
+			Map<String, List<OrderEntry>> added, Map<String, Map<SportsItem, Integer>> carts) throws IOException {
+		Map<String, Integer> counts = new LinkedHashMap<>();
+		previous.customers.forEach((customerId, entries) -> counts.put(customerId, entries.count()));
+		added.forEach((customerId, entries) -> counts.merge(customerId, entries.size(), Integer::sum));
+		long entryCount = 0;
+		ByteArrayOutputStream directory = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(directory)) {
+			for (Map.Entry<String, Integer> count : counts.entrySet()) {
+				out.writeUTF(count.getKey());
+				out.writeInt(count.getValue());
+				entryCount += count.getValue();
+			}
+		}
+		ByteArrayOutputStream cartsOut = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(cartsOut)) {
+			for (Map.Entry<String, Map<SportsItem, Integer>> cart : carts.entrySet()) {
+				out.writeUTF(cart.getKey());
+				JournaledCart.writeQuantities(out, cart.getValue());
+			}
+		}
+		Path next = file.resolveSibling(FILE_NAME + ".next");
+		try (FileChannel channel = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(Channels.newOutputStream(channel), COPY_SIZE))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(journalPosition);
+			out.writeLong(lastOrderId);
+			out.writeInt(directory.size());
+			out.writeInt(cartsOut.size());
+			out.writeLong(entryCount);
+			directory.writeTo(out);
+			cartsOut.writeTo(out);
+			byte[] copied = new byte[COPY_SIZE];
+			for (String customerId : counts.keySet()) {
+				previous.copyOrders(customerId, out, copied);
+				for (OrderEntry entry : added.getOrDefault(customerId, List.of())) {
+					out.writeLong(entry.timeKey());
+					out.writeLong(entry.id());
+					out.writeFloat(entry.total());
+					out.writeInt(entry.items());
+					out.writeLong(entry.position());
+				}
+			}
+			out.writeInt(MAGIC);
+			out.flush();
+			channel.force(true);
+		}
+		Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Copies the customer's entries as they are, without reading them one by one.
+	 */
+	private void copyOrders(String customerId, DataOutputStream out, byte[] copied) throws IOException {
+		Entries entries = customers.get(customerId);
+		if (entries == null) {
+			return;
+		}
+		int end = entries.offset() + entries.count() * ENTRY_SIZE;
+		for (int offset = entries.offset(); offset < end; offset += copied.length) {
+			int length = Math.min(copied.length, end - offset);
+			mapped.get(offset, copied, 0, length);
+			out.write(copied, 0, length);
+		}
+	}
+
+	private static DataInputStream section(ByteBuffer mapped, int offset, int size) {
+		byte[] bytes = new byte[size];
+		mapped.get(offset, bytes);
+		return new DataInputStream(new ByteArrayInputStream(bytes));
+	}
+
+}
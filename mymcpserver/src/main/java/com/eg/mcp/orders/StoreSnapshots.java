@@ -0,0 +1,235 @@
+package com.eg.mcp.orders;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eg.mcp.models.ShopperId;
+import com.eg.mcp.models.SportsItem;
+
+/**
+ * Keeps startup from replaying the whole journal. Whenever the journal grew by the
+ * configured number of bytes since the latest snapshot, a thread of its own folds the
+ * records journaled since into the next snapshot: it reads them back from the journal
+ * file, not from State, so checkouts and cart changes never wait for it, and what it
+ * folds is exactly the journal up to a position. On startup the latest snapshot is
+ * mapped and only the journal after it is replayed.
+ * <p>
+ * A snapshot the journal is behind of, because the journal lost writes that were not
+ * forced to disk, or one that cannot be read, is deleted and the whole journal is
+ * replayed.
+ */
+public final class StoreSnapshots implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(StoreSnapshots.class);
+
+	private final Path file;
+
+	private final OrderJournal journal;
+
+	private final long snapshotJournalBytes;
+
+	private final ExecutorService snapshotter;
+
+	private final AtomicBoolean snapshotting = new AtomicBoolean();
+
+	/** Only replaced by the snapshot thread */
+	private volatile StoreSnapshot latest;
+
+	/** Where the journal must end for the next snapshot, also after one failed */
+	private volatile long nextSnapshotEnd;
+
+	private final OrderHistory history;
+
+	private final CustomerCarts carts;
+
+	private final long lastOrderId;
+
+	/**
+	 * What the journal holds after a snapshot, folded.
+	 */
+	private static final class Tail implements OrderJournal.Replay {
+
+		private final Map<String, List<OrderEntry>> orders = new LinkedHashMap<>();
+
+		private final Map<String, Map<SportsItem, Integer>> carts;
+
+		private long lastOrderId;
+
+		Tail(StoreSnapshot snapshot) {
+			this.carts = new LinkedHashMap<>(snapshot.carts());
+			this.lastOrderId = snapshot.lastOrderId();
+		}
+
+		@Override
+		public void order(JournaledOrder order, long position) {
+			lastOrderId = Math.max(lastOrderId, order.id());
+			if (order.customerId() != null) {
+				orders.computeIfAbsent(order.customerId(), unused -> new ArrayList<>())
+					.add(OrderEntry.of(order.order(), position));
+			}
+		}
+
+		@Override
+		public void cart(JournaledCart cart, long position) {
+			if (cart.quantities().isEmpty()) {
+				carts.remove(cart.customerId());
+			}
+			else {
+				carts.put(cart.customerId(), cart.quantities());
+			}
+		}
+
+	}
+
+	private StoreSnapshots(Path file, OrderJournal journal, long snapshotJournalBytes, StoreSnapshot latest,
+			Tail tail) {
+		this.file = file;
+		this.journal = journal;
+		this.snapshotJournalBytes = snapshotJournalBytes;
+		this.latest = latest;
+		this.nextSnapshotEnd = latest.journalPosition() + snapshotJournalBytes;
+		this.history = new OrderHistory(journal, latest);
+		tail.orders.forEach((customerId, entries) -> {
+			ShopperId customer = ShopperId.customer(customerId);
+			entries.forEach(entry -> history.add(customer, entry));
+		});
+		this.carts = new CustomerCarts(journal, tail.carts);
+		this.lastOrderId = tail.lastOrderId;
+		this.snapshotter = file != null ? Executors
+			.newSingleThreadExecutor(Thread.ofPlatform().name("store-snapshot").daemon().factory()) : null;
+	}
+
+	/**
+	 * @return no snapshots, for a journal keeping nothing
+	 */
+	public static StoreSnapshots none(OrderJournal journal) {
+		return new StoreSnapshots(null, journal, Long.MAX_VALUE, StoreSnapshot.EMPTY, new Tail(StoreSnapshot.EMPTY));
+	}
+
+	/**
+	 * Loads the latest snapshot of the directory, replays the journal after it and takes
+	 * snapshots from then on.
+	 * @param snapshotJournalBytes how much the journal grows before the next snapshot
+	 */
+	public static StoreSnapshots open(Path dir, OrderJournal journal, long snapshotJournalBytes)
+			throws IOException {
+		Path file = dir.resolve(StoreSnapshot.FILE_NAME);
+		StoreSnapshot latest = StoreSnapshot.EMPTY;
+		if (Files.exists(file)) {
+			try {
+				latest = StoreSnapshot.load(file);
+			}
+			catch (IOException e) {
+				logger.warn("Deleting {}, the whole journal is replayed: {}", file, e.getMessage());
+			}
+		}
+		if (latest.journalPosition() > journal.end()) {
+			logger.warn("Deleting {}, it is ahead of the journal, which lost its last writes, the whole journal is replayed",
+					file);
+			latest = StoreSnapshot.EMPTY;
+		}
+		if (latest == StoreSnapshot.EMPTY) {
+			// once the journal grew past it again, it would pass for a snapshot of the journal
+			Files.deleteIfExists(file);
+		}
+		long started = System.nanoTime();
+		Tail tail = new Tail(latest);
+		journal.replay(latest.journalPosition(), journal.end(), tail);
+		logger.info("Replayed {} journal bytes after the snapshot in {} ms", journal.end() - latest.journalPosition(),
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+		StoreSnapshots snapshots = new StoreSnapshots(file, journal, snapshotJournalBytes, latest, tail);
+		journal.onWritten(snapshots::written);
+		// a journal grown long without snapshots, e.g. by an earlier version, gets one now
+		snapshots.written(journal.end());
+		return snapshots;
+	}
+
+	/**
+	 * @return the orders of the snapshot and of the journal after it
+	 */
+	public OrderHistory history() {
+		return history;
+	}
+
+	/**
+	 * @return the customers' carts as of the last change journaled
+	 */
+	public CustomerCarts carts() {
+		return carts;
+	}
+
+	/**
+	 * @return the highest order id journaled, 0 when none was
+	 */
+	public long lastOrderId() {
+		return lastOrderId;
+	}
+
+	/**
+	 * Called by the journal thread, hands the snapshot over to the snapshot thread.
+	 */
+	private void written(long end) {
+		if (end >= nextSnapshotEnd && snapshotting.compareAndSet(false, true)) {
+			try {
+				snapshotter.execute(this::snapshot);
+			}
+			catch (RejectedExecutionException e) {
+				// closing, the journal after the latest snapshot is replayed on startup
+				snapshotting.set(false);
+			}
+		}
+	}
+
+	private void snapshot() {
+		long end = journal.end();
+		try {
+			long started = System.nanoTime();
+			StoreSnapshot previous = latest;
+			Tail tail = new Tail(previous);
+			journal.replay(previous.journalPosition(), end, tail);
+			StoreSnapshot.write(file, end, tail.lastOrderId, previous, tail.orders, tail.carts);
+			latest = StoreSnapshot.load(file);
+			logger.debug("Took a snapshot of the journal up to {} in {} ms", end,
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+		}
+		catch (IOException | RuntimeException e) {
+			logger.error("Taking a snapshot into {} failed", file, e);
+		}
+		finally {
+			nextSnapshotEnd = end + snapshotJournalBytes;
+			snapshotting.set(false);
+		}
+	}
+
+	/**
+	 * Lets a snapshot being taken finish, the journal is closed after.
+	 */
+	@Override
+	public void close() {
+		if (snapshotter == null) {
+			return;
+		}
+		snapshotter.shutdown();
+		try {
+			snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+package com.eg.mcp.providers.others;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import com.eg.mcp.capture.WireCapture;
+import com.eg.mcp.mytransport.TransportStats;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.logaritex.mcp.annotation.McpResource;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.search.Search;
+import io.modelcontextprotocol.spec.McpSchema.ReadResourceRequest;
+import io.modelcontextprotocol.spec.McpSchema.ResourceContents;
+import io.modelcontextprotocol.spec.McpSchema.TextResourceContents;
+
+/*
+ * Lets an agent look at the transport meters from inside its session.
+ * Message rates are computed against the previous read of the resource.
+ */
+@Service
+public class ServerMetricsResourceProvider {
+
+	private static final String PREFIX = TransportStats.METER_PREFIX;
+
+	private final MeterRegistry meterRegistry;
+
+	private final ObjectMapper jsonMapper;
+
+	private final AtomicReference<Sample> lastSample;
+
+	public ServerMetricsResourceProvider(MeterRegistry meterRegistry, ObjectMapper jsonMapper) {
+		this.meterRegistry = meterRegistry;
+		this.jsonMapper = jsonMapper;
+		this.lastSample = new AtomicReference<>(new Sample(System.nanoTime(), 0, 0));
+	}
+
+	@McpResource(uri = "mcp://brandz/server/metrics", name = "server_metrics", description = "return transport metrics in json: message and byte counts, message rates, queue depths, abandoned requests, request latency percentiles per method and tool and wire capture bytes, including the ones dropped")
+	public ResourceContents metrics(ReadResourceRequest request) throws IOException {
+		return new TextResourceContents(request.uri(), MediaType.APPLICATION_JSON_VALUE,
+				jsonMapper.writeValueAsString(snapshot()));
+	}
+
+	private Map<String, Object> snapshot() {
+		double messagesIn = count("messages", "in");
+		double messagesOut = count("messages", "out");
+		Sample sample = new Sample(System.nanoTime(), messagesIn, messagesOut);
+		Sample previous = lastSample.getAndSet(sample);
+		double seconds = Math.max((sample.nanos() - previous.nanos()) / 1e9, 1e-3);
+
+		Map<String, Object> snapshot = new LinkedHashMap<>();
+		snapshot.put("messages", Map.of("in", (long) messagesIn, "out", (long) messagesOut,
+				"inPerSecond", round((messagesIn - previous.messagesIn()) / seconds),
+				"outPerSecond", round((messagesOut - previous.messagesOut()) / seconds)));
+		snapshot.put("bytes", Map.of("in", (long) count("bytes", "in"), "out", (long) count("bytes", "out")));
+		snapshot.put("queueDepth", Map.of("in", (long) gauge("queue.depth", "in"), "out",
+				(long) gauge("queue.depth", "out")));
+		snapshot.put("rejected", Map.of("in", (long) count("rejected", "in"), "out", (long) count("rejected", "out")));
+		snapshot.put("abandoned", Map.of("cancelled", (long) count("abandoned", "reason", "cancelled"), "deadline",
+				(long) count("abandoned", "reason", "deadline")));
+		snapshot.put("flushes", (long) count("flushes", null));
+		snapshot.put("requests", requests());
+		snapshot.put("capture", Map.of("in", (long) captureCount("bytes", "in"), "out",
+				(long) captureCount("bytes", "out"), "droppedBytes", (long) captureCount("dropped.bytes", null)));
+		return snapshot;
+	}
+
+	private List<Map<String, Object>> requests() {
+		List<Map<String, Object>> requests = new ArrayList<>();
+		for (Timer timer : Search.in(meterRegistry).name(PREFIX + "request.latency").timers()) {
+			HistogramSnapshot histogram = timer.takeSnapshot();
+			Map<String, Object> entry = new LinkedHashMap<>();
+			entry.put("method", timer.getId().getTag("method"));
+			entry.put("tool", timer.getId().getTag("tool"));
+			entry.put("count", histogram.count());
+			entry.put("meanMs", round(histogram.mean(TimeUnit.MILLISECONDS)));
+			entry.put("maxMs", round(histogram.max(TimeUnit.MILLISECONDS)));
+			for (ValueAtPercentile percentile : histogram.percentileValues()) {
+				entry.put("p" + Math.round(percentile.percentile() * 100) + "Ms",
+						round(percentile.value(TimeUnit.MILLISECONDS)));
+			}
+			requests.add(entry);
+		}
+		return requests;
+	}
+
+	private double count(String name, String direction) {
+		return count(name, "direction", direction);
+	}
+
+	private double captureCount(String name, String direction) {
+		return meterCount(WireCapture.METER_PREFIX + name, "direction", direction);
+	}
+
+	private double count(String name, String tagKey, String tagValue) {
+		return meterCount(PREFIX + name, tagKey, tagValue);
+	}
+
+	private double meterCount(String meterName, String tagKey, String tagValue) {
+		Search search = Search.in(meterRegistry).name(meterName);
+		if (tagValue != null) {
+			search = search.tag(tagKey, tagValue);
+		}
+		FunctionCounter counter = search.functionCounter();
+		return counter == null ? 0d : counter.count();
+	}
+
+	private double gauge(String name, String direction) {
+		Gauge gauge = Search.in(meterRegistry).name(PREFIX + name).tag("direction", direction).gauge();
+		return gauge == null ? 0d : gauge.value();
+	}
+
+	private static double round(double value) {
+		return Math.round(value * 1000d) / 1000d;
+	}
+
+	private record Sample(long nanos, double messagesIn, double messagesOut) {
+	}
+
+}
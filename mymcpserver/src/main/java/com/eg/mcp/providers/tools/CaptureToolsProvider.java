@@ -0,0 +1,57 @@
+package com.eg.mcp.providers.tools;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
+import org.springframework.stereotype.Service;
+
+import com.eg.mcp.capture.CaptureQuery;
+import com.eg.mcp.capture.WireCapture;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/*
+ * Lets an agent, or whoever debugs one, look requests up in the wire capture instead of
+ * grepping the combined file. Lookups go through the capture index.
+ */
+@Service
+public class CaptureToolsProvider {
+
+	private static final int DEFAULT_LIMIT = 20;
+
+	private static final int MAX_LIMIT = 100;
+
+	private final WireCapture wireCapture;
+
+	private final ObjectMapper jsonMapper;
+
+	public CaptureToolsProvider(WireCapture wireCapture, ObjectMapper jsonMapper) {
+		this.wireCapture = wireCapture;
+		this.jsonMapper = jsonMapper;
+	}
+
+	@Tool(name = "find_captured_requests", description = "Find requests in the wire capture of this server, latest first, e.g. the last 20 checkout_and_pay tool calls slower than 100 ms. Returns json: seq, timestamp, durationMillis (null when no response was captured), id, method, toolName, segment and offset of the line in the combined capture and, when asked for, the request and response messages")
+	public String findCapturedRequests(
+			@ToolParam(required = false, description = "JSON-RPC method, e.g. tools/call") String method,
+			@ToolParam(required = false, description = "name of the tool called, e.g. checkout_and_pay") String toolName,
+			@ToolParam(required = false, description = "JSON-RPC id of the request") String requestId,
+			@ToolParam(required = false, description = "only requests answered after at least this many milliseconds") Long minDurationMillis,
+			@ToolParam(required = false, description = "only requests received at or after this ISO-8601 instant, e.g. 2025-01-31T10:15:30Z") String from,
+			@ToolParam(required = false, description = "only requests received at or before this ISO-8601 instant") String to,
+			@ToolParam(required = false, description = "most requests returned, 20 by default, 100 at most") Integer limit,
+			@ToolParam(required = false, description = "whether to include the captured request and response messages") Boolean includeMessages)
+			throws IOException {
+		CaptureQuery query = new CaptureQuery(method, toolName, requestId, from != null ? Instant.parse(from) : null,
+				to != null ? Instant.parse(to) : null,
+				minDurationMillis != null ? Duration.ofMillis(minDurationMillis) : null,
+				limit(limit));
+		return jsonMapper.writeValueAsString(wireCapture.find(query, Boolean.TRUE.equals(includeMessages)));
+	}
+
+	private static int limit(Integer limit) {
+		return limit != null ? Math.clamp(limit, 1, MAX_LIMIT) : DEFAULT_LIMIT;
+	}
+
+}
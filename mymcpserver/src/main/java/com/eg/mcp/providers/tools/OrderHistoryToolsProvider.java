@@ -0,0 +1,135 @@
+package com.eg.mcp.providers.tools;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.function.Supplier;
+
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
+import org.springframework.stereotype.Service;
+
+import com.eg.mcp.models.SportsItem;
+import com.eg.mcp.models.State;
+import com.eg.mcp.orders.OrderQuery;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/*
+ * Lets a shopper page through past orders, not only the last one. Lookups go through
+ * the order history indexes, a page costs the same however long the history is.
+ */
+@Service
+public class OrderHistoryToolsProvider {
+
+	private static final int DEFAULT_LIMIT = 20;
+
+	private static final int MAX_LIMIT = 100;
+
+	private static final String RETURNS = "Returns json: orders, and nextCursor to pass as cursor for the next page, null when there are no more orders. A page may hold fewer orders than the limit and still have a next page.";
+
+	private static final String FROM = "only orders placed on or after this date, e.g. 2025-01, 2025-01-31 or 2025-01-31T10:15:30";
+
+	private static final String TO = "only orders placed on or before this date, e.g. 2025-01, 2025-01-31 or 2025-01-31T10:15:30";
+
+	private static final String LIMIT = "most orders on one page, 20 by default, 100 at most";
+
+	private static final String CURSOR = "nextCursor of the previous page, left out for the first page";
+
+	private final State state;
+
+	private final ObjectMapper jsonMapper;
+
+	public OrderHistoryToolsProvider(State state, ObjectMapper jsonMapper) {
+		this.state = state;
+		this.jsonMapper = jsonMapper;
+	}
+
+	@Tool(name = "list_past_orders", description = "List past orders, latest first, one page at a time. " + RETURNS)
+	public String listPastOrders(
+			@ToolParam(required = false, description = FROM) String from,
+			@ToolParam(required = false, description = TO) String to,
+			@ToolParam(required = false, description = LIMIT) Integer limit,
+			@ToolParam(required = false, description = CURSOR) String cursor,
+			@ToolParam(required = false, description = Shoppers.CUSTOMER_ID) String customerId, ToolContext toolContext)
+			throws IOException {
+		OrderQuery query = new OrderQuery(from(from), before(to), null, null, null, OrderQuery.Sort.LATEST,
+				limit(limit), cursor);
+		return jsonMapper.writeValueAsString(state.findOrders(Shoppers.of(customerId, toolContext), query));
+	}
+
+	@Tool(name = "search_past_orders", description = "Search past orders by date, item and total, latest or largest first, one page at a time, e.g. the orders with a Tennis ball of at least 50 placed in 2025-01. " + RETURNS)
+	public String searchPastOrders(
+			@ToolParam(required = false, description = "only orders with this item") String itemName,
+			@ToolParam(required = false, description = "only orders of at least this total") Float minTotal,
+			@ToolParam(required = false, description = "only orders of at most this total") Float maxTotal,
+			@ToolParam(required = false, description = FROM) String from,
+			@ToolParam(required = false, description = TO) String to,
+			@ToolParam(required = false, description = "latest, the default, or largest for the largest total first") String sortBy,
+			@ToolParam(required = false, description = LIMIT) Integer limit,
+			@ToolParam(required = false, description = CURSOR) String cursor,
+			@ToolParam(required = false, description = Shoppers.CUSTOMER_ID) String customerId, ToolContext toolContext)
+			throws IOException {
+		SportsItem item = null;
+		if (itemName != null && !itemName.isBlank()) {
+			item = SportsItem.labelOf(itemName);
+			if (item == null) {
+				throw new RuntimeException("Brand Z Sports store does not stock " + itemName);
+			}
+		}
+		OrderQuery query = new OrderQuery(from(from), before(to), item, minTotal, maxTotal, sort(sortBy),
+				limit(limit), cursor);
+		return jsonMapper.writeValueAsString(state.findOrders(Shoppers.of(customerId, toolContext), query));
+	}
+
+	private static LocalDateTime from(String date) {
+		if (date == null || date.isBlank()) {
+			return null;
+		}
+		return switch (date.length()) {
+			case 7 -> parse(date, () -> YearMonth.parse(date).atDay(1).atStartOfDay());
+			case 10 -> parse(date, () -> LocalDate.parse(date).atStartOfDay());
+			default -> parse(date, () -> LocalDateTime.parse(date));
+		};
+	}
+
+	/**
+	 * @return the time right after the date, a month or day taken as a whole
+	 */
+	private static LocalDateTime before(String date) {
+		if (date == null || date.isBlank()) {
+			return null;
+		}
+		return switch (date.length()) {
+			case 7 -> parse(date, () -> YearMonth.parse(date).plusMonths(1).atDay(1).atStartOfDay());
+			case 10 -> parse(date, () -> LocalDate.parse(date).plusDays(1).atStartOfDay());
+			default -> parse(date, () -> LocalDateTime.parse(date).plusNanos(1));
+		};
+	}
+
+	private static LocalDateTime parse(String date, Supplier<LocalDateTime> parsed) {
+		try {
+			return parsed.get();
+		}
+		catch (DateTimeParseException e) {
+			throw new RuntimeException("Not a date: " + date + ", e.g. 2025-01, 2025-01-31 or 2025-01-31T10:15:30");
+		}
+	}
+
+	private static OrderQuery.Sort sort(String sortBy) {
+		if (sortBy == null || sortBy.isBlank() || sortBy.equalsIgnoreCase("latest")) {
+			return OrderQuery.Sort.LATEST;
+		}
+		if (sortBy.equalsIgnoreCase("largest")) {
+			return OrderQuery.Sort.LARGEST;
+		}
+		throw new RuntimeException("Orders are sorted by latest or largest, not " + sortBy);
+	}
+
+	private static int limit(Integer limit) {
+		return limit != null ? Math.clamp(limit, 1, MAX_LIMIT) : DEFAULT_LIMIT;
+	}
+
+}
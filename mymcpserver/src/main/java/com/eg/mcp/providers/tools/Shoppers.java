@@ -0,0 +1,35 @@
+package com.eg.mcp.providers.tools;
+
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.mcp.McpToolUtils;
+
+import com.eg.mcp.models.ShopperId;
+
+import io.modelcontextprotocol.server.McpSyncServerExchange;
+
+/*
+ * Tells whose cart a cart or order tool call is about.
+ */
+final class Shoppers {
+
+	static final String CUSTOMER_ID = "id of the customer shopping, for a client shopping on behalf of several customers. Without it the cart belongs to the client's session";
+
+	private Shoppers() {
+	}
+
+	/**
+	 * @return the customer when the call names one, the session it was made in
+	 * otherwise. The session is known by the client info it was initialized with, held
+	 * by the session for as long as it lasts.
+	 */
+	static ShopperId of(String customerId, ToolContext toolContext) {
+		if (customerId != null && !customerId.isBlank()) {
+			return ShopperId.customer(customerId);
+		}
+		return McpToolUtils.getMcpExchange(toolContext)
+			.map(McpSyncServerExchange::getClientInfo)
+			.map(ShopperId::session)
+			.orElse(ShopperId.ANONYMOUS);
+	}
+
+}
@@ -4,7 +4,9 @@ import java.io.IOException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.model.ToolContext;
 import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
 import org.springframework.stereotype.Service;
 
 import com.eg.mcp.models.Cart;
@@ -68,39 +70,45 @@ public class StoreResourceNowToolsProvider {
 	}
 
 	@Tool(name = "get_cart_content_in_json", description = "get cart content formatted in json")
-	public String cartjson() throws IOException {
-		Cart cart = state.toCart();
+	public String cartjson(
+			@ToolParam(required = false, description = Shoppers.CUSTOMER_ID) String customerId, ToolContext toolContext) throws IOException {
+		Cart cart = state.toCart(Shoppers.of(customerId, toolContext));
 		return jsonMapper.writeValueAsString(cart);
 	}
 
 	@Tool(name = "get_cart_content_in_xml", description = "get cart content formatted in xml")
-	public String cartxml() throws IOException {
-		Cart cart = state.toCart();
+	public String cartxml(
+			@ToolParam(required = false, description = Shoppers.CUSTOMER_ID) String customerId, ToolContext toolContext) throws IOException {
+		Cart cart = state.toCart(Shoppers.of(customerId, toolContext));
 		return xmlMapper.writeValueAsString(cart);
 	}
 
 	@Tool(name = "get_cart_content_in_markdown", description = "get cart content formatted in markdown")
-	public String cartmd() {
-		Cart cart = state.toCart();
+	public String cartmd(
+			@ToolParam(required = false, description = Shoppers.CUSTOMER_ID) String customerId, ToolContext toolContext) {
+		Cart cart = state.toCart(Shoppers.of(customerId, toolContext));
 		return markdownMapper.writeValueAsString(cart);
 	}
 
 	@Tool(name = "get_last_order_content_in_json", description = "get last order content formatted in json")
-	public String lastorderjson() throws IOException {
-		Order lastOrder = state.getLastOrder();
+	public String lastorderjson(
+			@ToolParam(required = false, description = Shoppers.CUSTOMER_ID) String customerId, ToolContext toolContext) throws IOException {
+		Order lastOrder = state.getLastOrder(Shoppers.of(customerId, toolContext));
 		return jsonMapper.writeValueAsString(lastOrder);
 	}
 
 	@Tool(name = "get_last_order_content_in_xml", description = "get last order content formatted in xml")
-	public String lastorderxml() throws IOException {
-		Order lastOrder = state.getLastOrder();
+	public String lastorderxml(
+			@ToolParam(required = false, description = Shoppers.CUSTOMER_ID) String customerId, ToolContext toolContext) throws IOException {
+		Order lastOrder = state.getLastOrder(Shoppers.of(customerId, toolContext));
 		return xmlMapper.writeValueAsString(lastOrder);
 	}
 
 	@Tool(name = "get_last_order_content_in_markdown", description = "get last order content formatted in markdown")
-	public String lastordermd() {
+	public String lastordermd(
+			@ToolParam(required = false, description = Shoppers.CUSTOMER_ID) String customerId, ToolContext toolContext) {
 		logger.debug("Entered lastordermd");
-		Order lastOrder = state.getLastOrder();
+		Order lastOrder = state.getLastOrder(Shoppers.of(customerId, toolContext));
 		logger.debug("Got lastorder");
 		String content = markdownMapper.writeValueAsString(lastOrder);
 		logger.debug("Got content");
@@ -6,7 +6,9 @@ import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.model.ToolContext;
 import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
 import org.springframework.stereotype.Service;
 
 import com.eg.mcp.models.SportsItem;
@@ -71,24 +73,28 @@ public class StoreToolsProvider {
 	}
 
 	@Tool(name = "add_to_cart_item", description = "Add to cart item by specifying item name and its quantity")
-	public void addToCart(String itemName, int quantity) {
+	public void addToCart(String itemName, int quantity,
+			@ToolParam(required = false, description = Shoppers.CUSTOMER_ID) String customerId, ToolContext toolContext) {
 		logger.debug("addingTocart " + itemName + " with quantity=" + quantity);
-		state.addToCart(itemName, quantity);
+		state.addToCart(Shoppers.of(customerId, toolContext), itemName, quantity);
 	}
 
 	@Tool(name = "change_quantity_of_cart_item", description = "Change the quantity of the specified cart item to specified quantity")
-	public void changeQuantityOfCartItem(String itemName, int quantity) {
-		state.changeQuantityOfCartItem(itemName, quantity);
+	public void changeQuantityOfCartItem(String itemName, int quantity,
+			@ToolParam(required = false, description = Shoppers.CUSTOMER_ID) String customerId, ToolContext toolContext) {
+		state.changeQuantityOfCartItem(Shoppers.of(customerId, toolContext), itemName, quantity);
 	}
 
 	@Tool(name = "remove_item_from_cart_completely", description = "Remove item  from cart item by specifying item name. Can think that its quantity was reduced to 0. Item will no longer occur in the cart.")
-	public void removeFromCart(String itemName) {
-		state.removeFromCart(itemName);
+	public void removeFromCart(String itemName,
+			@ToolParam(required = false, description = Shoppers.CUSTOMER_ID) String customerId, ToolContext toolContext) {
+		state.removeFromCart(Shoppers.of(customerId, toolContext), itemName);
 	}
 
 	@Tool(name = "checkout_and_pay", description = "Check out items in the cart. Payment is automatic. After checkout order is available as last order.")
-	public void checkout() {
-		state.checkout();
+	public void checkout(
+			@ToolParam(required = false, description = Shoppers.CUSTOMER_ID) String customerId, ToolContext toolContext) {
+		state.checkout(Shoppers.of(customerId, toolContext));
 	}
 
 }
@@ -1,6 +1,11 @@
 package com.eg.mcp.utils;
 
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
 
 /**
  * @author bnasslahsen
@@ -8,4 +13,13 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 @ConfigurationProperties(prefix = "mine.mcp.logging")
 public record McpLoggingProperties(String path, String countriesFileName,
 								   String inFileName, String outFileName,
-								   String combinedFileName, String imagesServerUrl) {}
+								   String combinedFileName, String imagesServerUrl,
+								   @DefaultValue("4194304") int captureBufferSize,
+								   @DefaultValue("67108864") int captureSegmentSize,
+								   @DefaultValue("1h") Duration captureSegmentMaxAge,
+								   @DefaultValue("1073741824") long captureRetentionBytes,
+								   @DefaultValue("true") boolean captureCompress,
+								   @DefaultValue Set<String> captureInclude,
+								   @DefaultValue Set<String> captureExclude,
+								   @DefaultValue Map<String, Double> captureSampleRates,
+								   @DefaultValue("1048576") int captureMaxPayloadBytes) {}
@@ -0,0 +1,23 @@
+package com.eg.mcp.utils;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Limits of the carts kept by State, one per shopper, and where orders and customers'
+ * carts are kept. Defaults apply whenever a property is left out of
+ * application.properties. Without a path they are kept in memory only.
+ */
+@ConfigurationProperties(prefix = McpStoreProperties.PREFIX)
+public record McpStoreProperties(@DefaultValue("30m") Duration cartIdleTimeout,
+		@DefaultValue("100000") int maxCarts,
+		Path path,
+		@DefaultValue("true") boolean journalFsync,
+		@DefaultValue("16777216") long snapshotJournalBytes) {
+
+	public static final String PREFIX = "mine.mcp.store";
+
+}
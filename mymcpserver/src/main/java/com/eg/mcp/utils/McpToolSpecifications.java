@@ -0,0 +1,132 @@
+package com.eg.mcp.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.execution.ToolCallResultConverter;
+import org.springframework.ai.tool.support.ToolDefinitions;
+import org.springframework.ai.tool.support.ToolUtils;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.modelcontextprotocol.server.McpServerFeatures.SyncToolSpecification;
+import io.modelcontextprotocol.spec.McpSchema;
+
+/**
+ * Builds MCP tool specifications from {@link Tool} annotated methods, as
+ * MethodToolCallbackProvider and McpToolUtils do together, without their detours.
+ * <p>
+ * Those turn the already parsed arguments of a tools/call back into a JSON string, parse
+ * that into a map again and then serialize and parse every single argument once more to
+ * get it into its parameter type. Here the parameter types are resolved once per method
+ * and every argument goes straight from the parsed request into the parameter, as is
+ * when it already has the right type, converted through the cached type otherwise. Tool
+ * definitions, result conversion and error results are the ones Spring AI produces.
+ */
+public final class McpToolSpecifications {
+
+	private McpToolSpecifications() {
+	}
+
+	public static List<SyncToolSpecification> from(ObjectMapper objectMapper, Object... toolObjects) {
+		List<SyncToolSpecification> specifications = new ArrayList<>();
+		for (Object toolObject : toolObjects) {
+			Class<?> toolClass = AopUtils.isAopProxy(toolObject) ? AopUtils.getTargetClass(toolObject)
+					: toolObject.getClass();
+			for (Method method : ReflectionUtils.getDeclaredMethods(toolClass)) {
+				if (method.isAnnotationPresent(Tool.class)) {
+					specifications.add(new BoundToolMethod(objectMapper, toolObject, method).toSpecification());
+				}
+			}
+		}
+		return specifications;
+	}
+
+	private static final class BoundToolMethod {
+
+		private final ObjectMapper objectMapper;
+
+		private final Object toolObject;
+
+		private final Method method;
+
+		private final ToolDefinition toolDefinition;
+
+		private final ToolCallResultConverter resultConverter;
+
+		private final String[] parameterNames;
+
+		/** Boxed for primitives, so isInstance accepts what the parser produced */
+		private final Class<?>[] parameterClasses;
+
+		private final JavaType[] parameterTypes;
+
+		BoundToolMethod(ObjectMapper objectMapper, Object toolObject, Method method) {
+			this.objectMapper = objectMapper;
+			this.toolObject = toolObject;
+			this.method = method;
+			this.toolDefinition = ToolDefinitions.from(method);
+			this.resultConverter = ToolUtils.getToolCallResultConverter(method);
+			ReflectionUtils.makeAccessible(method);
+
+			Parameter[] parameters = method.getParameters();
+			this.parameterNames = new String[parameters.length];
+			this.parameterClasses = new Class<?>[parameters.length];
+			this.parameterTypes = new JavaType[parameters.length];
+			for (int i = 0; i < parameters.length; i++) {
+				parameterNames[i] = parameters[i].getName();
+				parameterClasses[i] = ClassUtils.resolvePrimitiveIfNecessary(parameters[i].getType());
+				parameterTypes[i] = objectMapper.constructType(parameters[i].getParameterizedType());
+			}
+		}
+
+		SyncToolSpecification toSpecification() {
+			McpSchema.Tool tool = new McpSchema.Tool(toolDefinition.name(), toolDefinition.description(),
+					toolDefinition.inputSchema());
+			return new SyncToolSpecification(tool, (exchange, arguments) -> {
+				try {
+					Object result = method.invoke(toolObject, bind(arguments, exchange));
+					String text = resultConverter.convert(result, method.getGenericReturnType());
+					return new McpSchema.CallToolResult(List.of(new McpSchema.TextContent(text)), false);
+				}
+				catch (Exception e) {
+					Throwable cause = e instanceof InvocationTargetException ite ? ite.getCause() : e;
+					// an NPE inside a tool has no message, the exception itself at least names it
+					String message = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+					return new McpSchema.CallToolResult(List.of(new McpSchema.TextContent(message)), true);
+				}
+			});
+		}
+
+		private Object[] bind(Map<String, Object> arguments, Object exchange) {
+			Object[] values = new Object[parameterNames.length];
+			for (int i = 0; i < values.length; i++) {
+				if (parameterClasses[i] == ToolContext.class) {
+					values[i] = new ToolContext(Map.of("exchange", exchange));
+					continue;
+				}
+				Object argument = arguments == null ? null : arguments.get(parameterNames[i]);
+				if (argument == null || parameterClasses[i].isInstance(argument)) {
+					values[i] = argument;
+				}
+				else {
+					values[i] = objectMapper.convertValue(argument, parameterTypes[i]);
+				}
+			}
+			return values;
+		}
+
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.eg.mcp.utils;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import com.eg.mcp.framing.BinaryFramingProtocol;
+
+/**
+ * Tuning knobs for the stdio transport.
+ * Defaults apply whenever a property is left out of application.properties.
+ */
+@ConfigurationProperties(prefix = McpTransportProperties.PREFIX)
+public record McpTransportProperties(@DefaultValue("4194304") int maxFrameBytes,
+		@DefaultValue("false") boolean outboundBatching,
+		@DefaultValue("64") int outboundMaxBatchSize,
+		@DefaultValue("5ms") Duration outboundMaxBatchLatency,
+		@DefaultValue("256") int inboundHighWaterMark,
+		@DefaultValue("1024") int outboundHighWaterMark,
+		@DefaultValue("REACTOR") DispatchMode dispatchMode,
+		@DefaultValue({ "add_to_cart_item", "change_quantity_of_cart_item", "remove_item_from_cart_completely",
+				"checkout_and_pay" }) Set<String> orderedTools,
+		@DefaultValue({ "get_cart_content_in_json", "get_cart_content_in_xml", "get_cart_content_in_markdown",
+				"get_last_order_content_in_json", "get_last_order_content_in_xml",
+				"get_last_order_content_in_markdown", "list_past_orders", "search_past_orders" }) Set<String> stateReadTools,
+		@DefaultValue({ "get_cart_content_in_xml", "get_cart_content_in_markdown", "get_last_order_content_in_xml",
+				"get_last_order_content_in_markdown" }) Set<String> heavyTools,
+		@DefaultValue("64") int inboundMaxConcurrency,
+		@DefaultValue("8") int controlLaneWeight,
+		@DefaultValue("4") int cheapLaneWeight,
+		@DefaultValue("1") int heavyLaneWeight,
+		@DefaultValue("STREAMS") IoMode ioMode,
+		@DefaultValue Map<String, Duration> deadlines,
+		@DefaultValue("STDIO") Endpoint endpoint,
+		@DefaultValue("/tmp/mymcpserver.sock") Path socketPath,
+		@DefaultValue List<BinaryFormat> binaryFormats) {
+
+	public static final String PREFIX = "mine.mcp.transport";
+
+	/**
+	 * How inbound messages are handed to the session.
+	 */
+	public enum DispatchMode {
+		/** As the SDK does it, straight from the inbound sink */
+		REACTOR,
+		/** Every message on its own virtual thread, ordered tools one after the other */
+		VIRTUAL_THREADS
+	}
+
+	/**
+	 * Where clients connect to.
+	 */
+	public enum Endpoint {
+		/** One client, the process that started the server */
+		STDIO,
+		/** Any number of clients connecting to socketPath, e.g. through UnixSocketStdioShim */
+		UNIX_SOCKET
+	}
+
+	/**
+	 * How the bytes get in and out of the process.
+	 */
+	public enum IoMode {
+		/** Blocking System.in and System.out */
+		STREAMS,
+		/** File channels on file descriptors 0 and 1 with direct buffers, bypassing System.in and System.out */
+		CHANNELS
+	}
+
+	/**
+	 * Binary encodings a client may switch the connection to after initialize, in order of
+	 * preference.
+	 */
+	public enum BinaryFormat {
+		SMILE(BinaryFramingProtocol.SMILE),
+		CBOR(BinaryFramingProtocol.CBOR);
+
+		private final String id;
+
+		BinaryFormat(String id) {
+			this.id = id;
+		}
+
+		/**
+		 * @return the name used for the format during negotiation
+		 */
+		public String id() {
+			return id;
+		}
+	}
+
+	/*
+	 * Used outside of Spring, e.g. by the convenience constructors of the transport.
+	 */
+	public static McpTransportProperties defaults() {
+		return new Binder().bindOrCreate(PREFIX, McpTransportProperties.class);
+	}
+}
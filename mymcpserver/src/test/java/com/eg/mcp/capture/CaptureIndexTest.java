@@ -0,0 +1,62 @@
+package com.eg.mcp.capture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CaptureIndexTest {
+
+	private static final long MILLIS = 1_000_000;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void responsesArePairedWithTheRequestOfTheirSession() throws Exception {
+		CaptureIndex index = new CaptureIndex(dir, "combined.txt", Runnable::run);
+		// two clients numbering their requests alike, the first one answered last
+		index.add(Direction.IN, 1, 1, 1000 * MILLIS, List.of(request("1", "checkout_and_pay")), 1, 0);
+		index.add(Direction.IN, 2, 2, 1010 * MILLIS, List.of(request("1", "get_items")), 1, 100);
+		index.add(Direction.OUT, 2, 3, 1015 * MILLIS, List.of(response("1")), 1, 200);
+		index.add(Direction.OUT, 1, 4, 1300 * MILLIS, List.of(response("1")), 1, 300);
+
+		List<CapturedRequest> slow = index.find(query(null, Duration.ofMillis(100)), false);
+		List<CapturedRequest> all = index.find(query(null, null), false);
+
+		assertThat(slow).extracting(CapturedRequest::toolName).containsExactly("checkout_and_pay");
+		assertThat(slow.getFirst().durationMillis()).isEqualTo(300.0);
+		assertThat(all).extracting(CapturedRequest::toolName).containsExactly("get_items", "checkout_and_pay");
+		assertThat(all.getFirst().durationMillis()).isEqualTo(5.0);
+	}
+
+	@Test
+	void requestReusingAPendingIdOfItsSessionLeavesTheFirstUnanswered() throws Exception {
+		CaptureIndex index = new CaptureIndex(dir, "combined.txt", Runnable::run);
+		index.add(Direction.IN, 1, 1, 1000 * MILLIS, List.of(request("7", "get_items")), 1, 0);
+		index.add(Direction.IN, 1, 2, 1010 * MILLIS, List.of(request("7", "get_items")), 1, 100);
+		index.add(Direction.OUT, 1, 3, 1030 * MILLIS, List.of(response("7")), 1, 200);
+
+		List<CapturedRequest> all = index.find(query("7", null), false);
+
+		assertThat(all).extracting(CapturedRequest::seq).containsExactly(2L, 1L);
+		assertThat(all).extracting(CapturedRequest::durationMillis).containsExactly(20.0, null);
+	}
+
+	private static CaptureIndex.Header request(String id, String toolName) {
+		return new CaptureIndex.Header(id, "tools/call", toolName);
+	}
+
+	private static CaptureIndex.Header response(String id) {
+		return new CaptureIndex.Header(id, null, null);
+	}
+
+	private static CaptureQuery query(String id, Duration minDuration) {
+		return new CaptureQuery(null, null, id, null, null, minDuration, 20);
+	}
+
+}
@@ -0,0 +1,181 @@
+package com.eg.mcp.capture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class CaptureRingBufferTest {
+
+	/** The smallest ring there is */
+	private static final int CAPACITY = 1024;
+
+	/** Header plus session, what a frame takes besides its bytes */
+	private static final int OVERHEAD = CaptureRingBuffer.HEADER_SIZE + Integer.BYTES;
+
+	private record Frame(int session, Direction direction, boolean gap, boolean binary, int originalLength,
+			byte[] bytes) {
+
+		String text() {
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+	}
+
+	@Test
+	void framesOfSeveralProducersAreDrainedInTheOrderEachOfferedThem() throws Exception {
+		int producers = 4;
+		int perProducer = 5000;
+		CaptureRingBuffer ring = new CaptureRingBuffer(16 * 1024);
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(producers);
+		try {
+			List<Future<?>> offering = new ArrayList<>();
+			for (int producer = 1; producer <= producers; producer++) {
+				int session = producer;
+				offering.add(executor.submit(() -> {
+					start.await();
+					for (int i = 0; i < perProducer; i++) {
+						byte[] frame = (session + ":" + i).getBytes(StandardCharsets.UTF_8);
+						while (!ring.offer(session, Direction.IN, false, frame.length, frame, 0, frame.length)) {
+							Thread.onSpinWait();
+						}
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			List<Frame> drained = new ArrayList<>();
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+			while (drained.size() < producers * perProducer && System.nanoTime() < deadline) {
+				drain(ring, drained);
+			}
+			for (Future<?> producer : offering) {
+				producer.get(1, TimeUnit.SECONDS);
+			}
+
+			assertThat(drained).hasSize(producers * perProducer);
+			int[] next = new int[producers + 1];
+			for (Frame frame : drained) {
+				String[] fields = frame.text().split(":");
+				assertThat(Integer.parseInt(fields[0])).isEqualTo(frame.session());
+				assertThat(Integer.parseInt(fields[1])).isEqualTo(next[frame.session()]++);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void framesWrapAroundTheEndOfTheRing() throws Exception {
+		CaptureRingBuffer ring = new CaptureRingBuffer(CAPACITY);
+		List<Frame> drained = new ArrayList<>();
+		for (int round = 0; round < 200; round++) {
+			List<byte[]> offered = new ArrayList<>();
+			// odd sizes, so frames start and end all over the ring
+			for (int i = 0; i < 3; i++) {
+				byte[] frame = pattern(round * 3 + i, 1 + (round * 37 + i * 11) % 250);
+				offered.add(frame);
+				assertThat(ring.offer(round, Direction.OUT, true, frame.length, ByteBuffer.wrap(frame), 0,
+						frame.length)).isTrue();
+			}
+			drained.clear();
+			assertThat(drain(ring, drained)).isEqualTo(3);
+			for (int i = 0; i < 3; i++) {
+				assertThat(drained.get(i).bytes()).isEqualTo(offered.get(i));
+				assertThat(drained.get(i).session()).isEqualTo(round);
+				assertThat(drained.get(i).binary()).isTrue();
+			}
+		}
+	}
+
+	@Test
+	void framesTakeTheirSizeRoundedUpTo16Bytes() throws Exception {
+		CaptureRingBuffer ring = new CaptureRingBuffer(CAPACITY);
+		byte[] frame = new byte[1];
+		// 16 + 4 + 1 bytes take 32
+		for (int i = 0; i < CAPACITY / 32; i++) {
+			assertThat(ring.offer(0, Direction.IN, false, 1, frame, 0, 1)).isTrue();
+		}
+		assertThat(ring.offer(0, Direction.IN, false, 1, frame, 0, 1)).isFalse();
+
+		assertThat(drain(ring, new ArrayList<>())).isEqualTo(CAPACITY / 32);
+		// 16 + 4 + 12 bytes take 32 too, the whole ring is free again
+		byte[] aligned = new byte[12];
+		for (int i = 0; i < CAPACITY / 32; i++) {
+			assertThat(ring.offer(0, Direction.IN, false, 12, aligned, 0, 12)).isTrue();
+		}
+		assertThat(ring.offer(0, Direction.IN, false, 12, aligned, 0, 12)).isFalse();
+	}
+
+	@Test
+	void truncatedFrameKeepsItsOriginalLength() throws Exception {
+		CaptureRingBuffer ring = new CaptureRingBuffer(CAPACITY);
+		byte[] frame = pattern(7, 100);
+		// leaves the frames below to cross the end of the ring
+		byte[] filler = new byte[CAPACITY - 2 * CaptureRingBuffer.HEADER_SIZE - OVERHEAD];
+		ring.offer(0, Direction.IN, false, filler.length, filler, 0, filler.length);
+		drain(ring, new ArrayList<>());
+
+		assertThat(ring.offer(3, Direction.IN, false, 100, frame, 0, 40)).isTrue();
+		assertThat(ring.offer(3, Direction.OUT, false, 100, frame, 0, 100)).isTrue();
+		List<Frame> drained = new ArrayList<>();
+		drain(ring, drained);
+
+		assertThat(drained.get(0).originalLength()).isEqualTo(100);
+		assertThat(drained.get(0).bytes()).isEqualTo(Arrays.copyOf(frame, 40));
+		assertThat(drained.get(0).session()).isEqualTo(3);
+		assertThat(drained.get(1).originalLength()).isEqualTo(100);
+		assertThat(drained.get(1).bytes()).isEqualTo(frame);
+	}
+
+	@Test
+	void fullRingDropsAndCountsFramesAndMarksTheNextOfTheirDirection() throws Exception {
+		CaptureRingBuffer ring = new CaptureRingBuffer(CAPACITY);
+		byte[] frame = new byte[CAPACITY / 2 - OVERHEAD];
+		assertThat(ring.offer(0, Direction.IN, false, frame.length, frame, 0, frame.length)).isTrue();
+		assertThat(ring.offer(0, Direction.IN, false, frame.length, frame, 0, frame.length)).isTrue();
+
+		assertThat(ring.offer(0, Direction.IN, false, frame.length, frame, 0, frame.length)).isFalse();
+		// the original length is what was dropped, not what would have been captured
+		assertThat(ring.offer(0, Direction.IN, false, 5000, frame, 0, 10)).isFalse();
+		assertThat(ring.droppedBytes()).isEqualTo(frame.length + 5000);
+
+		List<Frame> drained = new ArrayList<>();
+		drain(ring, drained);
+		ring.offer(0, Direction.OUT, false, 1, frame, 0, 1);
+		ring.offer(0, Direction.IN, false, 1, frame, 0, 1);
+		ring.offer(0, Direction.IN, false, 1, frame, 0, 1);
+		drain(ring, drained);
+
+		assertThat(drained).extracting(Frame::gap).containsExactly(false, false, false, true, false);
+		assertThat(drained).extracting(Frame::direction)
+			.containsExactly(Direction.IN, Direction.IN, Direction.OUT, Direction.IN, Direction.IN);
+	}
+
+	private static int drain(CaptureRingBuffer ring, List<Frame> drained) throws Exception {
+		return ring.drain((session, direction, gap, binary, originalLength, nanos, bytes, offset,
+				length) -> drained.add(new Frame(session, direction, gap, binary, originalLength,
+						Arrays.copyOfRange(bytes, offset, offset + length))));
+	}
+
+	private static byte[] pattern(int seed, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (seed * 31 + i);
+		}
+		return bytes;
+	}
+
+}
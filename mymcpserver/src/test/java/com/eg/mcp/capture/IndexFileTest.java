@@ -0,0 +1,161 @@
+package com.eg.mcp.capture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IndexFileTest {
+
+	private static final long MILLIS = 1_000_000;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void entriesAreReadBackAsWritten() throws Exception {
+		List<IndexEntry> entries = List.of(
+				entry(1000, 1, "1", "tools/call", "get_items", 5),
+				new IndexEntry(1010 * MILLIS, 2, 1, -1, null, "notifications/initialized", null, 1, 40, 0, 0),
+				entry(1020, 3, "2", "ping", null, 1));
+
+		IndexFile index = write(entries);
+
+		assertThat(index.minNanos()).isEqualTo(1000 * MILLIS);
+		assertThat(index.maxNanos()).isEqualTo(1020 * MILLIS);
+		assertThat(find(index, query(null, null, null, null), Long.MIN_VALUE, Long.MAX_VALUE))
+			.containsExactlyElementsOf(entries.reversed());
+	}
+
+	@Test
+	void emptyIndexHoldsNoTimes() throws Exception {
+		IndexFile index = write(List.of());
+
+		assertThat(index.minNanos()).isEqualTo(Long.MAX_VALUE);
+		assertThat(index.maxNanos()).isEqualTo(Long.MIN_VALUE);
+		assertThat(find(index, query(null, null, null, null), Long.MIN_VALUE, Long.MAX_VALUE)).isEmpty();
+	}
+
+	@Test
+	void stringsAreOrderedByTheirUnsignedBytes() throws Exception {
+		// é is encoded as 0xC3 0xA9, negative as signed bytes
+		List<String> ids = List.of("z", "é", "a", "éa", "\u007f", "", "ü");
+		List<IndexEntry> entries = new ArrayList<>();
+		for (int i = 0; i < ids.size(); i++) {
+			entries.add(entry(1000 + i, i + 1, ids.get(i), "tools/call", ids.get(i), 0));
+		}
+
+		IndexFile index = write(entries);
+
+		for (int i = 0; i < ids.size(); i++) {
+			assertThat(find(index, query(ids.get(i), null, null, null), Long.MIN_VALUE, Long.MAX_VALUE))
+				.containsExactly(entries.get(i));
+			assertThat(find(index, query(null, ids.get(i), null, null), Long.MIN_VALUE, Long.MAX_VALUE))
+				.containsExactly(entries.get(i));
+		}
+		assertThat(find(index, query("e", null, null, null), Long.MIN_VALUE, Long.MAX_VALUE)).isEmpty();
+		assertThat(find(index, query("\u0080", null, null, null), Long.MIN_VALUE, Long.MAX_VALUE)).isEmpty();
+	}
+
+	@Test
+	void timeBoundsAreInclusive() throws Exception {
+		List<IndexEntry> entries = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			entries.add(entry(1000 + 10 * i, i + 1, String.valueOf(i % 2), "tools/call", "get_items", 0));
+		}
+
+		IndexFile index = write(entries);
+
+		assertThat(find(index, query(null, null, null, null), 1020 * MILLIS, 1050 * MILLIS))
+			.extracting(IndexEntry::seq)
+			.containsExactly(6L, 5L, 4L, 3L);
+		assertThat(find(index, query(null, "get_items", null, null), 1021 * MILLIS, 1049 * MILLIS))
+			.extracting(IndexEntry::seq)
+			.containsExactly(5L, 4L);
+		assertThat(find(index, query("1", null, null, null), 1010 * MILLIS, 1090 * MILLIS))
+			.extracting(IndexEntry::seq)
+			.containsExactly(10L, 8L, 6L, 4L, 2L);
+		assertThat(find(index, query(null, null, null, null), 900 * MILLIS, 999 * MILLIS)).isEmpty();
+		assertThat(find(index, query(null, null, null, null), 1091 * MILLIS, 2000 * MILLIS)).isEmpty();
+	}
+
+	@Test
+	void entriesAreFoundByIdToolOrMethodAndDuration() throws Exception {
+		List<IndexEntry> entries = List.of(
+				entry(1000, 1, "1", "tools/call", "get_items", 5),
+				entry(1010, 2, "2", "tools/call", "checkout_and_pay", 300),
+				entry(1020, 3, "3", "ping", null, 1),
+				entry(1030, 4, "4", "tools/call", "get_items", 150),
+				entry(1040, 5, "1", "tools/call", "checkout_and_pay", 20));
+
+		IndexFile index = write(entries);
+
+		assertThat(find(index, query("1", null, null, null), Long.MIN_VALUE, Long.MAX_VALUE))
+			.extracting(IndexEntry::seq)
+			.containsExactly(5L, 1L);
+		assertThat(find(index, query(null, "get_items", null, null), Long.MIN_VALUE, Long.MAX_VALUE))
+			.extracting(IndexEntry::seq)
+			.containsExactly(4L, 1L);
+		assertThat(find(index, query(null, null, "ping", null), Long.MIN_VALUE, Long.MAX_VALUE))
+			.extracting(IndexEntry::seq)
+			.containsExactly(3L);
+		assertThat(find(index, query(null, null, "tools/call", Duration.ofMillis(100)), Long.MIN_VALUE,
+				Long.MAX_VALUE))
+			.extracting(IndexEntry::seq)
+			.containsExactly(4L, 2L);
+		// every field of the query has to match, the id picks the entries to look at
+		assertThat(find(index, new CaptureQuery(null, "get_items", "1", null, null, null, 20), Long.MIN_VALUE,
+				Long.MAX_VALUE))
+			.extracting(IndexEntry::seq)
+			.containsExactly(1L);
+		assertThat(find(index, query("9", null, null, null), Long.MIN_VALUE, Long.MAX_VALUE)).isEmpty();
+	}
+
+	@Test
+	void lookupStopsAtTheLimitWithTheLatestEntries() throws Exception {
+		List<IndexEntry> entries = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			entries.add(entry(1000 + i, i + 1, null, "ping", null, i));
+		}
+
+		IndexFile index = write(entries);
+
+		assertThat(find(index, new CaptureQuery("ping", null, null, null, null, null, 3), Long.MIN_VALUE,
+				Long.MAX_VALUE))
+			.extracting(IndexEntry::seq)
+			.containsExactly(10L, 9L, 8L);
+		assertThat(find(index, new CaptureQuery("ping", null, null, null, null, Duration.ofNanos(3), 2),
+				Long.MIN_VALUE, 1005 * MILLIS))
+			.extracting(IndexEntry::seq)
+			.containsExactly(6L, 5L);
+	}
+
+	private IndexFile write(List<IndexEntry> entries) throws Exception {
+		Path file = dir.resolve("combined-000001.idx");
+		IndexFile.write(file, entries);
+		assertThat(dir.resolve("combined-000001.idx.part")).doesNotExist();
+		return IndexFile.open(file);
+	}
+
+	private static List<IndexEntry> find(IndexFile index, CaptureQuery query, long fromNanos, long toNanos) {
+		List<IndexEntry> found = new ArrayList<>();
+		index.find(query, fromNanos, toNanos, found);
+		return found;
+	}
+
+	private static IndexEntry entry(long millis, long seq, String id, String method, String toolName,
+			long durationMillis) {
+		return new IndexEntry(millis * MILLIS, seq, 0, durationMillis * MILLIS, id, method, toolName, 1, seq * 100, 1,
+				seq * 100 + 50);
+	}
+
+	private static CaptureQuery query(String id, String toolName, String method, Duration minDuration) {
+		return new CaptureQuery(method, toolName, id, null, null, minDuration, 20);
+	}
+
+}
@@ -0,0 +1,134 @@
+package com.eg.mcp.capture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SegmentedCaptureFileTest {
+
+	private static final CaptureSegments SEGMENTS = new CaptureSegments("combined.txt");
+
+	@TempDir
+	Path dir;
+
+	private final List<Long> finished = new ArrayList<>();
+
+	@Test
+	void writeThatDoesNotFitGoesToTheNextSegment() throws Exception {
+		try (SegmentedCaptureFile file = open(policy(64, Duration.ofHours(1), Long.MAX_VALUE, false))) {
+			file.write(bytes('a', 40));
+			file.write(bytes('b', 20));
+			assertThat(file.lastWriteSequence()).isEqualTo(1);
+			assertThat(file.lastWriteOffset()).isEqualTo(40);
+			file.write(bytes('c', 10));
+			assertThat(file.lastWriteSequence()).isEqualTo(2);
+			assertThat(file.lastWriteOffset()).isZero();
+			// larger than a segment, gets one of its own
+			file.write(bytes('d', 200));
+			file.write(bytes('e', 1));
+		}
+
+		assertThat(finished).containsExactly(1L, 2L, 3L, 4L);
+		assertThat(contents()).containsExactly("a".repeat(40) + "b".repeat(20), "c".repeat(10), "d".repeat(200),
+				"e");
+	}
+
+	@Test
+	void flushFinishesASegmentOlderThanTheMaxAge() throws Exception {
+		try (SegmentedCaptureFile young = open(policy(64, Duration.ofHours(1), Long.MAX_VALUE, false))) {
+			young.write(bytes('a', 10));
+			young.flush();
+			assertThat(finished).isEmpty();
+		}
+		finished.clear();
+
+		try (SegmentedCaptureFile old = open(policy(64, Duration.ZERO, Long.MAX_VALUE, false))) {
+			old.write(bytes('b', 10));
+			old.flush();
+			assertThat(finished).containsExactly(2L);
+			// nothing written since, nothing to finish
+			old.flush();
+			old.write(bytes('c', 10));
+		}
+
+		assertThat(finished).containsExactly(2L, 3L);
+		assertThat(contents()).containsExactly("a".repeat(10), "b".repeat(10), "c".repeat(10));
+	}
+
+	@Test
+	void segmentsLeftByAPreviousRunAreTrimmedAndCompressed() throws Exception {
+		byte[] padded = Arrays.copyOf("{\"seq\":1}\n".getBytes(StandardCharsets.UTF_8), 100_000);
+		Files.write(dir.resolve("combined-000003.txt"), padded);
+		Files.write(dir.resolve("combined-000002.txt.gz"), new byte[0]);
+		Files.write(dir.resolve("combined-000004.txt.gz.part"), new byte[10]);
+		Files.write(dir.resolve("unrelated.txt.part"), new byte[10]);
+
+		try (SegmentedCaptureFile file = open(policy(64, Duration.ofHours(1), Long.MAX_VALUE, true))) {
+			file.write(bytes('a', 10));
+			// numbering goes on from the leftovers
+			assertThat(file.lastWriteSequence()).isEqualTo(4);
+		}
+
+		assertThat(dir.resolve("combined-000004.txt.gz.part")).doesNotExist();
+		assertThat(dir.resolve("unrelated.txt.part")).exists();
+		assertThat(dir.resolve("combined-000003.txt")).doesNotExist();
+		assertThat(read(dir.resolve("combined-000003.txt.gz"))).isEqualTo("{\"seq\":1}\n");
+		assertThat(read(dir.resolve("combined-000004.txt.gz"))).isEqualTo("a".repeat(10));
+	}
+
+	@Test
+	void oldestSegmentsBeyondTheRetentionSizeAreDeletedWithTheirIndex() throws Exception {
+		try (SegmentedCaptureFile file = open(policy(64, Duration.ofHours(1), 100, false))) {
+			for (char c = 'a'; c <= 'd'; c++) {
+				file.write(bytes(c, 50));
+				Files.write(dir.resolve(SEGMENTS.indexName(file.lastWriteSequence())), new byte[1]);
+			}
+		}
+
+		assertThat(SEGMENTS.list(dir)).extracting(SEGMENTS::sequence).containsExactly(3L, 4L);
+		assertThat(dir.resolve("combined-000001.idx")).doesNotExist();
+		assertThat(dir.resolve("combined-000002.idx")).doesNotExist();
+		assertThat(dir.resolve("combined-000003.idx")).exists();
+		assertThat(dir.resolve("combined-000004.idx")).exists();
+	}
+
+	private SegmentedCaptureFile open(SegmentedCaptureFile.Policy policy) throws IOException {
+		// housekeeping runs right away on the writing thread
+		return new SegmentedCaptureFile(dir, "combined.txt", policy, Runnable::run, finished::add);
+	}
+
+	private static SegmentedCaptureFile.Policy policy(int segmentSize, Duration maxAge, long retentionBytes,
+			boolean compress) {
+		return new SegmentedCaptureFile.Policy(segmentSize, maxAge, retentionBytes, compress);
+	}
+
+	private List<String> contents() throws IOException {
+		List<String> contents = new ArrayList<>();
+		for (Path segment : SEGMENTS.list(dir)) {
+			contents.add(read(segment));
+		}
+		return contents;
+	}
+
+	private static String read(Path segment) throws IOException {
+		try (InputStream in = CaptureSegments.open(segment)) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static byte[] bytes(char c, int length) {
+		return String.valueOf(c).repeat(length).getBytes(StandardCharsets.US_ASCII);
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.eg.mcp.capture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.eg.mcp.utils.McpLoggingProperties;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class WireCaptureTest {
+
+	private static final String CALL = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"tools/call\",\"params\":{\"name\":\"get_items\"}}";
+
+	private static final String RESULT = "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{}}";
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void framesGoToTheirDirectionAndToTheCombinedFile() throws Exception {
+		WireCapture capture = new WireCapture(dir, properties(1 << 20), new SimpleMeterRegistry());
+		MessageCapture first = capture.session();
+		MessageCapture second = capture.session();
+		try {
+			capture(first, Direction.IN, CALL);
+			capture(second, Direction.IN, CALL);
+			capture(second, Direction.OUT, RESULT);
+			byte[] result = RESULT.getBytes(StandardCharsets.UTF_8);
+			first.capture(Direction.OUT, false, ByteBuffer.wrap(result), 0, result.length);
+		}
+		finally {
+			capture.close();
+		}
+
+		assertThat(read("in.txt")).isEqualTo(CALL + "\n" + CALL + "\n");
+		assertThat(read("out.txt")).isEqualTo(RESULT + "\n" + RESULT + "\n");
+		List<String[]> lines = read("combined.txt").lines().map(line -> line.split("\t")).toList();
+		assertThat(lines).extracting(line -> line[0]).containsExactly("1", "2", "3", "4");
+		assertThat(lines).extracting(line -> line[2]).containsExactly("IN", "IN", "OUT", "OUT");
+		assertThat(lines).extracting(line -> line[3]).containsOnly("json");
+		assertThat(lines).extracting(line -> line[5]).containsExactly(CALL, CALL, RESULT, RESULT);
+
+		List<CapturedRequest> found = capture.find(new CaptureQuery(null, "get_items", null, null, null, null, 20),
+				true);
+		assertThat(found).extracting(CapturedRequest::seq).containsExactly(2L, 1L);
+		assertThat(found).extracting(CapturedRequest::response).containsOnly(RESULT);
+	}
+
+	@Test
+	void framesBeyondTheMaxPayloadSizeAreCutThere() throws Exception {
+		WireCapture capture = new WireCapture(dir, properties(10), new SimpleMeterRegistry());
+		try {
+			capture(capture.session(), Direction.IN, CALL);
+		}
+		finally {
+			capture.close();
+		}
+
+		assertThat(read("in.txt")).isEqualTo(CALL.substring(0, 10) + "\n");
+		String[] line = read("combined.txt").lines().findFirst().orElseThrow().split("\t");
+		assertThat(line[3]).isEqualTo("json+truncated");
+		assertThat(line[5]).contains("\"truncatedFrom\":" + CALL.length());
+	}
+
+	private static void capture(MessageCapture capture, Direction direction, String message) {
+		byte[] frame = message.getBytes(StandardCharsets.UTF_8);
+		capture.capture(direction, false, frame, 0, frame.length);
+	}
+
+	private McpLoggingProperties properties(int maxPayloadBytes) {
+		return new McpLoggingProperties(dir.toString(), null, "in.txt", "out.txt", "combined.txt", null, 64 * 1024,
+				1 << 20, Duration.ofHours(1), 1L << 30, false, Set.of(), Set.of(), Map.of(), maxPayloadBytes);
+	}
+
+	private String read(String fileName) throws IOException {
+		StringBuilder content = new StringBuilder();
+		for (Path segment : new CaptureSegments(fileName).list(dir)) {
+			try (InputStream in = CaptureSegments.openText(segment)) {
+				content.append(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+			}
+		}
+		return content.toString();
+	}
+
+}
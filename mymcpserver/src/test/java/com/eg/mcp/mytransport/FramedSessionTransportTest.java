@@ -0,0 +1,143 @@
+package com.eg.mcp.mytransport;
+
+import static com.eg.mcp.mytransport.InMemoryServer.tool;
+import static com.eg.mcp.mytransport.InMemoryServer.toolsCall;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.modelcontextprotocol.server.McpServerFeatures.SyncToolSpecification;
+
+class FramedSessionTransportTest {
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+	/**
+	 * A state reading call the lanes start before the ordered call it waits for must not
+	 * take the only inbound slot while it waits.
+	 */
+	@Test
+	void stateReadWaitingForAnOrderedCallDoesNotHoldTheOnlySlot() throws Exception {
+		AtomicInteger cart = new AtomicInteger();
+		List<SyncToolSpecification> tools = List.of(
+				tool("get_items", () -> {
+					sleep(50);
+					return "items";
+				}), tool("add_to_cart_item", () -> String.valueOf(cart.incrementAndGet())),
+				tool("get_cart_content_in_xml", () -> "<cart>" + cart.get() + "</cart>"));
+		try (InMemoryServer server = new InMemoryServer(
+				Map.of("dispatch-mode", "VIRTUAL_THREADS", "inbound-max-concurrency", "1"), tools)) {
+			server.send(toolsCall(10, "get_items", "{}"), toolsCall(11, "get_items", "{}"),
+					toolsCall(12, "get_items", "{}"), toolsCall(13, "get_items", "{}"),
+					toolsCall(20, "add_to_cart_item", "{}"), toolsCall(21, "get_cart_content_in_xml", "{}"));
+
+			Map<Integer, JsonNode> responses = receive(server, 6);
+
+			assertThat(responses).containsOnlyKeys(10, 11, 12, 13, 20, 21);
+			assertThat(text(responses.get(21))).isEqualTo("<cart>1</cart>");
+		}
+	}
+
+	/**
+	 * The requests of a batch are answered with one batch, an invalid member with an
+	 * error in it.
+	 */
+	@Test
+	void batchIsAnsweredWithOneBatch() throws Exception {
+		List<SyncToolSpecification> tools = List.of(tool("get_items", () -> "items"));
+		try (InMemoryServer server = new InMemoryServer(Map.of(), tools)) {
+			server.send("[" + toolsCall(1, "get_items", "{}") + "," + toolsCall(2, "get_items", "{}")
+					+ ",{\"jsonrpc\":\"2.0\",\"method\":\"notifications/progress\",\"params\":{}},42]");
+
+			JsonNode response = server.receive(TIMEOUT);
+
+			assertThat(response).isNotNull();
+			assertThat(response.isArray()).isTrue();
+			Map<String, JsonNode> byId = new HashMap<>();
+			response.forEach(member -> byId.put(member.get("id").asText(), member));
+			assertThat(byId).containsOnlyKeys("1", "2", "null");
+			assertThat(text(byId.get("1"))).isEqualTo("items");
+			assertThat(text(byId.get("2"))).isEqualTo("items");
+			assertThat(byId.get("null").get("error").get("code").asInt()).isEqualTo(-32600);
+		}
+	}
+
+	/**
+	 * With the only inbound slot taken by a heavy call, a ping is answered right away and
+	 * a cheap call is handled ahead of the heavy calls that came before it.
+	 */
+	@Test
+	void controlAndCheapCallsGoAheadOfHeavyCalls() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<SyncToolSpecification> tools = List.of(tool("render", () -> {
+			started.countDown();
+			try {
+				release.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return "rendered";
+		}), tool("get_items", () -> "items"));
+		try (InMemoryServer server = new InMemoryServer(Map.of("dispatch-mode", "VIRTUAL_THREADS",
+				"inbound-max-concurrency", "1", "heavy-tools", "render"), tools)) {
+			server.send(toolsCall(1, "render", "{}"));
+			assertThat(started.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+			server.send(toolsCall(2, "render", "{}"), toolsCall(3, "render", "{}"), toolsCall(4, "get_items", "{}"),
+					"{\"jsonrpc\":\"2.0\",\"id\":9,\"method\":\"ping\"}");
+
+			JsonNode pong = server.receive(TIMEOUT);
+			assertThat(pong).isNotNull();
+			assertThat(pong.get("id").asInt()).isEqualTo(9);
+
+			release.countDown();
+			List<Integer> order = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				JsonNode response = server.receive(TIMEOUT);
+				assertThat(response).isNotNull();
+				order.add(response.get("id").asInt());
+			}
+			// responses go out by lane too, the one to the cheap call may overtake the one to 1
+			assertThat(order.subList(0, 2)).containsExactlyInAnyOrder(1, 4);
+			assertThat(order.subList(2, 4)).containsExactly(2, 3);
+		}
+	}
+
+	private static Map<Integer, JsonNode> receive(InMemoryServer server, int count) {
+		Map<Integer, JsonNode> responses = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			JsonNode response = server.receive(TIMEOUT);
+			if (response == null) {
+				break;
+			}
+			responses.put(response.get("id").asInt(), response);
+		}
+		return responses;
+	}
+
+	private static String text(JsonNode response) {
+		return response.at("/result/content/0/text").asText();
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+package com.eg.mcp.mytransport;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import com.eg.mcp.utils.McpTransportProperties;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.modelcontextprotocol.server.McpServer;
+import io.modelcontextprotocol.server.McpServerFeatures.SyncToolSpecification;
+import io.modelcontextprotocol.server.McpSyncServer;
+import io.modelcontextprotocol.spec.McpSchema;
+
+/**
+ * A plain SDK server behind {@link MyStdioServerTransportProvider} on in-memory pipes,
+ * with the test playing the client. Every line the server writes is parsed and queued
+ * as it arrives, so a test can wait for responses in any order.
+ */
+class InMemoryServer implements AutoCloseable {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final OutputStream toServer;
+
+	private final BlockingQueue<JsonNode> received = new LinkedBlockingQueue<>();
+
+	private final McpSyncServer server;
+
+	/**
+	 * @param properties transport properties without the mine.mcp.transport prefix, the
+	 * defaults apply to everything left out
+	 */
+	InMemoryServer(Map<String, String> properties, List<SyncToolSpecification> tools) throws IOException {
+		PipedOutputStream requests = new PipedOutputStream();
+		PipedInputStream serverInput = new PipedInputStream(requests, 1024 * 1024);
+		PipedOutputStream serverOutput = new PipedOutputStream();
+		PipedInputStream responses = new PipedInputStream(serverOutput, 1024 * 1024);
+		this.toServer = requests;
+
+		var transportProvider = new MyStdioServerTransportProvider(MAPPER, serverInput, serverOutput,
+				properties(properties), new SimpleMeterRegistry());
+		this.server = McpServer.sync(transportProvider)
+			.serverInfo("test-server", "0.0.1")
+			.capabilities(McpSchema.ServerCapabilities.builder().tools(false).build())
+			.tools(tools)
+			.build();
+
+		Thread reader = new Thread(() -> {
+			try (BufferedReader lines = new BufferedReader(new InputStreamReader(responses, StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = lines.readLine()) != null) {
+					received.add(MAPPER.readTree(line));
+				}
+			}
+			catch (IOException e) {
+				// the pipe breaks once the server is closed
+			}
+		}, "test-client-reader");
+		reader.setDaemon(true);
+		reader.start();
+
+		send("{\"jsonrpc\":\"2.0\",\"id\":0,\"method\":\"initialize\",\"params\":{\"protocolVersion\":\""
+				+ McpSchema.LATEST_PROTOCOL_VERSION
+				+ "\",\"capabilities\":{},\"clientInfo\":{\"name\":\"test-client\",\"version\":\"0.0.1\"}}}");
+		if (receive(Duration.ofSeconds(10)) == null) {
+			throw new IllegalStateException("No initialize result");
+		}
+		send("{\"jsonrpc\":\"2.0\",\"method\":\"notifications/initialized\"}");
+	}
+
+	static McpTransportProperties properties(Map<String, String> properties) {
+		Map<String, String> prefixed = new HashMap<>();
+		properties.forEach((name, value) -> prefixed.put(McpTransportProperties.PREFIX + "." + name, value));
+		return new Binder(new MapConfigurationPropertySource(prefixed)).bindOrCreate(McpTransportProperties.PREFIX,
+				McpTransportProperties.class);
+	}
+
+	/**
+	 * Writes the lines and flushes once, so the server reads them as one burst.
+	 */
+	void send(String... lines) {
+		try {
+			for (String line : lines) {
+				toServer.write(line.getBytes(StandardCharsets.UTF_8));
+				toServer.write('\n');
+			}
+			toServer.flush();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return the next message the server wrote, null when none came in time
+	 */
+	JsonNode receive(Duration timeout) {
+		try {
+			return received.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	static String toolsCall(Object id, String tool, String arguments) {
+		return "{\"jsonrpc\":\"2.0\",\"id\":" + id + ",\"method\":\"tools/call\",\"params\":{\"name\":\"" + tool
+				+ "\",\"arguments\":" + arguments + "}}";
+	}
+
+	static SyncToolSpecification tool(String name, Supplier<String> result) {
+		var tool = new McpSchema.Tool(name, name, "{\"type\":\"object\",\"properties\":{}}");
+		return new SyncToolSpecification(tool,
+				(exchange, arguments) -> new McpSchema.CallToolResult(result.get(), false));
+	}
+
+	@Override
+	public void close() throws IOException {
+		toServer.close();
+		server.close();
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.eg.mcp.mytransport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import com.eg.mcp.framing.BinaryFramingProtocol;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class JsonRpcFrameReaderTest {
+
+	private static final String PING = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"ping\"}";
+
+	@Test
+	void framesReportTheBytesTheyTookOnTheWire() throws Exception {
+		byte[] wire = wire();
+		for (JsonRpcFrameSource reader : new JsonRpcFrameSource[] {
+				new JsonRpcFrameReader(new ByteArrayInputStream(wire), 1024),
+				new JsonRpcChannelFrameReader(Channels.newChannel(new ByteArrayInputStream(wire)), 1024) }) {
+			reader.acceptBinaryFrames(new JsonRpcDecoder(new ObjectMapper()));
+
+			assertThat(reader.readFrame()).isEqualTo(PING.length());
+			assertThat(reader.frameBytes()).isEqualTo(PING.length() + 1);
+			// the blank line in between is no frame
+			assertThat(reader.readFrame()).isEqualTo(PING.length());
+			assertThat(reader.frameBytes()).isEqualTo(PING.length() + 2);
+			assertThat(reader.readFrame()).isEqualTo(PING.length());
+			assertThat(reader.frameBytes()).isEqualTo(BinaryFramingProtocol.HEADER_SIZE + PING.length());
+			assertThat(reader.frameAsString()).isEqualTo(PING);
+			// the last frame, cut short by the end of the stream
+			assertThat(reader.readFrame()).isEqualTo(PING.length());
+			assertThat(reader.frameBytes()).isEqualTo(PING.length());
+			assertThat(reader.readFrame()).isEqualTo(JsonRpcFrameSource.END_OF_STREAM);
+		}
+	}
+
+	private static byte[] wire() {
+		byte[] ping = PING.getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream wire = new ByteArrayOutputStream();
+		wire.writeBytes(ping);
+		wire.write('\n');
+		wire.write('\n');
+		wire.writeBytes(ping);
+		wire.write('\r');
+		wire.write('\n');
+		wire.write(BinaryFramingProtocol.MARKER);
+		wire.writeBytes(ByteBuffer.allocate(Integer.BYTES).putInt(ping.length).array());
+		wire.writeBytes(ping);
+		wire.writeBytes(ping);
+		return wire.toByteArray();
+	}
+
+}
@@ -0,0 +1,108 @@
+package com.eg.mcp.orders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.eg.mcp.models.Order;
+import com.eg.mcp.models.OrderItem;
+import com.eg.mcp.models.ShopperId;
+
+class OrderHistoryTest {
+
+	private static final ShopperId CUSTOMER = ShopperId.customer("c");
+
+	private static final int ORDERS = 25;
+
+	private final OrderHistory history = StoreSnapshots.none(OrderJournal.none()).history();
+
+	@Test
+	void latestPagesWalkEveryOrderOnce() throws IOException {
+		List<Order> orders = placeOrders();
+
+		List<Order> walked = walk(OrderQuery.Sort.LATEST, 4);
+
+		assertThat(walked).containsExactlyElementsOf(
+				orders.stream().sorted(Comparator.comparing(Order::orderDateTime).reversed()).toList());
+	}
+
+	@Test
+	void largestPagesWalkEveryOrderOnce() throws IOException {
+		List<Order> orders = placeOrders();
+
+		List<Order> walked = walk(OrderQuery.Sort.LARGEST, 4);
+
+		assertThat(walked).containsExactlyInAnyOrderElementsOf(orders);
+		assertThat(walked).extracting(Order::total).isSortedAccordingTo(Comparator.reverseOrder());
+	}
+
+	@Test
+	void ordersPlacedMeanwhileDoNotShiftTheNextPage() throws IOException {
+		placeOrders();
+		OrderPage first = history.find(CUSTOMER, query(OrderQuery.Sort.LATEST, 5, null));
+
+		history.add(CUSTOMER, order(ORDERS + 1, 3), OrderJournal.NOT_JOURNALED);
+		OrderPage second = history.find(CUSTOMER, query(OrderQuery.Sort.LATEST, 5, first.nextCursor()));
+
+		assertThat(second.orders()).extracting(Order::orderNumber)
+			.containsExactly(LongStream.iterate(ORDERS - 5, id -> id - 1)
+				.limit(5)
+				.mapToObj(OrderIds::orderNumber)
+				.toArray(String[]::new));
+	}
+
+	@Test
+	void cursorOfAnotherSortIsRefused() throws IOException {
+		placeOrders();
+		String cursor = history.find(CUSTOMER, query(OrderQuery.Sort.LATEST, 5, null)).nextCursor();
+
+		assertThatIllegalArgumentException()
+			.isThrownBy(() -> history.find(CUSTOMER, query(OrderQuery.Sort.LARGEST, 5, cursor)));
+		assertThatIllegalArgumentException()
+			.isThrownBy(() -> history.find(CUSTOMER, query(OrderQuery.Sort.LATEST, 5, "not a cursor")));
+	}
+
+	/**
+	 * Orders 1 to ORDERS, one minute apart, with totals out of time order and some the same.
+	 */
+	private List<Order> placeOrders() {
+		List<Order> orders = new ArrayList<>();
+		for (long id = 1; id <= ORDERS; id++) {
+			Order order = order(id, (id * 7) % 11);
+			history.add(CUSTOMER, order, OrderJournal.NOT_JOURNALED);
+			orders.add(order);
+		}
+		return orders;
+	}
+
+	private List<Order> walk(OrderQuery.Sort sort, int limit) throws IOException {
+		List<Order> walked = new ArrayList<>();
+		String cursor = null;
+		do {
+			OrderPage page = history.find(CUSTOMER, query(sort, limit, cursor));
+			assertThat(page.orders()).hasSizeLessThanOrEqualTo(limit);
+			walked.addAll(page.orders());
+			cursor = page.nextCursor();
+		}
+		while (cursor != null);
+		return walked;
+	}
+
+	private static OrderQuery query(OrderQuery.Sort sort, int limit, String cursor) {
+		return new OrderQuery(null, null, null, null, null, sort, limit, cursor);
+	}
+
+	private static Order order(long id, float total) {
+		return new Order(OrderIds.orderNumber(id), LocalDateTime.of(2025, 1, 1, 0, 0).plusMinutes(id),
+				List.of(new OrderItem("Football", 1, total, total, "football.png", "USD")), 0f, "USD");
+	}
+
+}
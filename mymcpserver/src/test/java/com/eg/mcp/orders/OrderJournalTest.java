@@ -0,0 +1,136 @@
+package com.eg.mcp.orders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.eg.mcp.models.Order;
+import com.eg.mcp.models.OrderItem;
+import com.eg.mcp.models.SportsItem;
+
+class OrderJournalTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void reopenCutsOffATruncatedLastRecord() throws Exception {
+		List<Long> positions = journal(3);
+		long end = end();
+		truncate(end - 5);
+
+		try (OrderJournal journal = OrderJournal.open(dir, false)) {
+			assertThat(journal.end()).isEqualTo(positions.get(2));
+			assertThat(replayedOrders(journal)).containsExactly(OrderIds.orderNumber(1), OrderIds.orderNumber(2));
+			long position = journal.append(new JournaledOrder("c", order(4))).join();
+			assertThat(position).isEqualTo(positions.get(2));
+			assertThat(journal.read(position).order().orderNumber()).isEqualTo(OrderIds.orderNumber(4));
+		}
+	}
+
+	@Test
+	void reopenCutsOffAGarbageTail() throws Exception {
+		journal(3);
+		long end = end();
+		appendGarbage(ByteBuffer.allocate(11).put((byte) 7).putInt(7).putInt(Integer.MAX_VALUE - 3).put((byte) 1)
+			.put((byte) 2));
+		appendGarbage(ByteBuffer.allocate(12).putInt(-1).putInt(-1).putInt(-1));
+		appendGarbage(ByteBuffer.allocate(8).putInt(3).putInt((int) end));
+
+		try (OrderJournal journal = OrderJournal.open(dir, false)) {
+			assertThat(journal.end()).isEqualTo(end);
+			assertThat(replayedOrders(journal)).containsExactly(OrderIds.orderNumber(1), OrderIds.orderNumber(2),
+					OrderIds.orderNumber(3));
+		}
+	}
+
+	@Test
+	void reopenOfACorruptedOnlyRecordLeavesAnEmptyJournal() throws Exception {
+		journal(1);
+		truncate(end() - 1);
+		appendGarbage(ByteBuffer.allocate(4).putInt(Integer.MIN_VALUE));
+
+		try (OrderJournal journal = OrderJournal.open(dir, false)) {
+			assertThat(journal.end()).isEqualTo(OrderJournal.START);
+			assertThat(replayedOrders(journal)).isEmpty();
+		}
+	}
+
+	@Test
+	void cartIsReadBackFromItsPosition() throws Exception {
+		try (OrderJournal journal = OrderJournal.open(dir, false)) {
+			long position = journal.append(new JournaledCart("c", Map.of(SportsItem.values()[0], 3))).join();
+
+			JournaledCart cart = journal.readCart(position);
+
+			assertThat(cart.customerId()).isEqualTo("c");
+			assertThat(cart.quantities()).containsExactly(Map.entry(SportsItem.values()[0], 3));
+		}
+	}
+
+	/**
+	 * Journals orders 1 to count and closes the journal.
+	 * @return the positions of the orders
+	 */
+	private List<Long> journal(int count) throws IOException {
+		List<Long> positions = new ArrayList<>();
+		try (OrderJournal journal = OrderJournal.open(dir, false)) {
+			for (int id = 1; id <= count; id++) {
+				positions.add(journal.append(new JournaledOrder("c", order(id))).join());
+			}
+		}
+		return positions;
+	}
+
+	static Order order(long id) {
+		return new Order(OrderIds.orderNumber(id), LocalDateTime.of(2025, 1, 1, 0, 0).plusMinutes(id),
+				List.of(new OrderItem("Football", 1, id, id, "football.png", "USD")), 0f, "USD");
+	}
+
+	private static List<String> replayedOrders(OrderJournal journal) throws IOException {
+		List<String> orders = new ArrayList<>();
+		journal.replay(OrderJournal.START, journal.end(), new OrderJournal.Replay() {
+
+			@Override
+			public void order(JournaledOrder order, long position) {
+				orders.add(order.order().orderNumber());
+			}
+
+			@Override
+			public void cart(JournaledCart cart, long position) {
+			}
+
+		});
+		return orders;
+	}
+
+	private long end() throws IOException {
+		try (FileChannel channel = FileChannel.open(dir.resolve(OrderJournal.FILE_NAME), StandardOpenOption.READ)) {
+			return channel.size();
+		}
+	}
+
+	private void truncate(long size) throws IOException {
+		try (FileChannel channel = FileChannel.open(dir.resolve(OrderJournal.FILE_NAME), StandardOpenOption.WRITE)) {
+			channel.truncate(size);
+		}
+	}
+
+	private void appendGarbage(ByteBuffer garbage) throws IOException {
+		try (FileChannel channel = FileChannel.open(dir.resolve(OrderJournal.FILE_NAME), StandardOpenOption.APPEND)) {
+			channel.write(garbage.flip());
+		}
+	}
+
+}
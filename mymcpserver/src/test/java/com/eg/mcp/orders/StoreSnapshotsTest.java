@@ -0,0 +1,98 @@
+package com.eg.mcp.orders;
+
+import static com.eg.mcp.orders.OrderJournalTest.order;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.eg.mcp.models.Order;
+import com.eg.mcp.models.ShopperId;
+import com.eg.mcp.models.SportsItem;
+
+class StoreSnapshotsTest {
+
+	/** Never reached by a test, so only an explicit snapshot is taken */
+	private static final long NO_SNAPSHOTS = 1L << 40;
+
+	private static final SportsItem ITEM = SportsItem.values()[0];
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void snapshotAndTheJournalAfterItAreRecovered() throws Exception {
+		try (OrderJournal journal = OrderJournal.open(dir, false)) {
+			journal.append(new JournaledOrder("c", order(1))).join();
+			journal.append(new JournaledCart("c", Map.of(ITEM, 2))).join();
+		}
+		snapshot();
+		try (OrderJournal journal = OrderJournal.open(dir, false)) {
+			journal.append(new JournaledOrder("c", order(2))).join();
+			journal.append(new JournaledCart("d", Map.of(ITEM, 5))).join();
+		}
+
+		try (OrderJournal journal = OrderJournal.open(dir, false);
+				StoreSnapshots snapshots = StoreSnapshots.open(dir, journal, NO_SNAPSHOTS)) {
+			assertThat(Files.exists(dir.resolve(StoreSnapshot.FILE_NAME))).isTrue();
+			assertThat(snapshots.lastOrderId()).isEqualTo(2);
+			assertThat(orderNumbers(snapshots)).containsExactly(OrderIds.orderNumber(2), OrderIds.orderNumber(1));
+			assertThat(snapshots.carts().load("c").quantities()).containsExactly(Map.entry(ITEM, 2));
+			assertThat(snapshots.carts().load("d").quantities()).containsExactly(Map.entry(ITEM, 5));
+		}
+	}
+
+	@Test
+	void snapshotAheadOfTheJournalIsDeletedAndTheJournalReplayed() throws Exception {
+		long lost;
+		try (OrderJournal journal = OrderJournal.open(dir, false)) {
+			journal.append(new JournaledOrder("c", order(1))).join();
+			journal.append(new JournaledCart("c", Map.of(ITEM, 2))).join();
+			lost = journal.append(new JournaledOrder("c", order(2))).join();
+			journal.append(new JournaledCart("c", Map.of())).join();
+		}
+		snapshot();
+		// the journal lost its last writes, which the snapshot has
+		try (FileChannel channel = FileChannel.open(dir.resolve(OrderJournal.FILE_NAME), StandardOpenOption.WRITE)) {
+			channel.truncate(lost);
+		}
+
+		try (OrderJournal journal = OrderJournal.open(dir, false);
+				StoreSnapshots snapshots = StoreSnapshots.open(dir, journal, NO_SNAPSHOTS)) {
+			assertThat(Files.exists(dir.resolve(StoreSnapshot.FILE_NAME))).isFalse();
+			assertThat(snapshots.lastOrderId()).isEqualTo(1);
+			assertThat(orderNumbers(snapshots)).containsExactly(OrderIds.orderNumber(1));
+			assertThat(snapshots.carts().load("c").quantities()).containsExactly(Map.entry(ITEM, 2));
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the whole journal, as opening does for a journal grown past the
+	 * snapshot size.
+	 */
+	private void snapshot() throws IOException {
+		try (OrderJournal journal = OrderJournal.open(dir, false);
+				StoreSnapshots snapshots = StoreSnapshots.open(dir, journal, 1)) {
+			// closing waits for the snapshot being taken
+		}
+		assertThat(Files.exists(dir.resolve(StoreSnapshot.FILE_NAME))).isTrue();
+	}
+
+	private static List<String> orderNumbers(StoreSnapshots snapshots) throws IOException {
+		return snapshots.history()
+			.find(ShopperId.customer("c"), new OrderQuery(null, null, null, null, null, OrderQuery.Sort.LATEST, 10, null))
+			.orders()
+			.stream()
+			.map(Order::orderNumber)
+			.toList();
+	}
+
+}